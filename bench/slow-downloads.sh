@@ -0,0 +1,57 @@
+#!/bin/bash
+# Many clients downloading the same file slowly at the same time.
+#
+# Every download holds its request thread while the client reads, so with platform threads
+# the Tomcat pool (server.tomcat.threads.max, 200 by default) caps how many are served at once
+# and the rest wait in the accept queue. Run it once against an instance started with
+# spring.threads.virtual.enabled=false and once with true, and compare the time to first byte.
+#
+# The rate limits would refuse most of these requests, so start the instance with them off:
+#   --edu.diploma.ratelimit.ip.rate=0 --edu.diploma.ratelimit.endpoint.rate=0
+#   --edu.diploma.ratelimit.user.rate=0 --edu.diploma.ratelimit.download.bytes-per-second=0
+#
+# QUERY=stream=true sends the downloads through the non-blocking endpoint instead, which gives
+# the thread back while the client reads with either kind of thread.
+#
+# Usage: bench/slow-downloads.sh [clients] [size-mb] [client-rate]
+
+BASE_URL=${BASE_URL:-http://localhost:8080}
+CLIENTS=${1:-300}
+SIZE_MB=${2:-16}
+RATE=${3:-2M}
+QUERY=${QUERY:+&$QUERY}
+FILENAME=bench-${SIZE_MB}mb.bin
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+TOKEN=$(curl -s -d'{"login":"test","password":"test"}' -H 'Content-Type:application/json' "$BASE_URL/login" \
+    | sed 's/.*"auth-token":"\([^"]*\)".*/\1/')
+
+head -c $((SIZE_MB * 1024 * 1024)) /dev/urandom > "$WORK/$FILENAME"
+curl -s -o /dev/null -H "auth-token: Bearer $TOKEN" -F "filename=$FILENAME" -F "file=@$WORK/$FILENAME" "$BASE_URL/file"
+
+echo "clients=$CLIENTS size=${SIZE_MB}MB rate=$RATE query=${QUERY#&}"
+START=$(date +%s%N)
+
+# One curl process runs all transfers, so the client machine is not the bottleneck
+for i in $(seq 1 "$CLIENTS"); do
+    printf 'url = "%s/file?filename=%s%s"\noutput = "/dev/null"\n' "$BASE_URL" "$FILENAME" "$QUERY"
+done > "$WORK/transfers"
+
+curl -s --parallel --parallel-immediate --parallel-max "$CLIENTS" --limit-rate "$RATE" \
+    -w '%{http_code} %{time_starttransfer} %{time_total}\n' \
+    -H "auth-token: Bearer $TOKEN" -K "$WORK/transfers" > "$WORK/results" 2>/dev/null
+
+END=$(date +%s%N)
+
+curl -s -o /dev/null -X DELETE -H "auth-token: Bearer $TOKEN" -G --data-urlencode "filename=$FILENAME" "$BASE_URL/file"
+
+echo "wall clock: $(( (END - START) / 1000000 )) ms"
+cut -d' ' -f1 "$WORK/results" | sort | uniq -c | awk '{ printf "status %s: %d\n", $2, $1 }'
+cut -d' ' -f2 "$WORK/results" | sort -n | awk '
+    { ttfb[NR] = $1 }
+    END { printf "time to first byte: median %.2fs, p95 %.2fs, max %.2fs\n", ttfb[int(NR * 0.5)], ttfb[int(NR * 0.95)], ttfb[NR] }'
+cut -d' ' -f3 "$WORK/results" | sort -n | awk '
+    { t[NR] = $1 }
+    END { printf "download time: median %.2fs, max %.2fs\n", t[int(NR * 0.5)], t[NR] }'
@@ -1,15 +1,18 @@
 package edu.diploma;
 
+import edu.diploma.controller.FileController;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import java.util.Optional;
 
 @SpringBootApplication
+@EnableScheduling
 public class FileApplication {
 
     @Value("${edu.diploma.security.allowed.methods}")
@@ -30,6 +33,7 @@ public class FileApplication {
                         .allowedMethods(
                                 Optional.ofNullable(METHODS).map(x -> x.split(",")).orElseGet(() -> new String[0])
                         )
+                        .exposedHeaders(FileController.NEXT_CURSOR_HEADER)
                         .allowCredentials(true);
             }
         };
@@ -1,11 +1,11 @@
 package edu.diploma;
 
+import edu.diploma.model.ContentBlob;
 import edu.diploma.model.File;
-import edu.diploma.model.FileContent;
 import edu.diploma.model.User;
-import edu.diploma.repository.FileContentRepository;
 import edu.diploma.repository.FileRepository;
 import edu.diploma.repository.UserRepository;
+import edu.diploma.service.ContentService;
 import jakarta.servlet.ServletContext;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Bean;
@@ -13,7 +13,8 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.util.ResourceUtils;
 
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.*;
 
 @Configuration
@@ -24,70 +25,64 @@ public class Init {
             BCryptPasswordEncoder passwordEncoder,
             UserRepository userRepository,
             FileRepository fileRepository,
-            FileContentRepository fileContentRepository,
+            ContentService contentService,
             ServletContext ctx
     ) {
         return args -> {
-            userRepository.save(new User("test", passwordEncoder.encode("test")));
+            User test = userRepository.save(new User("test", passwordEncoder.encode("test")));
             userRepository.save(new User("user2@mail.edu", passwordEncoder.encode("234")));
 
             ZonedDateTime now = LocalDate.now().atTime(LocalTime.now()).atZone(ZoneId.systemDefault());
 
-            File file1 = fileRepository.save(new File(
+            ContentBlob lorem = store(contentService, "classpath:demo/Lorem Ipsum.txt", "text/plain");
+            fileRepository.save(new File(
+                    test,
                     "Lorem Ipsum.txt",
                     "text/plain",
                     now.minusDays(10).toInstant().toEpochMilli(),
                     now.minusDays(10).toInstant().toEpochMilli(),
-                    653L
-            ));
-            fileContentRepository.save(new FileContent(
-                    file1,
-                    Files.readAllBytes(
-                            ResourceUtils.getFile("classpath:demo/Lorem Ipsum.txt").toPath()
-                    )
+                    lorem.getSize(),
+                    lorem
             ));
 
-            File file2 = fileRepository.save(new File(
+            ContentBlob celebration = store(contentService, "classpath:demo/milestone_celebration.avif", "image/avif");
+            fileRepository.save(new File(
+                    test,
                     "Празднование.avif",
                     "image/avif",
                     now.minusDays(7).toInstant().toEpochMilli(),
                     now.minusDays(7).toInstant().toEpochMilli(),
-                    6310L
-            ));
-            fileContentRepository.save(new FileContent(
-                    file2,
-                    Files.readAllBytes(
-                            ResourceUtils.getFile("classpath:demo/milestone_celebration.avif").toPath()
-                    )
+                    celebration.getSize(),
+                    celebration
             ));
 
-            File file3 = fileRepository.save(new File(
+            ContentBlob ringtone = store(contentService, "classpath:demo/incoming_ringtone.mp3", "audio/mpeg");
+            fileRepository.save(new File(
+                    test,
                     "Рингтон.mp3",
                     "audio/mpeg",
                     now.minusDays(6).toInstant().toEpochMilli(),
                     now.minusDays(6).toInstant().toEpochMilli(),
-                    438271L
-            ));
-            fileContentRepository.save(new FileContent(
-                    file3,
-                    Files.readAllBytes(
-                            ResourceUtils.getFile("classpath:demo/incoming_ringtone.mp3").toPath()
-                    )
+                    ringtone.getSize(),
+                    ringtone
             ));
 
-            File file4 = fileRepository.save(new File(
+            ContentBlob cloud = store(contentService, "classpath:demo/Облако.jpg", "image/jpeg");
+            fileRepository.save(new File(
+                    test,
                     "Облако.jpg",
                     "image/jpeg",
                     now.minusDays(5).toInstant().toEpochMilli(),
                     now.minusDays(5).toInstant().toEpochMilli(),
-                    220603L
-            ));
-            fileContentRepository.save(new FileContent(
-                    file4,
-                    Files.readAllBytes(
-                            ResourceUtils.getFile("classpath:demo/Облако.jpg").toPath()
-                    )
+                    cloud.getSize(),
+                    cloud
             ));
         };
     }
+
+    private static ContentBlob store(ContentService contentService, String location, String contentType) throws IOException {
+        try (InputStream in = ResourceUtils.getURL(location).openStream()) {
+            return contentService.store(in, contentType);
+        }
+    }
 }
@@ -2,13 +2,17 @@ package edu.diploma;
 
 import edu.diploma.auth.JwtFilter;
 import edu.diploma.auth.JwtHelper;
-import edu.diploma.model.User;
-import edu.diploma.repository.UserRepository;
+import edu.diploma.auth.PasswordHasher;
+import edu.diploma.auth.RateLimitFilter;
+import edu.diploma.auth.StatelessTokens;
+import edu.diploma.auth.TokenRegistry;
+import edu.diploma.model.AuthSession;
+import edu.diploma.repository.AuthSessionRepository;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.domain.Example;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
@@ -31,25 +35,40 @@ public class SecurityConfig {
     @Value("${edu.diploma.security.jwt.authorization-header:auth-token}")
     private String AUTHORIZATION_HEADER;
 
-    @Value("${edu.diploma.security.permit:/login}")
-    private String PERMIT;
+    @Value("${edu.diploma.security.permit:/login,/refresh}")
+    private String[] PERMIT;
+
+    @Value("${edu.diploma.security.bcrypt.strength:0}")
+    private int BCRYPT_STRENGTH;
+
+    @Value("${edu.diploma.security.bcrypt.target-millis:250}")
+    private long BCRYPT_TARGET_MILLIS;
 
     private final JwtFilter jwtFilter;
+    private final RateLimitFilter rateLimitFilter;
     private final JwtHelper jwtHelper;
     private final UserDetailsService userDetailsService;
-    private final UserRepository userRepository;
+    private final AuthSessionRepository authSessionRepository;
+    private final TokenRegistry tokenRegistry;
+    private final StatelessTokens statelessTokens;
 
     @Autowired
     public SecurityConfig(
             JwtFilter jwtFilter,
+            RateLimitFilter rateLimitFilter,
             JwtHelper jwtHelper,
             UserDetailsService userDetailsService,
-            UserRepository userRepository
+            AuthSessionRepository authSessionRepository,
+            TokenRegistry tokenRegistry,
+            StatelessTokens statelessTokens
     ) {
         this.jwtFilter = jwtFilter;
+        this.rateLimitFilter = rateLimitFilter;
         this.userDetailsService = userDetailsService;
         this.jwtHelper = jwtHelper;
-        this.userRepository = userRepository;
+        this.authSessionRepository = authSessionRepository;
+        this.tokenRegistry = tokenRegistry;
+        this.statelessTokens = statelessTokens;
     }
 
     @Bean
@@ -58,7 +77,9 @@ public class SecurityConfig {
                 .cors(Customizer.withDefaults())
                 .csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(
-                        auth -> auth.requestMatchers(PERMIT).permitAll()
+                        // An async dispatch only finishes writing a response that was authorized already
+                        auth -> auth.dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                                .requestMatchers(PERMIT).permitAll()
                                 .anyRequest().authenticated()
                 )
                 .logout(logout -> logout.logoutSuccessHandler((request,response,auth) -> {
@@ -66,17 +87,23 @@ public class SecurityConfig {
                             header -> header.split("\s")
                     ).map(
                             pieces -> pieces[pieces.length - 1]
-                    ).map(
-                            jwt -> jwtHelper.extractUsername(jwt)
-                    ).flatMap(
-                            username -> userRepository.findOne(Example.of(new User(username)))
-                    ).map(user -> {
-                        user.setToken(null);
-                        return user;
-                    }).ifPresent(user -> userRepository.save(user));
+                    ).ifPresent(jwt -> {
+                        if (statelessTokens.isEnabled()) {
+                            // No session to delete: the token and its refresh token are denied until they expire
+                            jwtHelper.verify(jwt).ifPresent(statelessTokens::revoke);
+                            return;
+                        }
+                        // Only this session ends; the user's logins on other devices stay valid.
+                        // The row goes first, so a request that misses the registry from now on
+                        // finds no session to register the token from again
+                        authSessionRepository.deleteByTokenHash(AuthSession.hash(jwt));
+                        jwtHelper.verify(jwt).ifPresent(tokenRegistry::revoke);
+                    });
                 }))
                 .sessionManagement(sm -> sm.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class)
+                // After the token is checked, so requests are also counted per user
+                .addFilterAfter(rateLimitFilter, JwtFilter.class)
                 .build();
     }
 
@@ -99,6 +126,9 @@ public class SecurityConfig {
 
     @Bean
     BCryptPasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        // A configured cost wins; otherwise the cost is fitted to the latency target on this machine
+        return new BCryptPasswordEncoder(
+                BCRYPT_STRENGTH > 0 ? BCRYPT_STRENGTH : PasswordHasher.calibrate(BCRYPT_TARGET_MILLIS, 10, 16)
+        );
     }
 }
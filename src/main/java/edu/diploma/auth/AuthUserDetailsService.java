@@ -2,29 +2,48 @@ package edu.diploma.auth;
 
 import edu.diploma.model.User;
 import edu.diploma.repository.UserRepository;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
 
+import java.util.Optional;
+
 @Component
 public class AuthUserDetailsService implements UserDetailsService {
 
     private final UserRepository userRepository;
 
-    public AuthUserDetailsService(UserRepository userRepository) {
+    private final UserDetailsCache userDetailsCache;
+
+    public AuthUserDetailsService(UserRepository userRepository, UserDetailsCache userDetailsCache) {
         this.userRepository = userRepository;
+        this.userDetailsCache = userDetailsCache;
     }
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        ExampleMatcher exampleMatcher = ExampleMatcher.matching()
-                .withMatcher("username", matcher -> matcher.exact());
-
-        return userRepository.findOne(Example.of(new User(username))).orElseThrow(
+        return findUser(username).orElseThrow(
                 () -> new UsernameNotFoundException("UsernameNotFoundException: " + username)
         );
     }
+
+    /**
+     * Served from {@link UserDetailsCache}; the users table is read only on a miss. Every lookup
+     * of a user by name, at login, refresh and for a session, goes through here.
+     */
+    public Optional<User> findUser(String username) {
+        return userDetailsCache.get(username).filter(User.class::isInstance).map(User.class::cast).or(() -> {
+            Optional<User> user = userRepository.findByUsername(username);
+            user.ifPresent(userDetailsCache::put);
+            return user;
+        });
+    }
+
+    /**
+     * Caches the user as it has just been committed, in place of the entry dropped on update.
+     */
+    public void cache(User user) {
+        userDetailsCache.put(user);
+    }
 }
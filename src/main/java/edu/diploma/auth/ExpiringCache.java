@@ -0,0 +1,102 @@
+package edu.diploma.auth;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A map whose entries each expire at their own time, holding at most {@code maxSize} of them.
+ * It backs the caches of the authentication path, where losing an entry only costs one more
+ * lookup, so room is made without any access order.
+ * <p>
+ * An insert into a full map trims it to nine tenths of its size: expired entries first, then
+ * any. The scan is paid for once per tenth of the size in inserts rather than on every insert,
+ * and while one thread trims, the others insert without waiting, which may go past the size by
+ * as many entries as there are such threads. A size of 0 keeps nothing.
+ */
+public class ExpiringCache<K, V> {
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final ReentrantLock trimming = new ReentrantLock();
+
+    private final int maxSize;
+
+    private final int trimmedSize;
+
+    private final Clock clock;
+
+    public ExpiringCache(int maxSize, Clock clock) {
+        this.maxSize = maxSize;
+        this.trimmedSize = maxSize - Math.max(1, maxSize / 10);
+        this.clock = clock;
+    }
+
+    /**
+     * The value, or empty when there is none or it has expired.
+     */
+    public Optional<V> get(K key) {
+        Entry<V> entry = Objects.isNull(key) ? null : entries.get(key);
+
+        if (Objects.isNull(entry)) {
+            return Optional.empty();
+        }
+        if (isExpired(entry)) {
+            entries.remove(key, entry);
+            return Optional.empty();
+        }
+        return Optional.of(entry.value());
+    }
+
+    public void put(K key, V value, Instant expiry) {
+        if (maxSize <= 0) {
+            return;
+        }
+        if (entries.size() >= maxSize && trimming.tryLock()) {
+            try {
+                trim();
+            } finally {
+                trimming.unlock();
+            }
+        }
+        entries.put(key, new Entry<>(value, expiry));
+    }
+
+    public boolean remove(K key) {
+        return Objects.nonNull(key) && Objects.nonNull(entries.remove(key));
+    }
+
+    /**
+     * Drops every entry whose value the predicate matches; a scan of the whole map.
+     */
+    public boolean removeIf(Predicate<V> predicate) {
+        return entries.values().removeIf(entry -> predicate.test(entry.value()));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void trim() {
+        entries.values().removeIf(this::isExpired);
+
+        Iterator<K> keys = entries.keySet().iterator();
+        while (entries.size() > trimmedSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return clock.instant().isAfter(entry.expiry());
+    }
+
+    private record Entry<V>(V value, Instant expiry) {
+    }
+}
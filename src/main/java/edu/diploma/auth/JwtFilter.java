@@ -1,7 +1,9 @@
 package edu.diploma.auth;
 
+import edu.diploma.model.AuthSession;
 import edu.diploma.model.User;
-import edu.diploma.repository.UserRepository;
+import edu.diploma.repository.AuthSessionRepository;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -9,10 +11,9 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.javatuples.Pair;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.PropertySource;
-import org.springframework.data.domain.Example;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -28,20 +29,28 @@ public class JwtFilter extends OncePerRequestFilter {
     @Value("${edu.diploma.security.jwt.authorization-header:auth-token}")
     private String AUTHORIZATION_HEADER;
 
-    private final UserDetailsService userDetailsService;
-
-    private final UserRepository userRepository;
+    private final AuthSessionRepository authSessionRepository;
 
     private final JwtHelper jwtHelper;
 
+    private final TokenRegistry tokenRegistry;
+
+    private final StatelessTokens statelessTokens;
+
+    private final AuthUserDetailsService userDetailsService;
+
     public JwtFilter(
-            UserDetailsService userDetailsService,
-            UserRepository userRepository,
-            JwtHelper jwtHelper
+            AuthSessionRepository authSessionRepository,
+            JwtHelper jwtHelper,
+            TokenRegistry tokenRegistry,
+            StatelessTokens statelessTokens,
+            AuthUserDetailsService userDetailsService
     ) {
-        this.userDetailsService = userDetailsService;
-        this.userRepository = userRepository;
+        this.authSessionRepository = authSessionRepository;
         this.jwtHelper = jwtHelper;
+        this.tokenRegistry = tokenRegistry;
+        this.statelessTokens = statelessTokens;
+        this.userDetailsService = userDetailsService;
     }
 
     @Override
@@ -51,36 +60,26 @@ public class JwtFilter extends OncePerRequestFilter {
             FilterChain filterChain
     ) throws ServletException, IOException {
 
+        // The token is verified once, from cache after the first request. A logged-in token is
+        // found in the registry; the session table is only asked for tokens the registry does not know
         Optional.ofNullable(request.getHeader(AUTHORIZATION_HEADER)).map(
                 header -> header.split("\s")
         ).map(
                 pieces -> pieces[pieces.length - 1]
         ).filter(
                 jwt -> !Objects.isNull(jwt)
-        ).map(
-                jwt -> Pair.with(jwt,jwtHelper.extractUsername(jwt))
-        ).filter(
-                jwt_username -> userRepository.findOne(
-                        Example.of(new User(jwt_username.getValue1()))
-                ).map(
-                        x -> jwt_username.getValue0().equals(x.getToken())
-                ).orElseGet(() -> false)
-        ).map(
-                jwt_username -> Pair.with(
-                        jwt_username,
-                        userDetailsService.loadUserByUsername(jwtHelper.extractUsername(jwt_username.getValue0()))
-                )
-        ).filter(
-                jwt_username_details -> jwtHelper.validateToken(
-                        jwt_username_details.getValue0().getValue0(),
-                        jwt_username_details.getValue1()
+        ).flatMap(
+                jwt -> jwtHelper.verify(jwt).map(claims -> Pair.with(jwt, claims))
+        ).flatMap(
+                jwt_claims -> lookup(jwt_claims.getValue0(), jwt_claims.getValue1()).map(
+                        user -> Pair.with(jwt_claims.getValue0(), (UserDetails) user)
                 )
         ).ifPresentOrElse(
-                jwt_username_details -> {
+                jwt_details -> {
                     UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(
-                            jwt_username_details.getValue1(),
-                            jwt_username_details.getValue0().getValue0(),
-                            jwt_username_details.getValue1().getAuthorities()
+                            jwt_details.getValue1(),
+                            jwt_details.getValue0(),
+                            jwt_details.getValue1().getAuthorities()
                     );
                     token.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                     SecurityContextHolder.getContext().setAuthentication(token);
@@ -101,4 +100,24 @@ public class JwtFilter extends OncePerRequestFilter {
                 }
         );
     }
+
+    private Optional<User> lookup(String jwt, Claims claims) {
+        if (statelessTokens.isEnabled()) {
+            // Stateless: the signed claims are all there is to check
+            return statelessTokens.authenticate(claims);
+        }
+        // The token names its user; the session must still belong to that same user
+        return tokenRegistry.lookup(claims).or(
+                () -> authSessionRepository.findUserIdByTokenHash(
+                        AuthSession.hash(jwt), System.currentTimeMillis()
+                ).flatMap(
+                        userId -> userDetailsService.findUser(claims.getSubject()).filter(
+                                user -> userId.equals(user.getId())
+                        )
+                ).map(user -> {
+                    tokenRegistry.register(claims, user);
+                    return user;
+                })
+        );
+    }
 }
@@ -1,9 +1,11 @@
 package edu.diploma.auth;
 
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -11,63 +13,117 @@ import org.springframework.stereotype.Component;
 
 import javax.crypto.spec.SecretKeySpec;
 import java.security.Key;
+import java.time.Clock;
 import java.time.Instant;
 import java.util.Base64;
 import java.util.Date;
 import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
 import java.util.function.Function;
 
 @Component
 @PropertySource("classpath:/application.properties")
 public class JwtHelper {
 
-    @Value("${edu.diploma.security.jwt.secret-key}")
-    private String secretKey;
+    private final long validity;
 
-    @Value("${edu.diploma.security.jwt.validity:3600000}")
-    private long validity;
+    private final Clock clock;
 
-    public String createToken(Map<String, Object> claims, String subject) {
-        Date expiryDate = Date.from(
-                Instant.ofEpochMilli(System.currentTimeMillis() + validity)
-        );
+    // Both are immutable and thread-safe, so they are built once instead of per token
+    private final Key hmacKey;
+
+    private final JwtParser parser;
+
+    /**
+     * Claims of tokens whose signature has already been checked, until they expire.
+     */
+    private final ExpiringCache<String, Claims> verified;
 
-        Key hmacKey = new SecretKeySpec(
+    @Autowired
+    public JwtHelper(
+            @Value("${edu.diploma.security.jwt.secret-key}") String secretKey,
+            @Value("${edu.diploma.security.jwt.validity:3600000}") long validity,
+            @Value("${edu.diploma.security.jwt.cache-size:10000}") int cacheSize
+    ) {
+        this(secretKey, validity, cacheSize, Clock.systemUTC());
+    }
+
+    public JwtHelper(String secretKey, long validity, int cacheSize, Clock clock) {
+        this.validity = validity;
+        this.clock = clock;
+        this.verified = new ExpiringCache<>(cacheSize, clock);
+        this.hmacKey = new SecretKeySpec(
                 Base64.getDecoder().decode(secretKey),
                 SignatureAlgorithm.HS256.getJcaName()
         );
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(hmacKey)
+                .setClock(() -> Date.from(clock.instant()))
+                .build();
+    }
+
+    public String createToken(Map<String, Object> claims, String subject) {
+        return createToken(claims, subject, validity);
+    }
+
+    public String createToken(Map<String, Object> claims, String subject, long validity) {
+        Date expiryDate = Date.from(
+                Instant.ofEpochMilli(clock.millis() + validity)
+        );
 
         return Jwts.builder()
                 .setClaims(claims)
+                .setId(UUID.randomUUID().toString())
                 .setSubject(subject)
-                .setIssuedAt(new Date(System.currentTimeMillis()))
+                .setIssuedAt(Date.from(clock.instant()))
                 .setExpiration(expiryDate)
                 .signWith(hmacKey)
                 .compact();
     }
 
+    /**
+     * The claims of a token with a valid signature that has not expired yet, or empty. The
+     * signature is checked on first sight only; after that the token is answered from the cache.
+     */
+    public Optional<Claims> verify(String bearerToken) {
+        try {
+            return Optional.of(extractClaims(bearerToken));
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
     public String extractUsername(String bearerToken) {
         return extractClaimBody(bearerToken, Claims::getSubject);
     }
 
     public <T> T extractClaimBody(String bearerToken, Function<Claims, T> claimsResolver) {
-        Jws<Claims> jwsClaims = extractClaims(bearerToken);
-        return claimsResolver.apply(jwsClaims.getBody());
+        return claimsResolver.apply(extractClaims(bearerToken));
     }
 
-    private Jws<Claims> extractClaims(String bearerToken) {
-        return Jwts.parserBuilder()
-                .setSigningKey(secretKey)
-                .build().parseClaimsJws(bearerToken);
+    private Claims extractClaims(String bearerToken) {
+        Optional<Claims> cached = verified.get(bearerToken);
+
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        // Throws on a bad signature and on expiry, so only good tokens are cached
+        Claims claims = parser.parseClaimsJws(bearerToken).getBody();
+        if (claims.getExpiration() != null) {
+            verified.put(bearerToken, claims, claims.getExpiration().toInstant());
+        }
+        return claims;
     }
 
-    public boolean validateToken(String token, UserDetails userDetails) {
-        final String userName = extractUsername(token);
-        return userName.equals(userDetails.getUsername()) && !isTokenExpired(token);
+    private boolean isExpired(Claims claims) {
+        return clock.instant().isAfter(claims.getExpiration().toInstant());
     }
 
-    private Boolean isTokenExpired(String bearerToken) {
-        return extractExpiry(bearerToken).before(new Date());
+    public boolean validateToken(String token, UserDetails userDetails) {
+        final Claims claims = extractClaims(token);
+        return claims.getSubject().equals(userDetails.getUsername()) && !isExpired(claims);
     }
 
     public Date extractExpiry(String bearerToken) {
@@ -0,0 +1,147 @@
+package edu.diploma.auth;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs BCrypt work on its own small pool instead of the request threads. The pool has a bounded
+ * queue and rejects at once when it is full, so a burst of logins is turned away early rather
+ * than tying up the threads that serve files.
+ */
+@Component
+public class PasswordHasher {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHasher.class);
+
+    private static final Pattern COST = Pattern.compile("^\\$2[abxy]?\\$(\\d{2})\\$");
+
+    private final BCryptPasswordEncoder encoder;
+
+    private final int strength;
+
+    private final Executor executor;
+
+    @Autowired
+    public PasswordHasher(
+            BCryptPasswordEncoder encoder,
+            @Value("${edu.diploma.security.login.threads:0}") int threads,
+            @Value("${edu.diploma.security.login.queue:64}") int queue
+    ) {
+        this(encoder, cost(encoder.encode("strength")), executor(threads, queue));
+    }
+
+    public PasswordHasher(BCryptPasswordEncoder encoder, int strength, Executor executor) {
+        this.encoder = encoder;
+        this.strength = strength;
+        this.executor = executor;
+    }
+
+    /**
+     * Completes with the result of the task, run on the hashing pool, or exceptionally with a
+     * {@link RejectedExecutionException} straight away if the pool is saturated.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            log.error(String.format("Password hashing rejected: %s", e.getMessage()));
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Blocking; to be called from a task given to {@link #submit(Supplier)}.
+     */
+    public boolean matches(CharSequence password, String encoded) {
+        return encoder.matches(password, encoded);
+    }
+
+    /**
+     * Blocking; to be called from a task given to {@link #submit(Supplier)}.
+     */
+    public String encode(CharSequence password) {
+        return encoder.encode(password);
+    }
+
+    /**
+     * Whether the hash was made with a different cost than the one in use now, so it should be
+     * replaced the next time the password is known.
+     */
+    public boolean needsRehash(String encoded) {
+        int cost = cost(encoded);
+        return cost > 0 && cost != strength;
+    }
+
+    public int getStrength() {
+        return strength;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ExecutorService service) {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * The highest BCrypt cost, between {@code min} and {@code max}, whose hash takes no longer
+     * than the target on this machine. Each step of the cost doubles the time, so only the
+     * lowest cost is measured.
+     */
+    public static int calibrate(long targetMillis, int min, int max) {
+        BCryptPasswordEncoder probe = new BCryptPasswordEncoder(min);
+        probe.encode("warm-up");
+
+        long start = System.nanoTime();
+        probe.encode("calibration");
+        double millis = (System.nanoTime() - start) / 1_000_000.0;
+
+        int strength = min;
+        while (strength < max && millis * 2 <= targetMillis) {
+            millis *= 2;
+            strength++;
+        }
+
+        log.info(String.format("BCrypt cost calibrated: %d, about %.0f ms per hash", strength, millis));
+        return strength;
+    }
+
+    private static int cost(String encoded) {
+        Matcher matcher = COST.matcher(encoded == null ? "" : encoded);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    private static Executor executor(int threads, int queue) {
+        int size = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger counter = new AtomicInteger();
+
+        return new ThreadPoolExecutor(
+                size, size,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)),
+                task -> {
+                    Thread thread = new Thread(task, "password-hasher-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+}
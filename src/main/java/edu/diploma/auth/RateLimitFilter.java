@@ -0,0 +1,413 @@
+package edu.diploma.auth;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.diploma.model.AppError;
+import edu.diploma.model.User;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import jakarta.servlet.http.Part;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token-bucket limits applied right after {@link JwtFilter}: per client address, per endpoint
+ * (all users together), per user, and per user bandwidth budgets for uploads and downloads.
+ * A request over any of them is answered with 429 and a Retry-After before it reaches a
+ * controller, so it holds neither a database connection nor a thread for long.
+ * <p>
+ * Upload bytes are taken from the Content-Length up front, and the bytes read beyond it, all of
+ * them for a chunked body, are charged once the body has been read. Download bytes are counted
+ * as the response is written, a zip streamed after the handler returned included, and charged
+ * once it is over. Either way a user in debt waits for the next request.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    public static final AppError TOO_MANY_REQUESTS = new AppError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many requests");
+
+    private final ObjectMapper objectMapper;
+
+    private final TokenBuckets addresses;
+
+    private final TokenBuckets endpoints;
+
+    private final TokenBuckets users;
+
+    private final TokenBuckets uploads;
+
+    private final TokenBuckets downloads;
+
+    private final LongSupplier nanoTime;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Autowired
+    public RateLimitFilter(
+            ObjectMapper objectMapper,
+            @Value("${edu.diploma.ratelimit.ip.rate:50}") double ipRate,
+            @Value("${edu.diploma.ratelimit.ip.burst:100}") double ipBurst,
+            @Value("${edu.diploma.ratelimit.endpoint.rate:1000}") double endpointRate,
+            @Value("${edu.diploma.ratelimit.endpoint.burst:2000}") double endpointBurst,
+            @Value("${edu.diploma.ratelimit.user.rate:20}") double userRate,
+            @Value("${edu.diploma.ratelimit.user.burst:40}") double userBurst,
+            @Value("${edu.diploma.ratelimit.upload.bytes-per-second:10485760}") double uploadRate,
+            @Value("${edu.diploma.ratelimit.upload.burst-bytes:104857600}") double uploadBurst,
+            @Value("${edu.diploma.ratelimit.download.bytes-per-second:20971520}") double downloadRate,
+            @Value("${edu.diploma.ratelimit.download.burst-bytes:209715200}") double downloadBurst
+    ) {
+        this(
+                objectMapper,
+                new TokenBuckets(ipRate, ipBurst),
+                new TokenBuckets(endpointRate, endpointBurst),
+                new TokenBuckets(userRate, userBurst),
+                new TokenBuckets(uploadRate, uploadBurst),
+                new TokenBuckets(downloadRate, downloadBurst),
+                System::nanoTime
+        );
+    }
+
+    public RateLimitFilter(
+            ObjectMapper objectMapper,
+            TokenBuckets addresses,
+            TokenBuckets endpoints,
+            TokenBuckets users,
+            TokenBuckets uploads,
+            TokenBuckets downloads,
+            LongSupplier nanoTime
+    ) {
+        this.objectMapper = objectMapper;
+        this.addresses = addresses;
+        this.endpoints = endpoints;
+        this.users = users;
+        this.uploads = uploads;
+        this.downloads = downloads;
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+
+        final long now = nanoTime.getAsLong();
+        final String user = username();
+        final boolean upload = isUpload(request);
+        final boolean download = isDownload(request);
+
+        long wait = addresses.tryTake(request.getRemoteAddr(), 1, now);
+
+        if (wait == 0) {
+            wait = endpoints.tryTake(request.getMethod() + " " + endpoint(request), 1, now);
+        }
+        if (wait == 0 && Objects.nonNull(user)) {
+            wait = users.tryTake(user, 1, now);
+        }
+        final long declared = Math.max(0, request.getContentLengthLong());
+        if (wait == 0 && Objects.nonNull(user) && upload) {
+            wait = uploads.tryTake(user, declared, now);
+        }
+        if (wait == 0 && Objects.nonNull(user) && download) {
+            wait = downloads.tryTake(user, 0, now);
+        }
+
+        if (wait > 0) {
+            reject(response, wait);
+            return;
+        }
+
+        if (Objects.isNull(user) || !(upload || download)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        if (upload) {
+            final CountingRequest counted = new CountingRequest(request);
+            final long parts = declared == 0 ? partsSize(request) : 0;
+            filterChain.doFilter(counted, response);
+            whenDone(counted, () -> chargeUpload(user, counted.getCount() + parts, declared));
+            return;
+        }
+
+        final CountingResponse counted = new CountingResponse(response);
+        filterChain.doFilter(request, counted);
+        whenDone(request, () -> downloads.charge(user, counted.getCount(), nanoTime.getAsLong()));
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Scheduled(
+            initialDelayString = "${edu.diploma.ratelimit.purge-interval:60000}",
+            fixedDelayString = "${edu.diploma.ratelimit.purge-interval:60000}"
+    )
+    public void purge() {
+        long now = nanoTime.getAsLong();
+        int purged = addresses.purge(now) + endpoints.purge(now) + users.purge(now)
+                + uploads.purge(now) + downloads.purge(now);
+
+        if (purged > 0) {
+            log.info(String.format("Idle rate limit buckets purged: %d, requests rejected so far: %d", purged, rejected.get()));
+        }
+    }
+
+    private void reject(HttpServletResponse response, long waitNanos) throws IOException {
+        rejected.incrementAndGet();
+
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000)));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write(objectMapper.writeValueAsString(TOO_MANY_REQUESTS));
+    }
+
+    /**
+     * Runs the charge once the request is over, which for an async request is when it completes,
+     * not when the filter chain returns.
+     */
+    private static void whenDone(HttpServletRequest request, Runnable charge) {
+        if (!request.isAsyncStarted()) {
+            charge.run();
+            return;
+        }
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                charge.run();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    private void chargeUpload(String user, long read, long declared) {
+        if (read > declared) {
+            uploads.charge(user, read - declared, nanoTime.getAsLong());
+        }
+    }
+
+    /**
+     * The container parses multipart bodies from its own stream, past the wrapper, so a chunked
+     * one is parsed here: the container keeps the parts for the controller, and their sizes tell
+     * how much was read. A body that does not parse is left for the controller to reject.
+     */
+    private static long partsSize(HttpServletRequest request) {
+        if (!Optional.ofNullable(request.getContentType()).orElse("").startsWith(MediaType.MULTIPART_FORM_DATA_VALUE)) {
+            return 0;
+        }
+        try {
+            return request.getParts().stream().mapToLong(Part::getSize).sum();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static String username() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        return Objects.nonNull(auth) && auth.getPrincipal() instanceof User user ? user.getUsername() : null;
+    }
+
+    private static String endpoint(HttpServletRequest request) {
+        String path = Objects.requireNonNullElse(request.getRequestURI(), "/");
+        int next = path.indexOf('/', 1);
+        return next < 0 ? path : path.substring(0, next);
+    }
+
+    private static boolean isUpload(HttpServletRequest request) {
+        String endpoint = endpoint(request);
+        return ("POST".equals(request.getMethod()) || "PUT".equals(request.getMethod()))
+                && ("/file".equals(endpoint) || "/files".equals(endpoint) || "/upload".equals(endpoint));
+    }
+
+    private static boolean isDownload(HttpServletRequest request) {
+        String endpoint = endpoint(request);
+        return "GET".equals(request.getMethod()) && ("/file".equals(endpoint) || "/files".equals(endpoint));
+    }
+
+    /**
+     * Counts the body bytes a controller reads, blocking or with a {@link ReadListener}. An async
+     * request keeps the count as long as it is started with this request.
+     */
+    private static final class CountingRequest extends HttpServletRequestWrapper {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private ServletInputStream in;
+
+        CountingRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (Objects.isNull(in)) {
+                in = new CountingInputStream(super.getInputStream(), count);
+            }
+            return in;
+        }
+
+        long getCount() {
+            return count.get();
+        }
+    }
+
+    /**
+     * Counts the body bytes written, also by a {@link WriteListener} or an async dispatch, as long
+     * as they go through this response.
+     */
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private ServletOutputStream out;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (Objects.isNull(out)) {
+                out = new CountingOutputStream(super.getOutputStream(), count);
+            }
+            return out;
+        }
+
+        long getCount() {
+            return count.get();
+        }
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream out;
+
+        private final AtomicLong count;
+
+        CountingOutputStream(ServletOutputStream out, AtomicLong count) {
+            this.out = out;
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count.addAndGet(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            out.setWriteListener(writeListener);
+        }
+    }
+
+    private static final class CountingInputStream extends ServletInputStream {
+
+        private final ServletInputStream in;
+
+        private final AtomicLong count;
+
+        CountingInputStream(ServletInputStream in, AtomicLong count) {
+            this.in = in;
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return in.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            in.setReadListener(readListener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
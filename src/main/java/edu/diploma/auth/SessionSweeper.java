@@ -0,0 +1,43 @@
+package edu.diploma.auth;
+
+import edu.diploma.repository.AuthSessionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Deletes the sessions whose tokens have expired, in one statement over the expiry index.
+ * Expired sessions are already refused on lookup; this only keeps the table small. Ids of
+ * revoked stateless tokens that have expired are dropped as well.
+ */
+@Component
+public class SessionSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionSweeper.class);
+
+    private final AuthSessionRepository authSessionRepository;
+
+    private final TokenDenylist tokenDenylist;
+
+    public SessionSweeper(AuthSessionRepository authSessionRepository, TokenDenylist tokenDenylist) {
+        this.authSessionRepository = authSessionRepository;
+        this.tokenDenylist = tokenDenylist;
+    }
+
+    @Scheduled(
+            initialDelayString = "${edu.diploma.security.session.sweep-interval:600000}",
+            fixedDelayString = "${edu.diploma.security.session.sweep-interval:600000}"
+    )
+    public void sweep() {
+        tokenDenylist.purge();
+        try {
+            int deleted = authSessionRepository.deleteExpired(System.currentTimeMillis());
+            if (deleted > 0) {
+                log.info(String.format("Expired sessions deleted: %d", deleted));
+            }
+        } catch (Exception e) {
+            log.error(String.format("Expired sessions cannot be deleted: %s", e.getMessage()));
+        }
+    }
+}
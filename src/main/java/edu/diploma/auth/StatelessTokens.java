@@ -0,0 +1,118 @@
+package edu.diploma.auth;
+
+import edu.diploma.model.Login;
+import edu.diploma.model.User;
+import io.jsonwebtoken.Claims;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The optional stateless mode: a login gets a short-lived access token that carries the user
+ * id, and a refresh token to get new ones. A request is authenticated from the signed claims
+ * alone, with no session or user lookup, so any node with the key can serve it. Revoked ids are
+ * kept in the {@link TokenDenylist} of the node that revoked them until they expire.
+ */
+@Component
+public class StatelessTokens {
+
+    public static final String USER_ID = "uid";
+
+    public static final String TYPE = "typ";
+
+    public static final String REFRESH = "refresh";
+
+    /**
+     * Id of the refresh token issued along with an access token, so logout can revoke both.
+     */
+    public static final String REFRESH_ID = "rid";
+
+    private final JwtHelper jwtHelper;
+
+    private final TokenDenylist tokenDenylist;
+
+    private final boolean enabled;
+
+    private final long accessValidity;
+
+    private final long refreshValidity;
+
+    @Autowired
+    public StatelessTokens(
+            JwtHelper jwtHelper,
+            TokenDenylist tokenDenylist,
+            @Value("${edu.diploma.security.jwt.stateless:false}") boolean enabled,
+            @Value("${edu.diploma.security.jwt.access-validity:900000}") long accessValidity,
+            @Value("${edu.diploma.security.jwt.refresh-validity:86400000}") long refreshValidity
+    ) {
+        this.jwtHelper = jwtHelper;
+        this.tokenDenylist = tokenDenylist;
+        this.enabled = enabled;
+        this.accessValidity = accessValidity;
+        this.refreshValidity = refreshValidity;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Login issue(User user) {
+        String refresh = jwtHelper.createToken(
+                Map.of(USER_ID, user.getId(), TYPE, REFRESH), user.getUsername(), refreshValidity
+        );
+        String refreshId = jwtHelper.extractClaimBody(refresh, Claims::getId);
+
+        String access = jwtHelper.createToken(
+                Map.of(USER_ID, user.getId(), REFRESH_ID, refreshId), user.getUsername(), accessValidity
+        );
+        return new Login(access, refresh);
+    }
+
+    /**
+     * The user an access token was issued to, built from its claims. Empty for refresh tokens,
+     * revoked tokens and tokens without a user id, e.g. ones issued in the stateful mode.
+     */
+    public Optional<User> authenticate(Claims claims) {
+        Long userId = claims.get(USER_ID, Long.class);
+
+        if (Objects.isNull(userId) || REFRESH.equals(claims.get(TYPE, String.class))
+                || tokenDenylist.isDenied(claims.getId())) {
+            return Optional.empty();
+        }
+        return Optional.of(new User(userId, claims.getSubject(), null));
+    }
+
+    /**
+     * The claims of a valid refresh token that has not been used or revoked yet.
+     */
+    public Optional<Claims> verifyRefresh(String refreshToken) {
+        return jwtHelper.verify(refreshToken).filter(
+                claims -> REFRESH.equals(claims.get(TYPE, String.class))
+                        && !tokenDenylist.isDenied(claims.getId())
+        );
+    }
+
+    /**
+     * Marks a refresh token as used. False if it had been used already, e.g. by a concurrent
+     * request with the same token.
+     */
+    public boolean consume(Claims refreshClaims) {
+        return tokenDenylist.deny(refreshClaims.getId(), refreshClaims.getExpiration().toInstant());
+    }
+
+    /**
+     * Revokes an access token and the refresh token issued with it.
+     */
+    public void revoke(Claims accessClaims) {
+        tokenDenylist.deny(accessClaims.getId(), accessClaims.getExpiration().toInstant());
+        // The refresh token's expiry is not in these claims; it is within a second of this
+        tokenDenylist.deny(
+                accessClaims.get(REFRESH_ID, String.class),
+                accessClaims.getIssuedAt().toInstant().plusMillis(refreshValidity).plusSeconds(1)
+        );
+    }
+}
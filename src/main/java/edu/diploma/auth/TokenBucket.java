@@ -0,0 +1,60 @@
+package edu.diploma.auth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket kept as a single timestamp: the time at which the bucket would be full again
+ * (the "theoretical arrival time" of the cell rate algorithm). Taking tokens moves it forward
+ * with a compare-and-set, so no lock is held and a bucket costs one long.
+ */
+public final class TokenBucket {
+
+    private final double nanosPerToken;
+
+    private final long tolerance;
+
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param rate  tokens added per second
+     * @param burst tokens the bucket holds when full
+     */
+    public TokenBucket(double rate, double burst) {
+        this.nanosPerToken = 1_000_000_000.0 / rate;
+        this.tolerance = (long) (burst * nanosPerToken);
+    }
+
+    /**
+     * Takes the tokens if the bucket has them and returns 0, or returns how many nanoseconds to
+     * wait until it will. A request for more than the bucket holds is let through once the
+     * bucket is full, leaving the bucket in debt.
+     */
+    public long tryTake(double tokens, long now) {
+        long cost = (long) (tokens * nanosPerToken);
+
+        while (true) {
+            long current = fullAt.get();
+            long start = Math.max(current, now);
+            long wait = start - now - (tolerance - Math.min(cost, tolerance));
+
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, start + cost)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Takes the tokens whether the bucket has them or not, for costs only known afterwards.
+     */
+    public void charge(double tokens, long now) {
+        long cost = (long) (tokens * nanosPerToken);
+        fullAt.accumulateAndGet(now, (current, time) -> Math.max(current, time) + cost);
+    }
+
+    public boolean isFull(long now) {
+        return fullAt.get() <= now;
+    }
+}
@@ -0,0 +1,55 @@
+package edu.diploma.auth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link TokenBucket} per key (a user, an address, an endpoint), all with the same limit.
+ * A rate of 0 or less turns the limit off.
+ */
+public class TokenBuckets {
+
+    private final double rate;
+
+    private final double burst;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    public TokenBuckets(double rate, double burst) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+    }
+
+    public boolean isEnabled() {
+        return rate > 0;
+    }
+
+    /**
+     * See {@link TokenBucket#tryTake(double, long)}; always 0 when the limit is off.
+     */
+    public long tryTake(String key, double tokens, long now) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        return buckets.computeIfAbsent(key, k -> new TokenBucket(rate, burst)).tryTake(tokens, now);
+    }
+
+    public void charge(String key, double tokens, long now) {
+        if (isEnabled()) {
+            buckets.computeIfAbsent(key, k -> new TokenBucket(rate, burst)).charge(tokens, now);
+        }
+    }
+
+    /**
+     * Drops the buckets that have filled up again; a new bucket for the key is just the same.
+     */
+    public int purge(long now) {
+        int before = buckets.size();
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+        return before - buckets.size();
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+}
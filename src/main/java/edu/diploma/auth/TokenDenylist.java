@@ -0,0 +1,78 @@
+package edu.diploma.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ids ({@code jti}) of revoked tokens that have not expired yet. An entry is only needed until
+ * its token would be refused for expiry anyway, so with short-lived tokens the list stays small.
+ */
+@Component
+public class TokenDenylist {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenDenylist.class);
+
+    private final Map<String, Instant> denied = new ConcurrentHashMap<>();
+
+    private final Clock clock;
+
+    public TokenDenylist() {
+        this(Clock.systemUTC());
+    }
+
+    public TokenDenylist(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Refuses the token id until the given time. False if it was refused already, so of two
+     * callers denying the same id only one succeeds.
+     */
+    public boolean deny(String id, Instant until) {
+        if (Objects.isNull(id) || Objects.isNull(until)) {
+            return false;
+        }
+        return Objects.isNull(denied.putIfAbsent(id, until));
+    }
+
+    public boolean isDenied(String id) {
+        if (Objects.isNull(id)) {
+            return false;
+        }
+
+        Instant until = denied.get(id);
+
+        if (Objects.isNull(until)) {
+            return false;
+        }
+        if (clock.instant().isAfter(until)) {
+            denied.remove(id, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops the ids whose tokens have expired since they were denied.
+     */
+    public void purge() {
+        int before = denied.size();
+        Instant now = clock.instant();
+        denied.values().removeIf(now::isAfter);
+
+        if (before > denied.size()) {
+            log.info(String.format("Expired token ids purged: %d", before - denied.size()));
+        }
+    }
+
+    public int size() {
+        return denied.size();
+    }
+}
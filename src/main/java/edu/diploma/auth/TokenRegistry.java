@@ -0,0 +1,91 @@
+package edu.diploma.auth;
+
+import edu.diploma.model.User;
+import io.jsonwebtoken.Claims;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Tokens issued by this instance that are still logged in, keyed by their id ({@code jti}),
+ * with the user they belong to. Filled at login and emptied at logout, so authenticating a
+ * request with a known token needs no database query. A token that is not here (issued before a
+ * restart, or evicted) is looked up in the session table and registered again.
+ * <p>
+ * Ids revoked in the last minute are remembered, so a request that read the session row just
+ * before logout deleted it cannot register the token again after the logout.
+ */
+@Component
+public class TokenRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRegistry.class);
+
+    private static final Duration REVOKED_FOR = Duration.ofMinutes(1);
+
+    private final ExpiringCache<String, User> active;
+
+    private final ExpiringCache<String, Boolean> revoked;
+
+    private final Clock clock;
+
+    @Autowired
+    public TokenRegistry(@Value("${edu.diploma.security.jwt.registry-size:10000}") int maxSize) {
+        this(maxSize, Clock.systemUTC());
+    }
+
+    public TokenRegistry(int maxSize, Clock clock) {
+        this.active = new ExpiringCache<>(maxSize, clock);
+        this.revoked = new ExpiringCache<>(maxSize, clock);
+        this.clock = clock;
+    }
+
+    /**
+     * Marks the token described by the claims as logged in for the user, unless it has just
+     * been revoked.
+     */
+    public void register(Claims claims, User user) {
+        if (Objects.isNull(claims.getId()) || Objects.isNull(claims.getExpiration())) {
+            return;
+        }
+        active.put(claims.getId(), user, claims.getExpiration().toInstant());
+
+        // Checked after the put: a revoke in between has either removed the entry or is seen here
+        if (revoked.get(claims.getId()).isPresent()) {
+            active.remove(claims.getId());
+            log.info(String.format("Revoked token not registered: %s", claims.getSubject()));
+        }
+    }
+
+    /**
+     * The user of a logged-in token, or empty if the token is unknown here or has expired.
+     */
+    public Optional<User> lookup(Claims claims) {
+        return active.get(claims.getId());
+    }
+
+    public void revoke(Claims claims) {
+        if (Objects.nonNull(claims.getId())) {
+            revoked.put(claims.getId(), Boolean.TRUE, clock.instant().plus(REVOKED_FOR));
+        }
+        if (active.remove(claims.getId())) {
+            log.info(String.format("Token revoked: %s", claims.getSubject()));
+        }
+    }
+
+    /**
+     * Drops every token of the user, so the next request with one of them loads the user again.
+     */
+    public void evict(User user) {
+        if (Objects.nonNull(user.getId())
+                && active.removeIf(other -> user.getId().equals(other.getId()))) {
+            log.info(String.format("Tokens of changed user dropped: %s", user.getUsername()));
+        }
+    }
+}
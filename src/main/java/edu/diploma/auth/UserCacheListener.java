@@ -0,0 +1,37 @@
+package edu.diploma.auth;
+
+import edu.diploma.model.User;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+
+/**
+ * Keeps {@link UserDetailsCache} and {@link TokenRegistry} from serving a user after its row has
+ * changed. Hibernate takes the listener from the Spring context, so it can have both injected.
+ */
+@Component
+public class UserCacheListener {
+
+    private final UserDetailsCache userDetailsCache;
+
+    private final TokenRegistry tokenRegistry;
+
+    public UserCacheListener(UserDetailsCache userDetailsCache, TokenRegistry tokenRegistry) {
+        this.userDetailsCache = userDetailsCache;
+        this.tokenRegistry = tokenRegistry;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void evict(User user) {
+        userDetailsCache.evict(
+                user.getUsername(),
+                cached -> cached instanceof User other
+                        && Objects.nonNull(user.getId())
+                        && user.getId().equals(other.getId())
+        );
+        tokenRegistry.evict(user);
+    }
+}
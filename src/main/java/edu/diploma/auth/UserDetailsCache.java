@@ -0,0 +1,86 @@
+package edu.diploma.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Users loaded by {@link AuthUserDetailsService}, keyed by username, for a limited time. Entries
+ * of a user are dropped as soon as the user is updated or deleted, see {@link UserCacheListener}.
+ */
+@Component
+public class UserDetailsCache {
+
+    private static final Logger log = LoggerFactory.getLogger(UserDetailsCache.class);
+
+    private final ExpiringCache<String, UserDetails> users;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final long ttl;
+
+    private final Clock clock;
+
+    @Autowired
+    public UserDetailsCache(
+            @Value("${edu.diploma.security.users.cache-ttl:300000}") long ttl,
+            @Value("${edu.diploma.security.users.cache-size:10000}") int maxSize
+    ) {
+        this(ttl, maxSize, Clock.systemUTC());
+    }
+
+    public UserDetailsCache(long ttl, int maxSize, Clock clock) {
+        this.ttl = ttl;
+        this.clock = clock;
+        this.users = new ExpiringCache<>(maxSize, clock);
+    }
+
+    /**
+     * The cached user, or empty if it is not cached or has been cached for longer than the TTL.
+     */
+    public Optional<UserDetails> get(String username) {
+        Optional<UserDetails> user = users.get(username);
+
+        (user.isPresent() ? hits : misses).incrementAndGet();
+        return user;
+    }
+
+    public void put(UserDetails user) {
+        users.put(user.getUsername(), user, clock.instant().plusMillis(ttl));
+    }
+
+    /**
+     * Drops the entry of the username and every entry the predicate matches, which catches a
+     * user cached under a username it no longer has.
+     */
+    public void evict(String username, Predicate<UserDetails> same) {
+        boolean removed = users.remove(username);
+        removed |= users.removeIf(same);
+
+        if (removed) {
+            log.info(String.format("User evicted from cache: %s", username));
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return users.size();
+    }
+}
@@ -1,19 +1,25 @@
 package edu.diploma.controller;
 
+import edu.diploma.model.AppError;
 import edu.diploma.model.LoginErrors;
 import edu.diploma.model.Login;
 import edu.diploma.auth.UserCreds;
 import edu.diploma.service.AuthService;
+import edu.diploma.service.FileService;
 import io.vavr.control.Either;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @RestController
@@ -29,18 +35,63 @@ public class AuthController {
     }
 
 
+    public static final AppError LOGIN_BUSY = new AppError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Too many logins, try again later");
+
+    /**
+     * Answered once the password has been checked on the hashing pool; the request thread is not
+     * held meanwhile. When that pool is full the login is refused at once with 503.
+     */
     @PostMapping("/login")
-    public ResponseEntity<?> postLogin(@RequestBody UserCreds creds) {
+    public CompletableFuture<ResponseEntity<?>> postLogin(@RequestBody UserCreds creds) {
+
+        return authService.login(creds).handle((login, e) -> {
+
+            if (Objects.nonNull(e)) {
+                Throwable cause = e instanceof CompletionException && Objects.nonNull(e.getCause()) ? e.getCause() : e;
+
+                if (cause instanceof RejectedExecutionException) {
+                    log.info(String.format("Login rejected, hashing pool is full: %s", creds.getLogin()));
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, "1")
+                            .body(LOGIN_BUSY);
+                }
+
+                log.error(String.format("Login failed: %s", cause.getMessage()));
+                return ResponseEntity.status(FileService.SERVER_ERROR.getCode()).body(FileService.SERVER_ERROR);
+            }
+
+            if (login.isRight()) {
+                log.info(String.format("User logged in: %s", creds.getLogin()));
+                return ResponseEntity.ok().body(login.get());
+            }
+
+            log.info(String.format("Login attempt failed: %s",login.getLeft()));
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(login.getLeft());
+        });
+
+    }
+
+    /**
+     * The refresh token of the stateless mode is sent in the same header as an access token.
+     */
+    @PostMapping("/refresh")
+    public ResponseEntity<?> postRefresh(
+            @RequestHeader(name = "${edu.diploma.security.jwt.authorization-header:auth-token}", required = false) String header
+    ) {
 
-        Either<LoginErrors, Login> login = authService.login(creds);
+        String token = Optional.ofNullable(header).map(
+                value -> value.split("\\s")
+        ).map(
+                pieces -> pieces[pieces.length - 1]
+        ).orElse(null);
+        Either<AppError, Login> login = authService.refresh(token);
 
         if (login.isRight()) {
-            log.info(String.format("User logged in: %s", creds.getLogin()));
             return ResponseEntity.ok().body(login.get());
         }
 
-        log.info(String.format("Login attempt failed: %s",login.getLeft()));
-        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(login.getLeft());
+        log.info(String.format("Refresh failed: %s", login.getLeft().getMessage()));
+        return ResponseEntity.status(login.getLeft().getCode()).body(login.getLeft());
 
     }
 
@@ -0,0 +1,132 @@
+package edu.diploma.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.diploma.model.AppError;
+import edu.diploma.model.BatchResult;
+import edu.diploma.model.ContentDigest;
+import edu.diploma.model.File;
+import edu.diploma.model.User;
+import edu.diploma.service.ArchiveService;
+import edu.diploma.service.BatchService;
+import io.vavr.control.Either;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.Part;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Many files per request: a multipart body with one {@code file} part per file (named by the
+ * part's filename, and checked against the part's {@code Content-Digest} if it has one) or a
+ * tar archive, and a JSON array of names to delete. The answer lists the files that failed;
+ * the others are done. A GET returns the named files, or those under a prefix, as one zip.
+ */
+@RestController
+@RequestMapping("/files")
+public class BatchController {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchController.class);
+    private static final MediaType ZIP = MediaType.parseMediaType("application/zip");
+
+    private final BatchService batchService;
+    private final ArchiveService archiveService;
+    private final ObjectMapper objectMapper;
+
+    public BatchController(BatchService batchService, ArchiveService archiveService, ObjectMapper objectMapper) {
+        this.batchService = batchService;
+        this.archiveService = archiveService;
+        this.objectMapper = objectMapper;
+    }
+
+
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> getArchive(
+            @AuthenticationPrincipal User owner,
+            @RequestParam(name = "filename", required = false) List<String> filenames,
+            @RequestParam(name = "prefix", required = false) String prefix
+    ) {
+        Either<AppError, List<File>> files = archiveService.findFiles(owner, filenames, prefix);
+
+        if (files.isLeft()) {
+            log.error(String.format("Error in batch download: prefix: %s", prefix));
+            return ResponseEntity.status(files.getLeft().getCode())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> objectMapper.writeValue(out, files.getLeft()));
+        }
+
+        log.info(String.format("Batch download: %d files", files.get().size()));
+        return ResponseEntity.ok()
+                .contentType(ZIP)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("files.zip").build().toString())
+                .body(out -> archiveService.write(files.get(), out));
+    }
+
+
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> postFiles(
+            @AuthenticationPrincipal User owner,
+            @RequestParam("file") List<MultipartFile> contents,
+            HttpServletRequest request
+    ) throws IOException, ServletException {
+        List<String> digests = request.getParts().stream()
+                .filter(BatchController::isFile)
+                .map(part -> part.getHeader(ContentDigest.HEADER))
+                .toList();
+
+        return respond(batchService.saveFiles(owner, contents, digests), "upload");
+    }
+
+
+    @PostMapping(consumes = "application/x-tar")
+    public ResponseEntity<?> postArchive(
+            @AuthenticationPrincipal User owner,
+            InputStream archive
+    ) {
+        return respond(batchService.saveArchive(owner, archive), "archive upload");
+    }
+
+
+    @DeleteMapping
+    public ResponseEntity<?> deleteFiles(
+            @AuthenticationPrincipal User owner,
+            @RequestBody List<String> filenames
+    ) {
+        return respond(batchService.deleteFiles(owner, filenames), "delete");
+    }
+
+
+    /**
+     * The parts Spring turns into the {@code file} list, in the same order: named {@code file}
+     * and with a filename.
+     */
+    private static boolean isFile(Part part) {
+        String disposition = part.getHeader(HttpHeaders.CONTENT_DISPOSITION);
+        return "file".equals(part.getName())
+                && Objects.nonNull(disposition)
+                && Objects.nonNull(ContentDisposition.parse(disposition).getFilename());
+    }
+
+    private static ResponseEntity<?> respond(Either<AppError, BatchResult> result, String operation) {
+
+        if (result.isRight()) {
+            log.info(String.format("Batch %s done: %d, failed: %d", operation, result.get().done(), result.get().errors().size()));
+            return ResponseEntity.ok().body(result.get());
+        }
+
+        log.error(String.format("Error in batch %s", operation));
+        return ResponseEntity.status(result.getLeft().getCode()).body(result.getLeft());
+    }
+}
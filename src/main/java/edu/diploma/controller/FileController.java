@@ -1,5 +1,7 @@
 package edu.diploma.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.diploma.auth.JwtHelper;
 import edu.diploma.model.*;
 import edu.diploma.repository.FileContentRepository;
@@ -11,48 +13,70 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.javatuples.Pair;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.*;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Objects;
 
 @Slf4j
 @RestController
 public class FileController {
 
     private static final Logger log = LoggerFactory.getLogger(FileController.class);
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Files are per user and change in place under the same name: clients and private caches
+     * may keep them, but ask every time with the validators.
+     */
+    static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     private final AuthenticationManager authManager;
     private final JwtHelper jwtHelper;
     private final FileRepository fileRepository;
     private final FileContentRepository fileContentRepository;
     private final FileService fileService;
+    private final ObjectMapper objectMapper;
 
     public FileController(
             AuthenticationManager authManager,
             JwtHelper jwtHelper,
             FileRepository fileRepository,
             FileContentRepository fileContentRepository,
-            FileService fileService
+            FileService fileService,
+            ObjectMapper objectMapper
     ) {
         this.authManager = authManager;
         this.jwtHelper = jwtHelper;
         this.fileRepository = fileRepository;
         this.fileContentRepository = fileContentRepository;
         this.fileService = fileService;
+        this.objectMapper = objectMapper;
     }
 
 
     @PutMapping("/file")
     public ResponseEntity<?> putFile(
+            @AuthenticationPrincipal User owner,
             @RequestParam("filename") String filename,
             @RequestBody NewFilename newFilename
     ) {
 
-        Either<AppError, File> result = fileService.renameFile(filename, newFilename);
+        Either<AppError, File> result = fileService.renameFile(owner, filename, newFilename);
 
         if (result.isRight()) {
             log.info(String.format("File renamed: %s, %s", filename, newFilename.getFilename()));
@@ -66,17 +90,73 @@ public class FileController {
 
 
     @GetMapping("/file")
-    public ResponseEntity<?> getFile(@RequestParam("filename") String filename) {
+    public ResponseEntity<?> getFile(
+            @AuthenticationPrincipal User owner,
+            @RequestParam("filename") String filename,
+            @RequestHeader HttpHeaders headers
+    ) {
+
+        Either<AppError, File> found = fileService.findFile(owner, filename);
+
+        if (found.isLeft()) {
+            log.error(String.format("File service error when getting file: %s", filename));
+            return ResponseEntity.status(found.getLeft().getCode()).body(found.getLeft());
+        }
+
+        final File meta = found.get();
+        final ContentBlob blob = meta.getContent();
+        // Ranges are always of the original bytes
+        final boolean encoded = isEncodingAccepted(headers, blob.getEncoding()) && !headers.containsKey(HttpHeaders.RANGE);
+        final String etag = etag(blob, encoded);
+
+        if (isNotModified(headers, etag, meta.getEditedAt())) {
+            log.info(String.format("File not modified: %s", filename));
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .lastModified(meta.getEditedAt())
+                    .cacheControl(REVALIDATE)
+                    .varyBy(vary(blob))
+                    .build();
+        }
 
-        Either<AppError, Pair<File, FileContent>> file = fileService.getFile(filename);
+        Either<AppError, Resource> file = encoded ? fileService.openStored(meta) : fileService.openFile(meta);
 
         if (file.isRight()) {
-            final FileContent content = file.get().getValue1();
-            try (InputStream in = new ByteArrayInputStream(content.getContent())) {
+            final Resource content = file.get();
+            try {
+                // The resource opens the blob only when the body is written and is copied to the
+                // response buffer by buffer; its length is known up front so the response is not chunked.
+                final long length = content.contentLength();
+
+                List<HttpRange> ranges;
+                try {
+                    ranges = headers.getRange();
+                } catch (IllegalArgumentException e) {
+                    log.error(String.format("Malformed range for file: %s, %s", filename, headers.getFirst(HttpHeaders.RANGE)));
+                    return unsatisfiable(length);
+                }
+
+                if (!ranges.isEmpty() && isRangeCurrent(headers, etag, meta.getEditedAt())) {
+                    return getFileRanges(meta, content, etag, ranges);
+                }
+
+                ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                if (encoded) {
+                    response.header(HttpHeaders.CONTENT_ENCODING, blob.getEncoding());
+                }
+
                 log.info(String.format("File sent: %s", filename));
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_TYPE,content.getFile().getContentType())
-                        .body(new InputStreamResource(in));
+                return response
+                        .header(HttpHeaders.CONTENT_TYPE, meta.getContentType())
+                        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                        .eTag(etag)
+                        .lastModified(meta.getEditedAt())
+                        .cacheControl(REVALIDATE)
+                        .varyBy(vary(blob))
+                        .contentLength(length)
+                        // A plain InputStreamResource keeps Spring from applying the Range header on
+                        // its own, e.g. when If-Range did not match.
+                        .body(new InputStreamResource(content));
             } catch (Exception e) {
                 log.error(String.format("Error while streaming file: %s", filename));
                 return ResponseEntity.status(500).body(FileService.SERVER_ERROR);
@@ -88,11 +168,158 @@ public class FileController {
 
     }
 
+    /**
+     * Hands the store's resource over as it is, so Spring's resource message converter answers
+     * with 206 and streams each requested region from its own offset: a single range gets
+     * Content-Range, several are sent as multipart/byteranges.
+     */
+    private ResponseEntity<?> getFileRanges(File file, Resource content, String etag, List<HttpRange> ranges)
+            throws IOException {
+
+        try {
+            // Only checks the ranges against the length, nothing is read here
+            HttpRange.toResourceRegions(ranges, content);
+        } catch (IllegalArgumentException e) {
+            log.error(String.format("Unsatisfiable range for file: %s, %s", file.getName(), ranges));
+            return unsatisfiable(content.contentLength());
+        }
+
+        log.info(String.format("File ranges sent: %s, %s", file.getName(), ranges));
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, file.getContentType())
+                .eTag(etag)
+                .lastModified(file.getEditedAt())
+                .cacheControl(REVALIDATE)
+                .varyBy(vary(file.getContent()))
+                .body(content);
+    }
+
+    private static ResponseEntity<?> unsatisfiable(long length) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.CONTENT_RANGE, String.format("bytes */%d", length))
+                .build();
+    }
+
+    /**
+     * The content hash, with the encoding appended for the stored form: both are strong
+     * validators, but of different bytes.
+     */
+    static String etag(ContentBlob blob, boolean encoded) {
+        return encoded
+                ? String.format("\"%s-%s\"", blob.getHash(), blob.getEncoding())
+                : String.format("\"%s\"", blob.getHash());
+    }
+
+    /**
+     * A file stored encoded is sent in one form or the other depending on Accept-Encoding.
+     */
+    static String[] vary(ContentBlob blob) {
+        return Objects.isNull(blob.getEncoding()) ? new String[0] : new String[]{HttpHeaders.ACCEPT_ENCODING};
+    }
+
+    /**
+     * Whether Accept-Encoding names the coding, or {@code *} when it does not, with a
+     * non-zero q-value.
+     */
+    static boolean isEncodingAccepted(HttpHeaders headers, String coding) {
+
+        if (Objects.isNull(coding)) {
+            return false;
+        }
+
+        Double any = null;
+        for (String value : headers.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String element : value.split(",")) {
+                String[] parts = element.split(";");
+                String name = parts[0].trim();
+                double q = 1;
+
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            q = Double.parseDouble(param.substring(2));
+                        } catch (NumberFormatException e) {
+                            q = 0;
+                        }
+                    }
+                }
+
+                if (name.equalsIgnoreCase(coding)) {
+                    return q > 0;
+                }
+                if ("*".equals(name)) {
+                    any = q;
+                }
+            }
+        }
+        return Objects.nonNull(any) && any > 0;
+    }
+
+    /**
+     * If-None-Match is compared weakly and wins over If-Modified-Since, which only counts in
+     * whole seconds as that is all Last-Modified carries; a negative lastModified means none.
+     */
+    static boolean isNotModified(HttpHeaders headers, String etag, long lastModified) {
+
+        final List<String> ifNoneMatch;
+        try {
+            ifNoneMatch = headers.getIfNoneMatch();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        if (!ifNoneMatch.isEmpty()) {
+            final String tag = opaque(etag);
+            return ifNoneMatch.stream().anyMatch(match -> "*".equals(match) || opaque(match).equals(tag));
+        }
+
+        final long ifModifiedSince;
+        try {
+            ifModifiedSince = headers.getIfModifiedSince();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * A Range is only honoured if the client's copy is still current: If-Range must carry
+     * the same strong ETag, or exactly the Last-Modified date the file has now.
+     */
+    private static boolean isRangeCurrent(HttpHeaders headers, String etag, long lastModified) {
+
+        final String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+
+        if (Objects.isNull(ifRange)) {
+            return true;
+        }
+
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+
+        try {
+            return ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+                    .equals(Instant.ofEpochMilli(lastModified).truncatedTo(ChronoUnit.SECONDS));
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
 
     @DeleteMapping("/file")
-    public ResponseEntity<?> deleteFile(@RequestParam("filename") String filename) {
+    public ResponseEntity<?> deleteFile(
+            @AuthenticationPrincipal User owner,
+            @RequestParam("filename") String filename
+    ) {
 
-        Either<AppError, List<File>> result = fileService.deleteFile(filename);
+        Either<AppError, Integer> result = fileService.deleteFile(owner, filename);
 
         if (result.isRight()) {
             log.info(String.format("File deleted: %s", filename));
@@ -108,11 +335,21 @@ public class FileController {
 
     @PostMapping("/file")
     public ResponseEntity<?> postFile(
+            @AuthenticationPrincipal User owner,
             @RequestParam("filename") String filename,
-            @RequestParam("file") MultipartFile content
+            @RequestParam("file") MultipartFile content,
+            @RequestHeader(name = ContentDigest.HEADER, required = false) String digest
     ) {
 
-        Either<AppError, File> result = fileService.saveFile(filename, content);
+        final ContentDigest expected;
+        try {
+            expected = Objects.isNull(digest) ? null : ContentDigest.parse(digest);
+        } catch (IllegalArgumentException e) {
+            log.error(String.format("Malformed digest for file: %s, %s", filename, digest));
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(FileService.ERROR_INPUT_DATA);
+        }
+
+        Either<AppError, File> result = fileService.saveFile(owner, filename, content, expected);
 
         if (result.isRight()) {
             log.error(String.format("File created: %s", filename));
@@ -124,20 +361,83 @@ public class FileController {
 
     }
 
+    /**
+     * The body stays a plain array; the cursor of the next page, if any, is sent in
+     * {@code X-Next-Cursor} and is passed back as {@code cursor} with the same sort and order.
+     */
     @GetMapping("/list")
     public ResponseEntity<?> getFiles(
-            @RequestParam(name = "limit", required = false) Integer limit
+            @AuthenticationPrincipal User owner,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            @RequestParam(name = "sort", required = false) String sort,
+            @RequestParam(name = "order", required = false) String order,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestHeader HttpHeaders headers
     ) {
-        Either<AppError, List<File>> files = fileService.getFiles(limit);
+        // Read before the page, so a change in between can only make the tag older than the body
+        Either<AppError, String> etag = fileService.listTag(owner);
+
+        if (etag.isRight() && isNotModified(headers, etag.get(), -1)) {
+            log.info(String.format("File list not modified: size: %d", limit));
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag.get()).cacheControl(REVALIDATE).build();
+        }
+
+        Either<AppError, Pair<List<FileEntry>, String>> files = fileService.getFiles(owner, limit, sort, order, cursor);
 
         if (files.isRight()) {
             log.info(String.format("File list sent: size: %d", limit));
-            return ResponseEntity.ok().body(files.get());
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(REVALIDATE);
+            if (etag.isRight()) {
+                response.eTag(etag.get());
+            }
+            if (Objects.nonNull(files.get().getValue1())) {
+                response.header(NEXT_CURSOR_HEADER, files.get().getValue1());
+            }
+            return response.body(files.get().getValue0());
         }
 
         log.error(String.format("Error getting file list of size: %d", limit));
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(files.getLeft());
+        return ResponseEntity.status(files.getLeft().getCode()).body(files.getLeft());
+
+    }
+
+    /**
+     * The whole list as one JSON array, written row by row while later rows are still being
+     * read: the first bytes go out at once and memory does not depend on the number of files.
+     */
+    @GetMapping(value = "/list", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamFiles(
+            @AuthenticationPrincipal User owner,
+            @RequestParam(name = "sort", required = false) String sort,
+            @RequestParam(name = "order", required = false) String order
+    ) {
+        Either<AppError, Sort> listSort = fileService.listSort(sort, order);
+
+        if (listSort.isLeft()) {
+            log.error(String.format("Error streaming file list: sort: %s, order: %s", sort, order));
+            return ResponseEntity.status(listSort.getLeft().getCode())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(out -> objectMapper.writeValue(out, listSort.getLeft()));
+        }
 
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> {
+                    try (JsonGenerator json = objectMapper.createGenerator(out)) {
+                        // The status is already sent: on failure the array is left open, so a
+                        // truncated list cannot pass for a complete one
+                        json.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                        json.writeStartArray();
+
+                        if (fileService.streamFiles(owner, listSort.get(), json::writeObject).isLeft()) {
+                            log.error(String.format("File list stream aborted: sort: %s, order: %s", sort, order));
+                            throw new IOException("File list stream aborted");
+                        }
+
+                        json.writeEndArray();
+                    }
+                });
     }
 
 }
@@ -0,0 +1,294 @@
+package edu.diploma.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.diploma.model.AppError;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.model.ContentDigest;
+import edu.diploma.model.File;
+import edu.diploma.model.User;
+import edu.diploma.service.FileService;
+import edu.diploma.storage.ChunkStore;
+import edu.diploma.storage.LimitedInputStream;
+import io.vavr.control.Either;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@code /file} with {@code stream=true}: the body is copied with non-blocking I/O, see
+ * {@link NonBlockingTransfer}. The request thread returns as soon as the copy is set up, and a
+ * slow client holds neither a thread nor more than one buffer. Uploads take the raw body with
+ * its own Content-Type (not a form type, whose body the container reads for parameters).
+ * <p>
+ * An upload body is staged to disk as it arrives and then read back into the content store,
+ * so its bytes are written twice; the store only takes a blocking stream. That second copy runs
+ * on a worker thread rather than on the container thread that reports the end of the body, as
+ * do the reads of a download.
+ */
+@RestController
+public class FileStreamController {
+
+    private static final Logger log = LoggerFactory.getLogger(FileStreamController.class);
+
+    private final FileService fileService;
+    private final ChunkStore chunkStore;
+    private final ObjectMapper objectMapper;
+    private final int bufferSize;
+    private final Duration timeout;
+    private final long maxFileSize;
+    private final Executor executor;
+
+    @Autowired
+    public FileStreamController(
+            FileService fileService,
+            ChunkStore chunkStore,
+            ObjectMapper objectMapper,
+            @Value("${edu.diploma.storage.buffer-size:65536}") int bufferSize,
+            @Value("${spring.mvc.async.request-timeout:30m}") Duration timeout,
+            @Value("${edu.diploma.upload.max-file-size:1073741824}") long maxFileSize
+    ) {
+        this(
+                fileService, chunkStore, objectMapper, bufferSize, timeout, maxFileSize,
+                Executors.newVirtualThreadPerTaskExecutor()
+        );
+    }
+
+    public FileStreamController(
+            FileService fileService,
+            ChunkStore chunkStore,
+            ObjectMapper objectMapper,
+            int bufferSize,
+            Duration timeout,
+            long maxFileSize,
+            Executor executor
+    ) {
+        this.fileService = fileService;
+        this.chunkStore = chunkStore;
+        this.objectMapper = objectMapper;
+        this.bufferSize = bufferSize;
+        this.timeout = timeout;
+        this.maxFileSize = maxFileSize;
+        this.executor = executor;
+    }
+
+    @GetMapping(value = "/file", params = "stream=true")
+    public void getFile(
+            @AuthenticationPrincipal User owner,
+            @RequestParam("filename") String filename,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+
+        Either<AppError, File> found = fileService.findFile(owner, filename);
+
+        if (found.isLeft()) {
+            log.error(String.format("File service error when streaming file: %s", filename));
+            writeError(response, found.getLeft());
+            return;
+        }
+
+        final File meta = found.get();
+        final ContentBlob blob = meta.getContent();
+        final HttpHeaders headers = new ServletServerHttpRequest(request).getHeaders();
+        final boolean encoded = FileController.isEncodingAccepted(headers, blob.getEncoding());
+        final String etag = FileController.etag(blob, encoded);
+
+        if (FileController.isNotModified(headers, etag, meta.getEditedAt())) {
+            log.info(String.format("File not modified: %s", filename));
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            setValidators(response, blob, etag, meta.getEditedAt());
+            return;
+        }
+
+        Either<AppError, Resource> file = encoded ? fileService.openStored(meta) : fileService.openFile(meta);
+
+        if (file.isLeft()) {
+            log.error(String.format("File service error when streaming file: %s", filename));
+            writeError(response, file.getLeft());
+            return;
+        }
+
+        final Resource content = file.get();
+        try {
+            response.setContentType(meta.getContentType());
+            response.setContentLengthLong(content.contentLength());
+            if (encoded) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, blob.getEncoding());
+            }
+            setValidators(response, blob, etag, meta.getEditedAt());
+
+            // The blob is opened before the request goes async, so a failure is still answered here
+            final ReadableByteChannel source = content.readableChannel();
+            NonBlockingTransfer.download(start(request, response), source, bufferSize, executor);
+            log.info(String.format("File streaming: %s", filename));
+        } catch (Exception e) {
+            log.error(String.format("Error while streaming file: %s", filename));
+            if (!response.isCommitted()) {
+                response.reset();
+                writeError(response, FileService.SERVER_ERROR);
+            }
+        }
+    }
+
+    @PostMapping(value = "/file", params = "stream=true")
+    public void postFile(
+            @AuthenticationPrincipal User owner,
+            @RequestParam("filename") String filename,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+
+        final ContentDigest expected;
+        try {
+            String digest = request.getHeader(ContentDigest.HEADER);
+            expected = Objects.isNull(digest) ? null : ContentDigest.parse(digest);
+        } catch (IllegalArgumentException e) {
+            log.error(String.format("Malformed digest for file: %s", filename));
+            writeError(response, FileService.ERROR_INPUT_DATA);
+            return;
+        }
+
+        // A body declared too large is refused before anything is staged; one sent without a
+        // length is cut off once it goes past the limit
+        if (request.getContentLengthLong() > maxFileSize) {
+            log.error(String.format("File too large: %s, %d bytes", filename, request.getContentLengthLong()));
+            writeError(response, FileService.ERROR_TOO_LARGE);
+            return;
+        }
+
+        final Path staged = chunkStore.stage();
+        final FileChannel sink;
+        try {
+            sink = FileChannel.open(staged, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            discard(staged);
+            throw e;
+        }
+        final AsyncContext context = start(request, response);
+
+        NonBlockingTransfer.upload(
+                context,
+                sink,
+                bufferSize,
+                maxFileSize,
+                failure -> {
+                    final String contentType = request.getContentType();
+                    final AppError error = failure == null ? null
+                            : failure instanceof LimitedInputStream.LimitExceededException ? FileService.ERROR_TOO_LARGE
+                            : FileService.ERROR_INPUT_DATA;
+
+                    // Storing reads the staged body with blocking I/O, which is not for a container thread
+                    try {
+                        executor.execute(() -> finish(owner, filename, contentType, staged, expected, error, response, context));
+                    } catch (RejectedExecutionException e) {
+                        finish(owner, filename, contentType, staged, expected, FileService.SERVER_ERROR, response, context);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Stores the staged body, unless the upload already failed with {@code error}, then answers
+     * and completes the request.
+     */
+    private void finish(
+            User owner,
+            String filename,
+            String contentType,
+            Path staged,
+            ContentDigest expected,
+            AppError error,
+            HttpServletResponse response,
+            AsyncContext context
+    ) {
+        try {
+            Either<AppError, File> result = Objects.isNull(error)
+                    ? save(owner, filename, contentType, staged, expected)
+                    : Either.left(error);
+
+            if (result.isRight()) {
+                log.info(String.format("File created: %s", filename));
+                response.setStatus(HttpServletResponse.SC_OK);
+            } else {
+                log.error(String.format("Error while creating file: %s", filename));
+                writeError(response, result.getLeft());
+            }
+        } catch (IOException e) {
+            log.error(String.format("Upload response cannot be written: %s", filename));
+        } finally {
+            discard(staged);
+            context.complete();
+        }
+    }
+
+    private Either<AppError, File> save(
+            User owner,
+            String filename,
+            String contentType,
+            Path staged,
+            ContentDigest expected
+    ) throws IOException {
+        try (InputStream in = Files.newInputStream(staged)) {
+            return fileService.saveFile(owner, filename, contentType, in, expected);
+        }
+    }
+
+    /**
+     * Started with the request and response the filters passed down, so bytes read and written
+     * asynchronously still go through their wrappers.
+     */
+    private AsyncContext start(HttpServletRequest request, HttpServletResponse response) {
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(timeout.toMillis());
+        return context;
+    }
+
+    private void discard(Path staged) {
+        try {
+            chunkStore.discard(staged);
+        } catch (IOException e) {
+            log.error(String.format("Staged upload cannot be deleted: %s", staged));
+        }
+    }
+
+    private static void setValidators(HttpServletResponse response, ContentBlob blob, String etag, long lastModified) {
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, FileController.REVALIDATE.getHeaderValue());
+        for (String header : FileController.vary(blob)) {
+            response.addHeader(HttpHeaders.VARY, header);
+        }
+    }
+
+    private void writeError(HttpServletResponse response, AppError error) throws IOException {
+        response.setStatus(error.getCode());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), error);
+    }
+}
@@ -0,0 +1,260 @@
+package edu.diploma.controller;
+
+import edu.diploma.storage.LimitedInputStream;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Copies bodies with Servlet non-blocking I/O. The container calls back when the client can
+ * take or give more bytes, and only then is the next buffer read from the store or written to
+ * it: a slow client slows the store down instead of holding a thread, and at most one buffer
+ * per transfer is in memory.
+ * <p>
+ * A download reads the store on the given executor, since a read may block (a LOB read with the
+ * database store); only writes of a filled buffer run on the container thread. An upload writes
+ * to a staged local file on the container thread.
+ */
+public final class NonBlockingTransfer {
+
+    private static final Logger log = LoggerFactory.getLogger(NonBlockingTransfer.class);
+
+    private NonBlockingTransfer() {
+    }
+
+    /**
+     * Sends the source as the response body and completes the request at its end. The status
+     * and headers must be set before. The source is read on the executor.
+     */
+    public static void download(
+            AsyncContext context,
+            ReadableByteChannel source,
+            int bufferSize,
+            Executor executor
+    ) throws IOException {
+        ServletOutputStream out = context.getResponse().getOutputStream();
+        Download download = new Download(context, out, source, bufferSize, executor);
+        context.addListener(new Timeout(download::onError));
+        out.setWriteListener(download);
+    }
+
+    /**
+     * Copies the request body into the sink and closes it, then calls back with {@code null},
+     * or with the failure. The callback writes the response and completes the request. A body
+     * longer than {@code limit} bytes is cut off there and fails with
+     * {@link LimitedInputStream.LimitExceededException}.
+     */
+    public static void upload(
+            AsyncContext context,
+            WritableByteChannel sink,
+            int bufferSize,
+            long limit,
+            Consumer<Throwable> done
+    ) throws IOException {
+        ServletInputStream in = context.getRequest().getInputStream();
+        Upload upload = new Upload(in, sink, bufferSize, limit, done);
+        context.addListener(new Timeout(upload::onError));
+        in.setReadListener(upload);
+    }
+
+    /**
+     * The buffer is passed back and forth: a read on the executor fills it and writes it while
+     * the client is ready; once it is not, the filled buffer is left for the container, which
+     * writes it in {@link #onWritePossible()} and hands the next read to the executor. Only one
+     * side touches the buffer and the stream at a time.
+     */
+    private static final class Download implements WriteListener {
+
+        private final AsyncContext context;
+
+        private final ServletOutputStream out;
+
+        private final ReadableByteChannel source;
+
+        private final ByteBuffer buffer;
+
+        private final Executor executor;
+
+        private final AtomicBoolean over = new AtomicBoolean();
+
+        private volatile boolean filled;
+
+        Download(AsyncContext context, ServletOutputStream out, ReadableByteChannel source, int bufferSize, Executor executor) {
+            this.context = context;
+            this.out = out;
+            this.source = source;
+            this.buffer = ByteBuffer.allocate(bufferSize);
+            this.executor = executor;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            if (filled) {
+                write();
+            }
+            if (out.isReady()) {
+                try {
+                    executor.execute(this::read);
+                } catch (RejectedExecutionException e) {
+                    onError(e);
+                }
+            }
+        }
+
+        private void read() {
+            try {
+                while (!over.get()) {
+                    buffer.clear();
+
+                    if (source.read(buffer) < 0) {
+                        if (over.compareAndSet(false, true)) {
+                            source.close();
+                            context.complete();
+                        }
+                        return;
+                    }
+                    filled = true;
+
+                    // isReady() turns false once the container could not pass a write on to the
+                    // socket; it calls back onWritePossible() when the client has read enough
+                    if (!out.isReady()) {
+                        return;
+                    }
+                    write();
+                }
+            } catch (Exception e) {
+                onError(e);
+            }
+        }
+
+        private void write() throws IOException {
+            filled = false;
+            out.write(buffer.array(), 0, buffer.position());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (!over.compareAndSet(false, true)) {
+                return;
+            }
+            log.error(String.format("Download aborted: %s", t.getMessage()));
+            try {
+                source.close();
+            } catch (IOException e) {
+                log.error(String.format("Download source cannot be closed: %s", e.getMessage()));
+            }
+            context.complete();
+        }
+    }
+
+    private static final class Upload implements ReadListener {
+
+        private final ServletInputStream in;
+
+        private final WritableByteChannel sink;
+
+        private final byte[] buffer;
+
+        private final Consumer<Throwable> done;
+
+        private final long limit;
+
+        private long received;
+
+        private final AtomicBoolean over = new AtomicBoolean();
+
+        Upload(ServletInputStream in, WritableByteChannel sink, int bufferSize, long limit, Consumer<Throwable> done) {
+            this.in = in;
+            this.sink = sink;
+            this.buffer = new byte[bufferSize];
+            this.limit = limit;
+            this.done = done;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            // Only what has already arrived is read; the container calls back when there is more
+            while (!over.get() && in.isReady() && !in.isFinished()) {
+                int read = in.read(buffer);
+
+                if (read < 0) {
+                    return;
+                }
+                received += read;
+                if (received > limit) {
+                    onError(new LimitedInputStream.LimitExceededException(limit));
+                    return;
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    sink.write(bytes);
+                }
+            }
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException {
+            if (!over.compareAndSet(false, true)) {
+                return;
+            }
+            sink.close();
+            done.accept(null);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (!over.compareAndSet(false, true)) {
+                return;
+            }
+            log.error(String.format("Upload aborted: %s", t.getMessage()));
+            try {
+                sink.close();
+            } catch (IOException e) {
+                log.error(String.format("Upload sink cannot be closed: %s", e.getMessage()));
+            }
+            done.accept(t);
+        }
+    }
+
+    /**
+     * A client that stops reading or sending is only noticed by the async timeout; the transfer
+     * is then ended as if it had failed.
+     */
+    private record Timeout(Consumer<Throwable> abort) implements AsyncListener {
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            abort.accept(new TimeoutException("Transfer timed out"));
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            abort.accept(Objects.requireNonNullElseGet(event.getThrowable(), () -> new IOException("Transfer failed")));
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package edu.diploma.controller;
+
+import edu.diploma.model.AppError;
+import edu.diploma.model.ContentDigest;
+import edu.diploma.model.File;
+import edu.diploma.model.UploadSession;
+import edu.diploma.model.User;
+import edu.diploma.service.FileService;
+import edu.diploma.service.UploadService;
+import io.vavr.control.Either;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+import java.util.Objects;
+
+@RestController
+@RequestMapping("/upload")
+public class UploadController {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadController.class);
+    private final UploadService uploadService;
+
+    public UploadController(UploadService uploadService) {
+        this.uploadService = uploadService;
+    }
+
+
+    @PostMapping
+    public ResponseEntity<?> postUpload(
+            @AuthenticationPrincipal User owner,
+            @RequestParam("filename") String filename,
+            @RequestParam(name = "contentType", required = false) String contentType
+    ) {
+
+        Either<AppError, UploadSession> result = uploadService.createUpload(owner, filename, contentType);
+
+        if (result.isRight()) {
+            log.info(String.format("Upload created: %s", result.get().getId()));
+            return ResponseEntity.ok().body(result.get());
+        }
+
+        log.error(String.format("Error while creating upload: %s", filename));
+        return ResponseEntity.status(result.getLeft().getCode()).body(result.getLeft());
+
+    }
+
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getUpload(
+            @AuthenticationPrincipal User owner,
+            @PathVariable("id") String id
+    ) {
+
+        Either<AppError, UploadSession> result = uploadService.getUpload(owner, id);
+
+        if (result.isRight()) {
+            log.info(String.format("Upload sent: %s", id));
+            return ResponseEntity.ok().body(result.get());
+        }
+
+        log.error(String.format("Error getting upload: %s", id));
+        return ResponseEntity.status(result.getLeft().getCode()).body(result.getLeft());
+
+    }
+
+
+    /**
+     * The chunk is the raw request body, streamed to the staging area as it arrives.
+     * Sending the same index again replaces it.
+     */
+    @PutMapping("/{id}/{index}")
+    public ResponseEntity<?> putChunk(
+            @AuthenticationPrincipal User owner,
+            @PathVariable("id") String id,
+            @PathVariable("index") Integer index,
+            InputStream content
+    ) {
+
+        Either<AppError, Long> result = uploadService.putChunk(owner, id, index, content);
+
+        if (result.isRight()) {
+            log.info(String.format("Chunk stored: %s, %d", id, index));
+            return ResponseEntity.ok().build();
+        }
+
+        log.error(String.format("Error storing chunk: %s, %d", id, index));
+        return ResponseEntity.status(result.getLeft().getCode()).body(result.getLeft());
+
+    }
+
+
+    /**
+     * A {@code Content-Digest} sent here is that of the whole file, not of this request.
+     */
+    @PostMapping("/{id}/commit")
+    public ResponseEntity<?> commitUpload(
+            @AuthenticationPrincipal User owner,
+            @PathVariable("id") String id,
+            @RequestParam("chunks") Integer chunks,
+            @RequestHeader(name = ContentDigest.HEADER, required = false) String digest
+    ) {
+
+        final ContentDigest expected;
+        try {
+            expected = Objects.isNull(digest) ? null : ContentDigest.parse(digest);
+        } catch (IllegalArgumentException e) {
+            log.error(String.format("Malformed digest for upload: %s, %s", id, digest));
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(FileService.ERROR_INPUT_DATA);
+        }
+
+        Either<AppError, File> result = uploadService.commitUpload(owner, id, chunks, expected);
+
+        if (result.isRight()) {
+            log.info(String.format("Upload committed: %s, %s", id, result.get().getName()));
+            return ResponseEntity.ok().build();
+        }
+
+        log.error(String.format("Error committing upload: %s", id));
+        return ResponseEntity.status(result.getLeft().getCode()).body(result.getLeft());
+
+    }
+
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> deleteUpload(
+            @AuthenticationPrincipal User owner,
+            @PathVariable("id") String id
+    ) {
+
+        Either<AppError, UploadSession> result = uploadService.deleteUpload(owner, id);
+
+        if (result.isRight()) {
+            log.info(String.format("Upload deleted: %s", id));
+            return ResponseEntity.ok().build();
+        }
+
+        log.error(String.format("Error deleting upload: %s", id));
+        return ResponseEntity.status(result.getLeft().getCode()).body(result.getLeft());
+
+    }
+
+}
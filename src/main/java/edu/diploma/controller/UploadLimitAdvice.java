@@ -0,0 +1,27 @@
+package edu.diploma.controller;
+
+import edu.diploma.model.AppError;
+import edu.diploma.service.FileService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+/**
+ * A multipart body is parsed before any controller is chosen, so a file over
+ * {@code edu.diploma.upload.max-file-size} is answered here, in the same form as the other
+ * upload errors.
+ */
+@RestControllerAdvice
+public class UploadLimitAdvice {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadLimitAdvice.class);
+
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<AppError> handleException(MaxUploadSizeExceededException e) {
+        log.error(String.format("Multipart upload too large: %s", e.getMessage()));
+        return ResponseEntity.status(FileService.ERROR_TOO_LARGE.getCode()).body(FileService.ERROR_TOO_LARGE);
+    }
+}
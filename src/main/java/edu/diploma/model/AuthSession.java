@@ -0,0 +1,98 @@
+package edu.diploma.model;
+
+import jakarta.persistence.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * One login of a user: a user may have several at once, one per device. Only the SHA-256 of the
+ * token is stored, under a unique index, so a token is found by a single index lookup and a
+ * leaked table does not hand out working tokens.
+ */
+@Entity
+@Table(
+        uniqueConstraints = @UniqueConstraint(name = "uk_auth_session_token", columnNames = "token_hash"),
+        // The sweeper deletes by expiry
+        indexes = @Index(name = "ix_auth_session_expires", columnList = "expires_at")
+)
+public class AuthSession {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Column(name = "token_hash", nullable = false, length = 64)
+    private String tokenHash;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "user_id")
+    private User user;
+
+    private long createdAt;
+
+    @Column(name = "expires_at")
+    private long expiresAt;
+
+    public AuthSession() {
+    }
+
+    public AuthSession(User user, String tokenHash, long createdAt, long expiresAt) {
+        this.user = user;
+        this.tokenHash = tokenHash;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+    }
+
+    public static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getTokenHash() {
+        return tokenHash;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        AuthSession that = (AuthSession) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "AuthSession{" +
+                "id=" + id +
+                ", expiresAt=" + expiresAt +
+                '}';
+    }
+}
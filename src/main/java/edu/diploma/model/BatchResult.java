@@ -0,0 +1,16 @@
+package edu.diploma.model;
+
+import java.util.List;
+
+/**
+ * Outcome of a batch request: how many files were handled, and why the others were not.
+ */
+public record BatchResult(int done, List<Failure> errors) {
+
+    public record Failure(String filename, int code, String message) {
+
+        public Failure(String filename, AppError error) {
+            this(filename, error.getCode(), error.getMessage());
+        }
+    }
+}
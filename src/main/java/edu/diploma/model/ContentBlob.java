@@ -0,0 +1,155 @@
+package edu.diploma.model;
+
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.util.Objects;
+
+/**
+ * One stored copy of a unique content, addressed by the SHA-256 of its bytes.
+ * Every {@link File} with the same bytes points to the same blob; {@code refCount}
+ * tracks how many of them there are. Both checksums are of the original bytes, in hex.
+ */
+@Entity
+// Blobs left without references are found through the first index by the collector, blobs
+// of a store key through the second when the store is checked at startup
+@Table(indexes = {
+        @Index(name = "ix_content_blob_ref_count", columnList = "ref_count"),
+        @Index(name = "ix_content_blob_store_key", columnList = "store_key")
+})
+public class ContentBlob implements Persistable<String> {
+
+    @Id
+    private String hash;
+
+    @Column(nullable = false)
+    private String storeKey;
+
+    private long size;
+
+    // Content-Encoding of the stored bytes, null when they are stored as they are
+    private String encoding;
+
+    private long storedSize;
+
+    // CRC32C, much cheaper to compare or recompute than the hash
+    private String crc32c;
+
+    private long refCount;
+
+    @Transient
+    private boolean fresh = true;
+
+    public ContentBlob() {
+    }
+
+    public ContentBlob(String hash, String storeKey, long size) {
+        this(hash, storeKey, size, null, size, null);
+    }
+
+    public ContentBlob(String hash, String storeKey, long size, String encoding, long storedSize, String crc32c) {
+        this.hash = hash;
+        this.storeKey = storeKey;
+        this.size = size;
+        this.encoding = encoding;
+        this.storedSize = storedSize;
+        this.crc32c = crc32c;
+        this.refCount = 1;
+    }
+
+    @Override
+    public String getId() {
+        return hash;
+    }
+
+    /**
+     * The hash is assigned, not generated, so a new blob has to be inserted rather than merged:
+     * a concurrent upload of the same bytes must fail on the primary key instead of overwriting it.
+     */
+    @Override
+    public boolean isNew() {
+        return fresh;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markStored() {
+        this.fresh = false;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String getStoreKey() {
+        return storeKey;
+    }
+
+    public void setStoreKey(String storeKey) {
+        this.storeKey = storeKey;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public long getStoredSize() {
+        return storedSize;
+    }
+
+    public void setStoredSize(long storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    public String getCrc32c() {
+        return crc32c;
+    }
+
+    public void setCrc32c(String crc32c) {
+        this.crc32c = crc32c;
+    }
+
+    public long getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(long refCount) {
+        this.refCount = refCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        ContentBlob that = (ContentBlob) o;
+        return Objects.equals(hash, that.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(hash);
+    }
+
+    @Override
+    public String toString() {
+        return "ContentBlob{" +
+                "hash='" + hash + '\'' +
+                ", refCount=" + refCount +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+package edu.diploma.model;
+
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * The {@code sha-256} and {@code crc32c} members of a {@code Content-Digest} header (RFC 9530),
+ * in hex like the checksums of a {@link ContentBlob}. Other algorithms are skipped, so a header
+ * with none of the two asks for no check. For a multipart upload the digest is that of the
+ * file, not of the whole form.
+ */
+public record ContentDigest(String sha256, String crc32c) {
+
+    public static final String HEADER = "Content-Digest";
+
+    /**
+     * @throws IllegalArgumentException when the header is not a dictionary of byte sequences,
+     *                                  or a known digest has the wrong length
+     */
+    public static ContentDigest parse(String header) {
+
+        String sha256 = null;
+        String crc32c = null;
+
+        for (String member : header.split(",")) {
+            String[] pair = member.trim().split("=", 2);
+
+            if (pair.length != 2 || !pair[1].startsWith(":") || !pair[1].endsWith(":") || pair[1].length() < 2) {
+                throw new IllegalArgumentException(String.format("Malformed digest: %s", member));
+            }
+            byte[] value = Base64.getDecoder().decode(pair[1].substring(1, pair[1].length() - 1));
+
+            switch (pair[0].toLowerCase()) {
+                case "sha-256" -> sha256 = hex(value, 32);
+                case "crc32c" -> crc32c = hex(value, 4);
+                default -> {
+                }
+            }
+        }
+        return new ContentDigest(sha256, crc32c);
+    }
+
+    /**
+     * Every digest the client sent is that of the blob; a blob without a CRC32C passes that one.
+     */
+    public boolean matches(ContentBlob blob) {
+        return (Objects.isNull(sha256) || sha256.equals(blob.getHash()))
+                && (Objects.isNull(crc32c) || Objects.isNull(blob.getCrc32c()) || crc32c.equals(blob.getCrc32c()));
+    }
+
+    private static String hex(byte[] value, int length) {
+        if (value.length != length) {
+            throw new IllegalArgumentException(String.format("Digest of %d bytes instead of %d", value.length, length));
+        }
+        return HexFormat.of().formatHex(value);
+    }
+}
@@ -1,14 +1,22 @@
 package edu.diploma.model;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.Id;
+import jakarta.persistence.*;
 
 import java.util.Objects;
 
 @Entity
+@Table(
+        uniqueConstraints = @UniqueConstraint(name = "uk_file_owner_name", columnNames = {"owner_id", "name"}),
+        // One index per sort order of /list, so each page is a range scan from the cursor on
+        indexes = {
+                @Index(name = "ix_file_owner_size", columnList = "owner_id, size, id"),
+                @Index(name = "ix_file_owner_created", columnList = "owner_id, created_at, id"),
+                @Index(name = "ix_file_owner_edited", columnList = "owner_id, edited_at, id")
+        }
+)
 public class File {
 
     @Id
@@ -26,6 +34,20 @@ public class File {
 
     private long size;
 
+    // Copied from the blob like the size, so the file list needs no join; the SHA-256 is the
+    // foreign key itself
+    private String crc32c;
+
+    // Leading column of the unique index, so every lookup by owner and name is an index seek
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id")
+    private User owner;
+
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
+    private ContentBlob content;
+
     public File() {}
 
     public File(String name) {
@@ -45,6 +67,16 @@ public class File {
         this.size = size;
     }
 
+    public File(String name, String contentType, long createdAt, long editedAt, long size, ContentBlob content) {
+        this(name, contentType, createdAt, editedAt, size);
+        setContent(content);
+    }
+
+    public File(User owner, String name, String contentType, long createdAt, long editedAt, long size, ContentBlob content) {
+        this(name, contentType, createdAt, editedAt, size, content);
+        this.owner = owner;
+    }
+
     public Long getId() {
         return id;
     }
@@ -93,6 +125,27 @@ public class File {
         this.size = size;
     }
 
+    public User getOwner() {
+        return owner;
+    }
+
+    public void setOwner(User owner) {
+        this.owner = owner;
+    }
+
+    public ContentBlob getContent() {
+        return content;
+    }
+
+    public void setContent(ContentBlob content) {
+        this.content = content;
+        this.crc32c = Objects.isNull(content) ? null : content.getCrc32c();
+    }
+
+    public String getCrc32c() {
+        return crc32c;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
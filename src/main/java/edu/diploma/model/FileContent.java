@@ -1,9 +1,8 @@
 package edu.diploma.model;
 
 import jakarta.persistence.*;
-import org.hibernate.annotations.OnDelete;
-import org.hibernate.annotations.OnDeleteAction;
 
+import java.sql.Blob;
 import java.util.Objects;
 
 @Entity
@@ -13,22 +12,13 @@ public class FileContent {
     @GeneratedValue
     private Long id;
 
-    @OneToOne(orphanRemoval = true)
-    @OnDelete(action = OnDeleteAction.CASCADE)
-    private File file;
-
     @Lob
-    private byte[] content;
+    private Blob content;
 
     public FileContent() {
     }
 
-    public FileContent(File file) {
-        this.file = file;
-    }
-
-    public FileContent(File file, byte[] content) {
-        this.file = file;
+    public FileContent(Blob content) {
         this.content = content;
     }
 
@@ -40,19 +30,11 @@ public class FileContent {
         this.id = id;
     }
 
-    public File getFile() {
-        return file;
-    }
-
-    public void setFile(File file) {
-        this.file = file;
-    }
-
-    public byte[] getContent() {
+    public Blob getContent() {
         return content;
     }
 
-    public void setContent(byte[] content) {
+    public void setContent(Blob content) {
         this.content = content;
     }
 
@@ -60,11 +42,11 @@ public class FileContent {
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         FileContent that = (FileContent) o;
-        return Objects.equals(file, that.file);
+        return Objects.equals(id, that.id);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(file);
+        return Objects.hashCode(id);
     }
 }
@@ -0,0 +1,35 @@
+package edu.diploma.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A row of the file list: the metadata columns of {@link File} only, read without loading the
+ * entity, its owner or its content. Serialises the same as a {@link File}, plus the checksums
+ * of the content, so equal files can be told apart from different ones without a download.
+ */
+public record FileEntry(
+        Long id,
+        @JsonProperty("filename") String name,
+        String contentType,
+        long createdAt,
+        long editedAt,
+        long size,
+        String sha256,
+        String crc32c
+) {
+
+    /**
+     * Value of one of the columns a list can be sorted on.
+     */
+    public Object sortValue(String property) {
+        return switch (property) {
+            case "name" -> name;
+            case "contentType" -> contentType;
+            case "createdAt" -> createdAt;
+            case "editedAt" -> editedAt;
+            case "size" -> size;
+            case "id" -> id;
+            default -> throw new IllegalArgumentException(String.format("Not a file column: %s", property));
+        };
+    }
+}
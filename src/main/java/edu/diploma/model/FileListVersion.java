@@ -0,0 +1,17 @@
+package edu.diploma.model;
+
+/**
+ * A summary of an owner's files that changes whenever their list does: an upload raises the
+ * last id, a rename the last edit time and a delete lowers the count. All three are read from
+ * the (owner, edited_at, id) index without touching the rows.
+ */
+public record FileListVersion(Long count, Long lastId, Long lastEditedAt) {
+
+    /**
+     * A weak ETag, since the bytes of a list also depend on its query parameters; those are
+     * part of the URL a client keeps the tag for.
+     */
+    public String etag() {
+        return String.format("W/\"%x-%x-%x\"", count, lastId, lastEditedAt);
+    }
+}
@@ -1,5 +1,6 @@
 package edu.diploma.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.ArrayList;
@@ -11,23 +12,39 @@ public class Login {
     @JsonProperty("auth-token")
     private final String token;
 
+    /**
+     * Only issued in the stateless token mode.
+     */
+    @JsonProperty("refresh-token")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String refreshToken;
+
     public Login(String token) {
+        this(token, null);
+    }
+
+    public Login(String token, String refreshToken) {
         this.token = token;
+        this.refreshToken = refreshToken;
     }
 
     public String getToken() {
         return token;
     }
 
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         Login login = (Login) o;
-        return Objects.equals(token, login.token);
+        return Objects.equals(token, login.token) && Objects.equals(refreshToken, login.refreshToken);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(token);
+        return Objects.hash(token, refreshToken);
     }
 }
@@ -0,0 +1,131 @@
+package edu.diploma.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.persistence.*;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A resumable upload in progress. Its chunks are staged on disk as they arrive and
+ * become a {@link File} only when the session is committed.
+ */
+@Entity
+// Sessions left alone are found by their last use through this index
+@Table(indexes = @Index(name = "ix_upload_session_last_chunk", columnList = "last_chunk_at"))
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    @JsonProperty("filename")
+    private String name;
+
+    private String contentType;
+
+    private long createdAt;
+
+    // Moved on by every chunk and by the start of a commit
+    @JsonIgnore
+    @Column(name = "last_chunk_at")
+    private long lastChunkAt;
+
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
+    private User owner;
+
+    @Transient
+    private List<Integer> chunks = List.of();
+
+    public UploadSession() {}
+
+    public UploadSession(String name, String contentType, long createdAt) {
+        this.name = name;
+        this.contentType = contentType;
+        this.createdAt = createdAt;
+        this.lastChunkAt = createdAt;
+    }
+
+    public UploadSession(User owner, String name, String contentType, long createdAt) {
+        this(name, contentType, createdAt);
+        this.owner = owner;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public long getLastChunkAt() {
+        return lastChunkAt;
+    }
+
+    public void setLastChunkAt(long lastChunkAt) {
+        this.lastChunkAt = lastChunkAt;
+    }
+
+    public User getOwner() {
+        return owner;
+    }
+
+    public void setOwner(User owner) {
+        this.owner = owner;
+    }
+
+    public List<Integer> getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(List<Integer> chunks) {
+        this.chunks = chunks;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        UploadSession that = (UploadSession) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+        return "UploadSession{" +
+                "id='" + id + '\'' +
+                ", name='" + name + '\'' +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package edu.diploma.model;
 
+import edu.diploma.auth.UserCacheListener;
 import jakarta.persistence.*;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -10,6 +11,7 @@ import java.util.Objects;
 
 @Entity
 @Table(name = "users")
+@EntityListeners(UserCacheListener.class)
 public class User implements UserDetails {
 
     @Id
@@ -21,9 +23,6 @@ public class User implements UserDetails {
 
     private String password;
 
-    @Column(nullable = true)
-    private String token;
-
     public User() {
     }
 
@@ -42,12 +41,6 @@ public class User implements UserDetails {
         this.password = password;
     }
 
-    public User(String username, String password, String token) {
-        this.username = username;
-        this.password = password;
-        this.token = token;
-    }
-
     public Long getId() {
         return id;
     }
@@ -72,14 +65,6 @@ public class User implements UserDetails {
         this.password = password;
     }
 
-    public String getToken() {
-        return token;
-    }
-
-    public void setToken(String token) {
-        this.token = token;
-    }
-
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
@@ -0,0 +1,29 @@
+package edu.diploma.repository;
+
+import edu.diploma.model.AuthSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+public interface AuthSessionRepository extends JpaRepository<AuthSession, Long> {
+
+    /**
+     * The user id of a session that has not expired; the user itself comes from the cache.
+     */
+    @Query("select s.user.id from AuthSession s where s.tokenHash = :tokenHash and s.expiresAt > :now")
+    Optional<Long> findUserIdByTokenHash(@Param("tokenHash") String tokenHash, @Param("now") long now);
+
+    @Transactional
+    @Modifying
+    @Query("delete from AuthSession s where s.tokenHash = :tokenHash")
+    int deleteByTokenHash(@Param("tokenHash") String tokenHash);
+
+    @Transactional
+    @Modifying
+    @Query("delete from AuthSession s where s.expiresAt < :now")
+    int deleteExpired(@Param("now") long now);
+}
@@ -0,0 +1,35 @@
+package edu.diploma.repository;
+
+import edu.diploma.model.ContentBlob;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface ContentBlobRepository extends JpaRepository<ContentBlob, String> {
+
+    @Transactional
+    @Modifying
+    @Query("update ContentBlob b set b.refCount = b.refCount + 1 where b.hash = :hash")
+    int retain(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("update ContentBlob b set b.refCount = b.refCount - 1 where b.hash = :hash")
+    int release(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ContentBlob b where b.hash = :hash and b.storeKey = :storeKey and b.refCount <= 0")
+    int deleteUnreferenced(@Param("hash") String hash, @Param("storeKey") String storeKey);
+
+    List<ContentBlob> findByRefCountLessThanEqualAndHashGreaterThanOrderByHash(long refCount, String hash, Limit limit);
+
+    List<ContentBlob> findByHashGreaterThanOrderByHash(String hash, Limit limit);
+
+    boolean existsByStoreKey(String storeKey);
+}
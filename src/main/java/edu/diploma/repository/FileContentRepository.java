@@ -2,6 +2,12 @@ package edu.diploma.repository;
 
 import edu.diploma.model.FileContent;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
 
 public interface FileContentRepository extends JpaRepository<FileContent, Long> {
+
+    @Query("select c.id from FileContent c")
+    List<Long> findAllIds();
 }
@@ -0,0 +1,17 @@
+package edu.diploma.repository;
+
+import edu.diploma.model.FileEntry;
+import edu.diploma.model.User;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+
+public interface FileKeysetRepository {
+
+    /**
+     * Keyset page: continues after the position's sort values instead of skipping rows with an offset.
+     * The sort is a single column followed by {@code id}. Only the listed columns are read.
+     */
+    Window<FileEntry> findByOwner(User owner, ScrollPosition position, Sort sort, Limit limit);
+}
@@ -0,0 +1,68 @@
+package edu.diploma.repository;
+
+import edu.diploma.model.File;
+import edu.diploma.model.FileEntry;
+import edu.diploma.model.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written instead of the derived keyset query. That one orders by the sort column alone and
+ * continues with {@code (col > v or col = v and id > i)}, which H2 answers by reading the owner's
+ * files from the start. Here the order leads with the owner and the predicate repeats the bound as
+ * {@code col >= v}, so each page is a seek into the {@code (owner_id, col, id)} index.
+ */
+class FileKeysetRepositoryImpl implements FileKeysetRepository {
+
+    private static final String PAGE = "select new edu.diploma.model.FileEntry(f.id, f.name, f.contentType,"
+            + " f.createdAt, f.editedAt, f.size, f.content.hash, f.crc32c) from File f where f.owner = :owner";
+    private static final String AFTER = " and f.%1$s %2$s= :value and (f.%1$s %2$s :value or f.%1$s = :value and f.id %2$s :id)";
+    private static final String ORDER = " order by f.owner.id %2$s, f.%1$s %2$s, f.id %2$s";
+
+    private final EntityManager entityManager;
+
+    FileKeysetRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public Window<FileEntry> findByOwner(User owner, ScrollPosition position, Sort sort, Limit limit) {
+
+        final Sort.Order order = sort.iterator().next();
+        final String property = order.getProperty();
+        final Map<String, ?> keys = ((KeysetScrollPosition) position).getKeys();
+
+        // Only mapped attributes get into the query text
+        entityManager.getMetamodel().entity(File.class).getSingularAttribute(property);
+
+        final String jpql = PAGE
+                + (keys.isEmpty() ? "" : String.format(AFTER, property, order.isAscending() ? ">" : "<"))
+                + String.format(ORDER, property, order.isAscending() ? "asc" : "desc");
+
+        TypedQuery<FileEntry> query = entityManager.createQuery(jpql, FileEntry.class).setParameter("owner", owner);
+        if (!keys.isEmpty()) {
+            query.setParameter("value", keys.get(property)).setParameter("id", keys.get("id"));
+        }
+        if (limit.isLimited()) {
+            // One row over the limit tells whether there is a next page
+            query.setMaxResults(limit.max() + 1);
+        }
+
+        List<FileEntry> files = query.getResultList();
+        boolean hasNext = limit.isLimited() && files.size() > limit.max();
+        List<FileEntry> content = hasNext ? files.subList(0, limit.max()) : files;
+
+        return Window.from(content, i -> ScrollPosition.forward(Map.of(
+                property, content.get(i).sortValue(property),
+                "id", content.get(i).id()
+        )), hasNext);
+    }
+}
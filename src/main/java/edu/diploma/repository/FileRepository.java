@@ -1,7 +1,77 @@
 package edu.diploma.repository;
 
 import edu.diploma.model.File;
+import edu.diploma.model.FileListVersion;
+import edu.diploma.model.User;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface FileRepository extends JpaRepository<File, Long> {
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface FileRepository extends JpaRepository<File, Long>, FileKeysetRepository {
+
+    Optional<File> findByOwnerAndName(User owner, String name);
+
+    boolean existsByOwnerAndName(User owner, String name);
+
+    /**
+     * The file joined with its blob row in one query, for downloads; the bytes themselves are
+     * only read once the returned content is opened.
+     */
+    @EntityGraph(attributePaths = "content")
+    Optional<File> findWithContentByOwnerAndName(User owner, String name);
+
+    @Query("select f.name from File f where f.owner = :owner and f.name in :names")
+    List<String> findNamesByOwnerAndNameIn(User owner, Collection<String> names);
+
+    @EntityGraph(attributePaths = "content")
+    List<File> findByOwnerAndNameIn(User owner, Collection<String> names);
+
+    @EntityGraph(attributePaths = "content")
+    List<File> findByOwnerAndNameStartingWithOrderByName(User owner, String prefix, Limit limit);
+
+    @Query("select new edu.diploma.model.FileListVersion(count(f), coalesce(max(f.id), 0L), coalesce(max(f.editedAt), 0L))"
+            + " from File f where f.owner = :owner")
+    FileListVersion findListVersion(User owner);
+
+    /**
+     * Deletes the named files of the owner. Their rows are locked first, so a rename or delete
+     * running alongside waits, and both statements work on exactly those rows by id: one takes a
+     * reference off every blob they point to, one removes them. The bytes stay where they are
+     * until {@link edu.diploma.service.ContentService#collect()} finds their blobs unreferenced.
+     */
+    @Transactional
+    default int deleteByOwnerAndNameIn(User owner, Collection<String> names) {
+        if (names.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = lockByOwnerAndNameIn(owner, names).stream().map(File::getId).toList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        releaseContent(ids);
+        return deleteByIds(ids);
+    }
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select f from File f where f.owner = :owner and f.name in :names")
+    List<File> lockByOwnerAndNameIn(User owner, Collection<String> names);
+
+    @Modifying
+    @Query("update ContentBlob b set b.refCount = b.refCount"
+            + " - (select count(f) from File f where f.content = b and f.id in :ids)"
+            + " where b.hash in (select f.content.hash from File f where f.id in :ids)")
+    int releaseContent(Collection<Long> ids);
+
+    @Modifying
+    @Query("delete from File f where f.id in :ids")
+    int deleteByIds(Collection<Long> ids);
 }
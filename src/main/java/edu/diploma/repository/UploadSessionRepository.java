@@ -0,0 +1,37 @@
+package edu.diploma.repository;
+
+import edu.diploma.model.UploadSession;
+import edu.diploma.model.User;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    Optional<UploadSession> findByIdAndOwner(String id, User owner);
+
+    List<UploadSession> findByLastChunkAtLessThan(long lastChunkAt, Limit limit);
+
+    /**
+     * Marks the session of the owner as used now; 0 when there is no such session.
+     */
+    @Transactional
+    @Modifying
+    @Query("update UploadSession s set s.lastChunkAt = :now where s.id = :id and s.owner = :owner")
+    int touch(@Param("id") String id, @Param("owner") User owner, @Param("now") long now);
+
+    /**
+     * Deletes the session only if it has still not been used since {@code before}, so one
+     * touched after it was selected for expiry survives.
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from UploadSession s where s.id = :id and s.lastChunkAt < :before")
+    int deleteIdle(@Param("id") String id, @Param("before") long before);
+}
@@ -0,0 +1,176 @@
+package edu.diploma.service;
+
+import edu.diploma.model.AppError;
+import edu.diploma.model.File;
+import edu.diploma.model.User;
+import edu.diploma.repository.FileRepository;
+import edu.diploma.storage.Compression;
+import io.vavr.control.Either;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Many files downloaded as one zip, built while it is sent. The files are looked up first, so
+ * a wrong name is still answered with an error; then their contents are read one after the
+ * other and copied into the archive buffer by buffer, without staging anything.
+ * <p>
+ * Types that {@link Compression} does not deflate in the store (images, audio, archives) are
+ * put in the archive at level 0, which costs no CPU and only a few bytes per block.
+ */
+@Service
+public class ArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveService.class);
+
+    private final FileRepository fileRepository;
+    private final ContentService contentService;
+    private final Compression compression;
+    private final int maxFiles;
+
+    public ArchiveService(
+            FileRepository fileRepository,
+            ContentService contentService,
+            Compression compression,
+            @Value("${edu.diploma.archive.max-files:10000}") int maxFiles
+    ) {
+        this.fileRepository = fileRepository;
+        this.contentService = contentService;
+        this.compression = compression;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * The named files in the given order, or all files whose name starts with the prefix in
+     * name order; exactly one of the two is given. A missing name, or more files than
+     * {@code edu.diploma.archive.max-files}, is an input error.
+     */
+    public Either<AppError, List<File>> findFiles(User owner, List<String> filenames, String prefix) {
+
+        if (Objects.isNull(filenames) == Objects.isNull(prefix)) {
+            log.error("Archive needs either names or a prefix");
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        try {
+            if (Objects.nonNull(prefix)) {
+                List<File> files = fileRepository.findByOwnerAndNameStartingWithOrderByName(owner, prefix, Limit.of(maxFiles + 1));
+
+                if (files.size() > maxFiles) {
+                    log.error(String.format("Archive has too many files: prefix: %s", prefix));
+                    return Either.left(FileService.ERROR_INPUT_DATA);
+                }
+                return Either.right(files);
+            }
+
+            final List<String> names = filenames.stream().distinct().toList();
+            if (names.isEmpty() || names.size() > maxFiles || names.stream().anyMatch(Objects::isNull)) {
+                log.error(String.format("Archive has no files or too many: %d", names.size()));
+                return Either.left(FileService.ERROR_INPUT_DATA);
+            }
+
+            Map<String, File> found = new HashMap<>();
+            fileRepository.findByOwnerAndNameIn(owner, names).forEach(file -> found.put(file.getName(), file));
+
+            for (String name : names) {
+                if (!found.containsKey(name)) {
+                    log.error(String.format("No file found for archive: %s", name));
+                    return Either.left(FileService.ERROR_INPUT_DATA);
+                }
+            }
+            return Either.right(names.stream().map(found::get).toList());
+        } catch (Exception e) {
+            log.error(String.format("Error while looking up archive files: %s", e.getMessage()));
+            return Either.left(FileService.SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Writes the archive and closes the stream. A content that cannot be read ends the archive
+     * before its central directory, so the client cannot take it for a complete one.
+     */
+    public void write(List<File> files, OutputStream out) throws IOException {
+
+        final CutOff sink = new CutOff(out);
+        try (ZipOutputStream zip = new ZipOutputStream(sink)) {
+            try {
+                for (File file : files) {
+                    ZipEntry entry = new ZipEntry(file.getName());
+                    entry.setTime(file.getEditedAt());
+
+                    zip.setLevel(compression.appliesTo(file.getContentType()) ? compression.getLevel() : Deflater.NO_COMPRESSION);
+                    zip.putNextEntry(entry);
+                    try (InputStream in = contentService.open(file.getContent()).getInputStream()) {
+                        in.transferTo(zip);
+                    }
+                    zip.closeEntry();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error(String.format("Archive aborted: %s", e.getMessage()));
+                sink.cut();
+                throw e;
+            }
+        }
+
+        log.info(String.format("Archive sent: %d files", files.size()));
+    }
+
+    /**
+     * Closing a zip writes its central directory, even after a failure; once cut, nothing more
+     * reaches the client, so a broken archive stays visibly broken.
+     */
+    private static final class CutOff extends FilterOutputStream {
+
+        private boolean cut;
+
+        CutOff(OutputStream out) {
+            super(out);
+        }
+
+        void cut() {
+            cut = true;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!cut) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!cut) {
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!cut) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!cut) {
+                out.close();
+            }
+        }
+    }
+}
@@ -1,88 +1,180 @@
 package edu.diploma.service;
 
+import edu.diploma.auth.AuthUserDetailsService;
 import edu.diploma.auth.JwtHelper;
+import edu.diploma.auth.PasswordHasher;
+import edu.diploma.auth.StatelessTokens;
+import edu.diploma.auth.TokenRegistry;
 import edu.diploma.auth.UserCreds;
 import edu.diploma.controller.AuthController;
+import edu.diploma.model.AppError;
+import edu.diploma.model.AuthSession;
 import edu.diploma.model.Login;
 import edu.diploma.model.LoginErrors;
 import edu.diploma.model.User;
+import edu.diploma.repository.AuthSessionRepository;
 import edu.diploma.repository.UserRepository;
+import io.jsonwebtoken.Claims;
 import io.vavr.control.Either;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class AuthService {
 
     private static final Logger log = LoggerFactory.getLogger(AuthService.class);
+
+    public static final AppError INVALID_TOKEN = new AppError(HttpStatus.UNAUTHORIZED.value(), "Invalid refresh token");
+
     private final JwtHelper jwtHelper;
     private final UserRepository userRepository;
-    private final BCryptPasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
+    private final TokenRegistry tokenRegistry;
+    private final AuthSessionRepository authSessionRepository;
+    private final StatelessTokens statelessTokens;
+    private final AuthUserDetailsService userDetailsService;
 
     public AuthService(
             JwtHelper jwtHelper,
             UserRepository userRepository,
-            BCryptPasswordEncoder passwordEncoder
+            PasswordHasher passwordHasher,
+            TokenRegistry tokenRegistry,
+            AuthSessionRepository authSessionRepository,
+            StatelessTokens statelessTokens,
+            AuthUserDetailsService userDetailsService
     ) {
         this.jwtHelper = jwtHelper;
         this.userRepository = userRepository;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHasher = passwordHasher;
+        this.tokenRegistry = tokenRegistry;
+        this.authSessionRepository = authSessionRepository;
+        this.statelessTokens = statelessTokens;
+        this.userDetailsService = userDetailsService;
     }
 
 
+    /**
+     * Checks the credentials and opens a session. Input checks and the user lookup run on the
+     * caller's thread; the BCrypt work runs on the {@link PasswordHasher} pool, and the result
+     * completes exceptionally with a {@link java.util.concurrent.RejectedExecutionException} when
+     * that pool is saturated.
+     */
     @PostMapping("/login")
-    public Either<LoginErrors,Login> login(@RequestBody UserCreds creds) {
+    public CompletableFuture<Either<LoginErrors,Login>> login(@RequestBody UserCreds creds) {
 
         LoginErrors errors = new LoginErrors();
 
         if (Objects.isNull(creds)) {
             log.info(String.format("Invalid credentials: null"));
-            return Either.left(errors.addEmailMsg("Неправильные учетные данные"));
+            return CompletableFuture.completedFuture(Either.left(errors.addEmailMsg("Неправильные учетные данные")));
         }
 
         if (Objects.isNull(creds.getLogin()) || creds.getLogin().trim().isEmpty()) {
             log.info(String.format("User Email not provided"));
-            return Either.left(errors.addEmailMsg("Необходимо ввести почту"));
+            return CompletableFuture.completedFuture(Either.left(errors.addEmailMsg("Необходимо ввести почту")));
         }
 
         if (Objects.isNull(creds.getPassword()) || creds.getPassword().trim().isEmpty()) {
             log.info(String.format("User Password not provided"));
-            return Either.left(errors.addPasswordMsg("Необходимо ввести пароль"));
+            return CompletableFuture.completedFuture(Either.left(errors.addPasswordMsg("Необходимо ввести пароль")));
         }
 
-        Optional<User> user = userRepository.findOne(Example.of(
-                new User(creds.getLogin()),
-                ExampleMatcher.matching()
-                        .withMatcher("username", m -> m.exact())
-                        .withIgnorePaths("password")
-        ));
+        Optional<User> user = userDetailsService.findUser(creds.getLogin());
 
         if (user.isPresent()) {
-            if (passwordEncoder.matches(creds.getPassword(), user.get().getPassword())) {
-                user.get().setToken(jwtHelper.createToken(Map.ofEntries(), user.get().getUsername()));
-                userRepository.save(user.get());
-                log.info(String.format("User authenticated: %s", creds.getLogin()));
-                return Either.right(new Login(user.get().getToken()));
-            }
+            return passwordHasher.submit(() -> authenticate(user.get(), creds, errors));
+        }
+
+        log.info(String.format("Incorrect email"));
+        return CompletableFuture.completedFuture(Either.left(errors.addEmailMsg("Неправильно указана почта")));
 
+    }
+
+    private Either<LoginErrors,Login> authenticate(User found, UserCreds creds, LoginErrors errors) {
+
+        User user = found;
+
+        if (!passwordHasher.matches(creds.getPassword(), found.getPassword())) {
             log.info(String.format("Incorrect password"));
             return Either.left(errors.addPasswordMsg("Неправильно указан пароль"));
         }
 
-        log.info(String.format("Incorrect email"));
-        return Either.left(errors.addEmailMsg("Неправильно указана почта"));
+        // The password is only known now: a hash made with another cost is replaced by a current one.
+        // The cached user is shared by concurrent requests, so a copy is saved and takes its place
+        // in the cache once committed; a failed save leaves the cache as the database is
+        if (passwordHasher.needsRehash(found.getPassword())) {
+            try {
+                user = userRepository.save(
+                        new User(found.getId(), found.getUsername(), passwordHasher.encode(creds.getPassword()))
+                );
+                userDetailsService.cache(user);
+                log.info(String.format("Password rehashed with cost %d: %s", passwordHasher.getStrength(), creds.getLogin()));
+            } catch (Exception e) {
+                log.error(String.format("Password cannot be rehashed: %s", creds.getLogin()));
+            }
+        }
+
+        if (statelessTokens.isEnabled()) {
+            // Nothing is stored: requests are authenticated from the token claims alone
+            log.info(String.format("User authenticated, stateless: %s", creds.getLogin()));
+            return Either.right(statelessTokens.issue(user));
+        }
+
+        final String token = jwtHelper.createToken(Map.ofEntries(), user.getUsername());
+        final Claims claims = jwtHelper.verify(token).orElseThrow(
+                () -> new IllegalStateException("Issued token does not verify")
+        );
+
+        // A new row per login: other sessions of the user stay valid, the users row is not touched
+        authSessionRepository.save(new AuthSession(
+                user,
+                AuthSession.hash(token),
+                System.currentTimeMillis(),
+                claims.getExpiration().getTime()
+        ));
+        // Requests with this token are authenticated from memory from now on
+        tokenRegistry.register(claims, user);
+
+        log.info(String.format("User authenticated: %s", creds.getLogin()));
+        return Either.right(new Login(token));
+    }
+
+    /**
+     * New access and refresh tokens for a refresh token of the stateless mode. Each refresh token
+     * is good for one use; the user is looked up to make sure it still exists.
+     */
+    public Either<AppError,Login> refresh(String refreshToken) {
+
+        if (!statelessTokens.isEnabled()) {
+            log.error(String.format("Refresh requested, stateless tokens are disabled"));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        Optional<Claims> claims = Optional.ofNullable(refreshToken).flatMap(statelessTokens::verifyRefresh);
+
+        if (claims.isEmpty() || !statelessTokens.consume(claims.get())) {
+            log.info(String.format("Invalid or used refresh token"));
+            return Either.left(INVALID_TOKEN);
+        }
+
+        Optional<User> user = userDetailsService.findUser(claims.get().getSubject());
+
+        if (user.isEmpty()) {
+            log.info(String.format("Refresh token of an unknown user: %s", claims.get().getSubject()));
+            return Either.left(INVALID_TOKEN);
+        }
 
+        log.info(String.format("Tokens refreshed: %s", user.get().getUsername()));
+        return Either.right(statelessTokens.issue(user.get()));
     }
 }
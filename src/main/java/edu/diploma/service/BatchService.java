@@ -0,0 +1,286 @@
+package edu.diploma.service;
+
+import edu.diploma.model.AppError;
+import edu.diploma.model.BatchResult;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.model.ContentDigest;
+import edu.diploma.model.File;
+import edu.diploma.model.User;
+import edu.diploma.repository.FileRepository;
+import edu.diploma.storage.TarReader;
+import io.vavr.control.Either;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Many files in one request. Contents are stored one by one as they stream in, as for a single
+ * upload; the metadata is written in chunks, each chunk in one transaction, so that Hibernate
+ * sends its inserts as JDBC batches ({@code hibernate.jdbc.batch_size}) and one commit covers
+ * the whole chunk. Deletes take a chunk of names into one bulk statement.
+ * <p>
+ * A file that cannot be handled is reported and the others go on; a chunk whose transaction
+ * fails is reported as a whole.
+ */
+@Service
+public class BatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchService.class);
+
+    private final FileRepository fileRepository;
+    private final ContentService contentService;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final int chunkSize;
+    private final long maxFileSize;
+
+    public BatchService(
+            FileRepository fileRepository,
+            ContentService contentService,
+            TransactionTemplate transactionTemplate,
+            EntityManager entityManager,
+            @Value("${edu.diploma.batch.chunk-size:500}") int chunkSize,
+            @Value("${edu.diploma.upload.max-file-size:1073741824}") long maxFileSize
+    ) {
+        this.fileRepository = fileRepository;
+        this.contentService = contentService;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManager = entityManager;
+        this.chunkSize = chunkSize;
+        this.maxFileSize = maxFileSize;
+    }
+
+    public Either<AppError, BatchResult> saveFiles(User owner, List<MultipartFile> contents) {
+        return saveFiles(owner, contents, List.of());
+    }
+
+    /**
+     * The digests are the {@code Content-Digest} headers of the parts, in the same order, with
+     * {@code null} for a part without one; a file that does not match its digest, or whose
+     * digest is malformed, is reported and not saved.
+     */
+    public Either<AppError, BatchResult> saveFiles(User owner, List<MultipartFile> contents, List<String> digests) {
+
+        if (Objects.isNull(contents) || contents.isEmpty()) {
+            log.error("Batch upload has no files");
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        final Batch batch = new Batch(owner);
+        for (int i = 0; i < contents.size(); i++) {
+            final MultipartFile content = contents.get(i);
+            final String digest = i < digests.size() ? digests.get(i) : null;
+
+            final ContentDigest expected;
+            try {
+                expected = Objects.isNull(digest) ? null : ContentDigest.parse(digest);
+            } catch (IllegalArgumentException e) {
+                log.error(String.format("Malformed digest for batch file: %s, %s", content.getOriginalFilename(), digest));
+                batch.fail(content.getOriginalFilename(), FileService.ERROR_INPUT_DATA);
+                continue;
+            }
+
+            try (InputStream in = content.getInputStream()) {
+                batch.add(content.getOriginalFilename(), content.getContentType(), in, expected);
+            } catch (IOException e) {
+                batch.fail(content.getOriginalFilename(), FileService.ERROR_INPUT_DATA);
+            }
+        }
+        return Either.right(batch.finish());
+    }
+
+    /**
+     * Regular files of a tar stream, named by their path in the archive; the content type is
+     * guessed from the name.
+     */
+    public Either<AppError, BatchResult> saveArchive(User owner, InputStream archive) {
+
+        final Batch batch = new Batch(owner);
+        final TarReader tar = new TarReader(archive);
+        try {
+            for (TarReader.Entry entry = tar.next(); Objects.nonNull(entry); entry = tar.next()) {
+                // Its size is in the header, so an entry too large is skipped before anything is stored
+                if (entry.size() > maxFileSize) {
+                    log.error(String.format("Batch file too large: %s, %d bytes", entry.name(), entry.size()));
+                    batch.fail(entry.name(), FileService.ERROR_TOO_LARGE);
+                    continue;
+                }
+                String type = MediaTypeFactory.getMediaType(entry.name())
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                        .toString();
+                batch.add(entry.name(), type, entry.content(), null);
+            }
+        } catch (IOException e) {
+            // What was read so far is kept; the client sees how many files made it
+            log.error(String.format("Batch archive cannot be read: %s", e.getMessage()));
+            batch.fail(null, FileService.ERROR_INPUT_DATA);
+        }
+        return Either.right(batch.finish());
+    }
+
+    public Either<AppError, BatchResult> deleteFiles(User owner, List<String> filenames) {
+
+        if (Objects.isNull(filenames) || filenames.isEmpty()) {
+            log.error("Batch delete has no files");
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        final List<BatchResult.Failure> errors = new ArrayList<>();
+        int done = 0;
+
+        final List<String> names = filenames.stream().filter(Objects::nonNull).distinct().toList();
+        for (int from = 0; from < names.size(); from += chunkSize) {
+            final List<String> chunk = names.subList(from, Math.min(from + chunkSize, names.size()));
+
+            final List<String> found;
+            try {
+                found = transactionTemplate.execute(status -> {
+                    List<String> existing = fileRepository.findNamesByOwnerAndNameIn(owner, chunk);
+                    fileRepository.deleteByOwnerAndNameIn(owner, existing);
+                    return existing;
+                });
+            } catch (Exception e) {
+                log.error(String.format("Batch delete chunk failed: %s", e.getMessage()));
+                chunk.forEach(name -> errors.add(new BatchResult.Failure(name, FileService.SERVER_ERROR)));
+                continue;
+            }
+            done += found.size();
+
+            Set<String> deleted = new HashSet<>(found);
+            chunk.stream()
+                    .filter(name -> !deleted.contains(name))
+                    .forEach(name -> errors.add(new BatchResult.Failure(name, FileService.ERROR_INPUT_DATA)));
+        }
+
+        log.info(String.format("Batch delete: %d deleted, %d failed", done, errors.size()));
+        return Either.right(new BatchResult(done, errors));
+    }
+
+    private void release(ContentBlob blob) {
+        try {
+            contentService.release(blob);
+        } catch (Exception e) {
+            log.error(String.format("Content cannot be released: %s", blob.getHash()));
+        }
+    }
+
+    private static long now() {
+        return LocalDate.now().atTime(LocalTime.now()).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Files of one upload request, stored as they come and written out a chunk at a time.
+     */
+    private class Batch {
+
+        private final User owner;
+
+        private final List<File> pending = new ArrayList<>();
+
+        private final Set<String> names = new HashSet<>();
+
+        private final List<BatchResult.Failure> errors = new ArrayList<>();
+
+        private int done;
+
+        Batch(User owner) {
+            this.owner = owner;
+        }
+
+        void add(String filename, String contentType, InputStream in, ContentDigest expected) {
+
+            if (Objects.isNull(filename) || filename.trim().isEmpty() || !names.add(filename)) {
+                log.error(String.format("Batch file has no name or a repeated one: %s", filename));
+                fail(filename, FileService.ERROR_INPUT_DATA);
+                return;
+            }
+
+            final String type = Objects.isNull(contentType) || contentType.isBlank()
+                    ? MediaType.APPLICATION_OCTET_STREAM_VALUE : contentType;
+            try {
+                ContentBlob blob = contentService.store(in, type);
+
+                if (Objects.nonNull(expected) && !expected.matches(blob)) {
+                    log.error(String.format("Batch file does not match its digest: %s", filename));
+                    release(blob);
+                    fail(filename, FileService.ERROR_INPUT_DATA);
+                    return;
+                }
+
+                long now = now();
+                pending.add(new File(owner, filename, type, now, now, blob.getSize(), blob));
+            } catch (Exception e) {
+                log.error(String.format("Batch file cannot be stored: %s", filename));
+                fail(filename, FileService.ERROR_INPUT_DATA);
+                return;
+            }
+
+            if (pending.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void fail(String filename, AppError error) {
+            errors.add(new BatchResult.Failure(filename, error));
+        }
+
+        BatchResult finish() {
+            flush();
+            log.info(String.format("Batch upload: %d saved, %d failed", done, errors.size()));
+            return new BatchResult(done, errors);
+        }
+
+        /**
+         * Names already taken are looked up for the whole chunk at once; the rest is inserted
+         * in one transaction.
+         */
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            final List<File> chunk = new ArrayList<>(pending);
+            pending.clear();
+
+            try {
+                final Set<String> taken = transactionTemplate.execute(status -> {
+                    Set<String> existing = new HashSet<>(fileRepository.findNamesByOwnerAndNameIn(
+                            owner, chunk.stream().map(File::getName).toList()
+                    ));
+                    fileRepository.saveAll(chunk.stream().filter(file -> !existing.contains(file.getName())).toList());
+                    return existing;
+                });
+                entityManager.clear();
+
+                done += chunk.size() - taken.size();
+                chunk.stream().filter(file -> taken.contains(file.getName())).forEach(file -> {
+                    fail(file.getName(), FileService.ERROR_INPUT_DATA);
+                    release(file.getContent());
+                });
+            } catch (Exception e) {
+                log.error(String.format("Batch upload chunk failed: %s", e.getMessage()));
+                chunk.forEach(file -> {
+                    fail(file.getName(), FileService.SERVER_ERROR);
+                    release(file.getContent());
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package edu.diploma.service;
+
+import edu.diploma.auth.TokenBucket;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.repository.ContentBlobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads every stored blob again now and then and checks it against its checksums, so bit rot
+ * is found before a download hands it out. The blobs are walked in hash order a page at a
+ * time, and the reads are held to {@code edu.diploma.storage.scrub.bytes-per-second} so a pass
+ * does not compete with clients for the disk.
+ * <p>
+ * A pass over a large store takes hours, so it runs on its own thread: the scheduler only
+ * starts it, and the other scheduled tasks sharing the scheduler thread keep their pace.
+ */
+@Service
+public class ContentScrubber {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentScrubber.class);
+
+    private static final int PAGE = 500;
+
+    private final ContentBlobRepository contentBlobRepository;
+    private final ContentService contentService;
+    private final TokenBucket throttle;
+    private final Executor executor;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Autowired
+    public ContentScrubber(
+            ContentBlobRepository contentBlobRepository,
+            ContentService contentService,
+            @Value("${edu.diploma.storage.scrub.bytes-per-second:10485760}") double rate
+    ) {
+        this(
+                contentBlobRepository,
+                contentService,
+                rate,
+                Executors.newSingleThreadExecutor(Thread.ofVirtual().name("content-scrubber").factory())
+        );
+    }
+
+    public ContentScrubber(
+            ContentBlobRepository contentBlobRepository,
+            ContentService contentService,
+            double rate,
+            Executor executor
+    ) {
+        this.contentBlobRepository = contentBlobRepository;
+        this.contentService = contentService;
+        // A second of reads may go at once; a rate of 0 leaves the reads unthrottled
+        this.throttle = rate > 0 ? new TokenBucket(rate, rate) : null;
+        this.executor = executor;
+    }
+
+    /**
+     * Hands a pass to the scrubber thread and returns; nothing is started while the previous
+     * pass is still going.
+     */
+    @Scheduled(
+            initialDelayString = "${edu.diploma.storage.scrub.interval:86400000}",
+            fixedDelayString = "${edu.diploma.storage.scrub.interval:86400000}"
+    )
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Scrub still running, not started again");
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    scrub();
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            log.error(String.format("Scrub cannot be started: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Stops a pass in progress: its reads and throttle waits are interrupted.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ExecutorService service) {
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * One whole pass, on the calling thread.
+     */
+    public void scrub() {
+        int checked = 0;
+        int corrupt = 0;
+        try {
+            String after = "";
+            List<ContentBlob> page;
+            do {
+                page = contentBlobRepository.findByHashGreaterThanOrderByHash(after, Limit.of(PAGE));
+                for (ContentBlob blob : page) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        log.info(String.format("Scrub interrupted after %d blobs", checked));
+                        return;
+                    }
+                    if (!verify(blob)) {
+                        corrupt++;
+                    }
+                    checked++;
+                    after = blob.getHash();
+                }
+            } while (page.size() == PAGE);
+        } catch (Exception e) {
+            log.error(String.format("Scrub stopped after %d blobs: %s", checked, e.getMessage()));
+        }
+        log.info(String.format("Scrub done: %d blobs checked, %d corrupt", checked, corrupt));
+    }
+
+    /**
+     * False only for a blob whose bytes are there but differ; one collected while it was being
+     * read is not reported.
+     */
+    private boolean verify(ContentBlob blob) {
+        try {
+            if (contentService.verify(blob, this::take)) {
+                return true;
+            }
+            log.error(String.format("Content does not match its checksums: %s, key %s", blob.getHash(), blob.getStoreKey()));
+            return false;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted() || !contentBlobRepository.existsById(blob.getHash())) {
+                return true;
+            }
+            log.error(String.format("Content cannot be read: %s, key %s", blob.getHash(), blob.getStoreKey()));
+            return false;
+        }
+    }
+
+    private void take(int bytes) {
+        if (Objects.isNull(throttle)) {
+            return;
+        }
+        try {
+            long wait;
+            while ((wait = throttle.tryTake(bytes, System.nanoTime())) > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Scrub interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package edu.diploma.service;
+
+import edu.diploma.model.ContentBlob;
+import edu.diploma.repository.ContentBlobRepository;
+import edu.diploma.storage.Compression;
+import edu.diploma.storage.ContentStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deduplicates file bytes on top of the {@link ContentStore}: uploads are hashed with SHA-256
+ * while they stream in, and only the first copy of every hash is kept.
+ * <p>
+ * Uploads that {@link Compression} picks are deflated on the way to the store. The hash and
+ * size are still those of the original bytes, so deduplication, ETags and the file list do
+ * not change; {@link #open(ContentBlob)} inflates while the content is read.
+ */
+@Service
+public class ContentService {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentService.class);
+
+    // Unreferenced blobs taken per query by the collector
+    private static final int COLLECT_BATCH = 500;
+
+    private static final int VERIFY_BUFFER = 65536;
+
+    private final ContentStore contentStore;
+    private final ContentBlobRepository contentBlobRepository;
+    private final Compression compression;
+
+    public ContentService(
+            ContentStore contentStore,
+            ContentBlobRepository contentBlobRepository
+    ) {
+        this(contentStore, contentBlobRepository, new Compression(List.of(), 1, Deflater.DEFAULT_COMPRESSION, 0));
+    }
+
+    @Autowired
+    public ContentService(
+            ContentStore contentStore,
+            ContentBlobRepository contentBlobRepository,
+            Compression compression
+    ) {
+        this.contentStore = contentStore;
+        this.contentBlobRepository = contentBlobRepository;
+        this.compression = compression;
+    }
+
+    /**
+     * Stores the stream as it is, see {@link #store(InputStream, String)}.
+     */
+    public ContentBlob store(InputStream in) throws IOException {
+        return store(in, null);
+    }
+
+    /**
+     * Stores the stream and returns the blob holding its bytes, with one more reference on it.
+     * The hash is only known at the end of the stream, so the bytes are written once under a
+     * fresh key; if the hash turns out to be known already, that copy is dropped.
+     */
+    public ContentBlob store(InputStream in, String contentType) throws IOException {
+
+        final MessageDigest digest = sha256();
+        InputStream source = in;
+        boolean deflate = false;
+
+        if (compression.appliesTo(contentType)) {
+            // Only the sample is buffered; the stream is replayed from its start afterwards
+            BufferedInputStream buffered = new BufferedInputStream(in, compression.getSampleSize());
+            buffered.mark(compression.getSampleSize());
+            deflate = compression.isWorthIt(buffered.readNBytes(compression.getSampleSize()));
+            buffered.reset();
+            source = buffered;
+        }
+
+        // Both checksums are taken in the same pass that stores the bytes
+        final CRC32C crc = new CRC32C();
+        final CountingInputStream counter = new CountingInputStream(
+                new CheckedInputStream(new DigestInputStream(source, digest), crc)
+        );
+        final Deflater deflater = deflate ? compression.deflater() : null;
+        final CountingInputStream stored = deflate
+                ? new CountingInputStream(new DeflaterInputStream(counter, deflater))
+                : counter;
+
+        final String key;
+        try {
+            key = contentStore.write(stored);
+        } finally {
+            if (deflate) {
+                deflater.end();
+            }
+        }
+        final String hash = HexFormat.of().formatHex(digest.digest());
+
+        try {
+            ContentBlob blob = reference(
+                    hash, key, counter.getCount(), deflate ? Compression.DEFLATE : null, stored.getCount(), hex(crc)
+            );
+
+            if (!key.equals(blob.getStoreKey())) {
+                log.info(String.format("Duplicate content: %s", hash));
+                discard(key);
+            } else if (deflate) {
+                log.info(String.format("Content deflated: %s, %d to %d bytes", hash, counter.getCount(), stored.getCount()));
+            }
+
+            return blob;
+        } catch (RuntimeException e) {
+            discard(key);
+            throw e;
+        }
+    }
+
+    /**
+     * The original bytes, inflated while they are read if the blob is stored deflated.
+     */
+    public Resource open(ContentBlob blob) throws IOException {
+        final Resource stored = contentStore.read(blob.getStoreKey());
+
+        if (Objects.isNull(blob.getEncoding())) {
+            return stored;
+        }
+        return new InflatingResource(stored, blob.getSize());
+    }
+
+    /**
+     * The bytes as they are stored, in {@link ContentBlob#getEncoding()}.
+     */
+    public Resource openStored(ContentBlob blob) throws IOException {
+        return contentStore.read(blob.getStoreKey());
+    }
+
+    /**
+     * Reads the original bytes again and compares their checksums with the recorded ones. The
+     * throttle is called with the number of bytes after every read and may hold up the next.
+     */
+    public boolean verify(ContentBlob blob, IntConsumer throttle) throws IOException {
+
+        final MessageDigest digest = sha256();
+        final CRC32C crc = new CRC32C();
+        final byte[] buffer = new byte[VERIFY_BUFFER];
+
+        try (InputStream in = open(blob).getInputStream()) {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                throttle.accept(read);
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest()).equals(blob.getHash())
+                && (Objects.isNull(blob.getCrc32c()) || hex(crc).equals(blob.getCrc32c()));
+    }
+
+    /**
+     * Drops one reference. The bytes stay until {@link #collect()} finds the blob unreferenced,
+     * so the caller never waits for a large blob to be freed.
+     */
+    public void release(ContentBlob blob) {
+        contentBlobRepository.release(blob.getHash());
+    }
+
+    /**
+     * Deletes the blobs nobody references any more, row first and bytes after. A blob that an
+     * upload of the same bytes has retained in the meantime is not deleted: the statement only
+     * removes the row while its count is still zero and it still has the key read here. The
+     * blobs are walked in hash order, so one that cannot be deleted is logged and passed over
+     * while the rest are still collected.
+     */
+    @Scheduled(
+            initialDelayString = "${edu.diploma.storage.gc-interval:60000}",
+            fixedDelayString = "${edu.diploma.storage.gc-interval:60000}"
+    )
+    public void collect() {
+        int collected = 0;
+        int failed = 0;
+        try {
+            String after = "";
+            List<ContentBlob> garbage;
+            do {
+                garbage = contentBlobRepository.findByRefCountLessThanEqualAndHashGreaterThanOrderByHash(
+                        0, after, Limit.of(COLLECT_BATCH)
+                );
+                for (ContentBlob blob : garbage) {
+                    after = blob.getHash();
+                    try {
+                        if (contentBlobRepository.deleteUnreferenced(blob.getHash(), blob.getStoreKey()) > 0) {
+                            discard(blob.getStoreKey());
+                            collected++;
+                        }
+                    } catch (Exception e) {
+                        failed++;
+                        log.error(String.format("Unreferenced content cannot be collected: %s: %s", blob.getHash(), e.getMessage()));
+                    }
+                }
+            } while (garbage.size() == COLLECT_BATCH);
+        } catch (Exception e) {
+            log.error(String.format("Unreferenced content cannot be looked up: %s", e.getMessage()));
+        }
+        if (collected > 0 || failed > 0) {
+            log.info(String.format("Content collected: %d blobs, %d failed", collected, failed));
+        }
+    }
+
+    private ContentBlob reference(String hash, String key, long size, String encoding, long storedSize, String crc32c) {
+
+        if (contentBlobRepository.retain(hash) > 0) {
+            return contentBlobRepository.findById(hash).orElseThrow();
+        }
+
+        try {
+            return contentBlobRepository.saveAndFlush(new ContentBlob(hash, key, size, encoding, storedSize, crc32c));
+        } catch (DataIntegrityViolationException e) {
+            // The same bytes were stored concurrently and won the insert
+            contentBlobRepository.retain(hash);
+            return contentBlobRepository.findById(hash).orElseThrow();
+        }
+    }
+
+    private void discard(String key) {
+        if (Objects.isNull(key)) {
+            return;
+        }
+        try {
+            contentStore.delete(key);
+        } catch (Exception e) {
+            log.error(String.format("Blob cannot be discarded: %s", key));
+        }
+    }
+
+    private static String hex(CRC32C crc) {
+        return String.format("%08x", crc.getValue());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class InflatingResource extends AbstractResource {
+
+        private final Resource stored;
+
+        private final long size;
+
+        InflatingResource(Resource stored, long size) {
+            this.stored = stored;
+            this.size = size;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new InflaterInputStream(stored.getInputStream());
+        }
+
+        @Override
+        public boolean exists() {
+            return stored.exists();
+        }
+
+        @Override
+        public long contentLength() {
+            return size;
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("Inflated %s", stored.getDescription());
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -4,29 +4,44 @@ import edu.diploma.auth.JwtHelper;
 import edu.diploma.controller.AuthController;
 import edu.diploma.model.AppError;
 import edu.diploma.model.File;
-import edu.diploma.model.FileContent;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.model.ContentDigest;
+import edu.diploma.model.FileEntry;
+import edu.diploma.model.FileListVersion;
 import edu.diploma.model.NewFilename;
-import edu.diploma.repository.FileContentRepository;
+import edu.diploma.model.User;
 import edu.diploma.repository.FileRepository;
 import io.vavr.control.Either;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.support.WindowIterator;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 
 @Service
@@ -35,26 +50,33 @@ public class FileService {
 
     public static final AppError ERROR_INPUT_DATA = new AppError(HttpStatus.BAD_REQUEST.value(), "Error input data");
     public static final AppError SERVER_ERROR = new AppError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Server Error");
+    public static final AppError ERROR_TOO_LARGE = new AppError(HttpStatus.PAYLOAD_TOO_LARGE.value(), "File too large");
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+    public static final int STREAM_BATCH = 500;
+
+    private static final Set<String> SORT_PROPERTIES = Set.of("name", "size", "createdAt", "editedAt");
 
     private final AuthenticationManager authManager;
     private final JwtHelper jwtHelper;
     private final FileRepository fileRepository;
-    private final FileContentRepository fileContentRepository;
+    private final ContentService contentService;
 
     public FileService(
             AuthenticationManager authManager,
             JwtHelper jwtHelper,
             FileRepository fileRepository,
-            FileContentRepository fileContentRepository
+            ContentService contentService
     ) {
         this.authManager = authManager;
         this.jwtHelper = jwtHelper;
         this.fileRepository = fileRepository;
-        this.fileContentRepository = fileContentRepository;
+        this.contentService = contentService;
     }
 
 
-    public Either<AppError, File> renameFile(String filename, NewFilename newFilename) {
+    public Either<AppError, File> renameFile(User owner, String filename, NewFilename newFilename) {
 
         if (Objects.isNull(filename) || filename.trim().isEmpty()
                 || Objects.isNull(newFilename) || newFilename.getFilename().trim().isEmpty()) {
@@ -64,14 +86,11 @@ public class FileService {
 
         }
 
-        Optional<File> file = fileRepository.findOne(Example.of(
-                new File(filename),
-                ExampleMatcher.matching()
-                        .withMatcher("name", m -> m.exact())
-                        .withIgnorePaths("contentType", "createdAt", "editedAt", "size")
-        ));
+        Optional<File> file = fileRepository.findByOwnerAndName(owner, filename);
 
-        if (file.isPresent()) {
+        // Names are unique per owner, so renaming onto another file of the same owner is refused up front
+        if (file.isPresent() && (filename.equals(newFilename.getFilename())
+                || !fileRepository.existsByOwnerAndName(owner, newFilename.getFilename()))) {
             file.get().setName(newFilename.getFilename());
             file.get().setEditedAt(
                     LocalDate.now()
@@ -94,30 +113,25 @@ public class FileService {
     }
 
 
-    public Either<AppError,Pair<File,FileContent>> getFile(String filename) {
+    public Either<AppError,Pair<File,Resource>> getFile(User owner, String filename) {
+        return findFile(owner, filename).flatMap(file -> openFile(file).map(content -> Pair.with(file, content)));
+    }
+
+    /**
+     * The file and its blob row, without opening the content: enough to answer a conditional
+     * request.
+     */
+    public Either<AppError, File> findFile(User owner, String filename) {
 
         if (Objects.isNull(filename) || filename.trim().isEmpty()) {
             log.error(String.format("Nameless file: %s", filename));
             return Either.left(FileService.ERROR_INPUT_DATA);
         }
 
-        Optional<File> file = fileRepository.findOne(Example.of(
-                new File(filename),
-                ExampleMatcher.matching()
-                        .withMatcher("name", m -> m.exact())
-                        .withIgnorePaths("contentType", "createdAt", "editedAt", "size")
-        ));
+        Optional<File> file = fileRepository.findWithContentByOwnerAndName(owner, filename);
 
         if (file.isPresent()) {
-            Optional<FileContent> content = fileContentRepository.findOne(Example.of(new FileContent(file.get())));
-            if (content.isPresent()) {
-                log.info(String.format("File content found: %s", filename));
-                return Either.right(Pair.with(file.get(),content.get()));
-            }
-
-            log.error(String.format("File has no content: %s", filename));
-            return Either.left(FileService.SERVER_ERROR);
-
+            return Either.right(file.get());
         }
 
         log.error(String.format("No file found: %s", filename));
@@ -125,8 +139,50 @@ public class FileService {
 
     }
 
+    public Either<AppError, Resource> openFile(File file) {
+        try {
+            Resource content = contentService.open(file.getContent());
+            log.info(String.format("File content found: %s", file.getName()));
+            return Either.right(content);
+        } catch (Exception e) {
+            log.error(String.format("File has no content: %s", file.getName()));
+            return Either.left(FileService.SERVER_ERROR);
+        }
+    }
+
+    /**
+     * The content as it is stored, in the encoding of its blob, for clients that accept it.
+     */
+    public Either<AppError, Resource> openStored(File file) {
+        try {
+            Resource content = contentService.openStored(file.getContent());
+            log.info(String.format("Stored file content found: %s", file.getName()));
+            return Either.right(content);
+        } catch (Exception e) {
+            log.error(String.format("File has no content: %s", file.getName()));
+            return Either.left(FileService.SERVER_ERROR);
+        }
+    }
+
+    /**
+     * The owner's list version as an ETag, see {@link FileListVersion}.
+     */
+    public Either<AppError, String> listTag(User owner) {
+        try {
+            return Either.right(fileRepository.findListVersion(owner).etag());
+        } catch (Exception e) {
+            log.error(String.format("Error reading file list version: %s", e.getMessage()));
+            return Either.left(SERVER_ERROR);
+        }
+    }
+
 
-    public Either<AppError,List<File>> deleteFile(String filename) {
+    /**
+     * One bulk statement per table and no entity loaded; the blob is only released, its bytes
+     * are reclaimed later by {@link ContentService#collect()}. A name that is not there deletes
+     * nothing and is not an error.
+     */
+    public Either<AppError, Integer> deleteFile(User owner, String filename) {
 
         if (Objects.isNull(filename) || filename.trim().isEmpty()) {
 
@@ -134,29 +190,30 @@ public class FileService {
             return Either.left(FileService.ERROR_INPUT_DATA);
         }
 
-        List<File> files = fileRepository.findAll(Example.of(
-                new File(filename),
-                ExampleMatcher.matching().withMatcher("name", m -> m.caseSensitive())
-                        .withIgnorePaths("contentType", "createdAt", "editedAt", "size")
-        ));
-
+        final int deleted;
         try {
-            fileRepository.deleteAll(files);
-
-            log.info(String.format("File has been deleted: %s", filename));
-            return Either.right(files);
-
+            deleted = fileRepository.deleteByOwnerAndNameIn(owner, List.of(filename));
         } catch (Exception e) {
 
             log.error(String.format("Error while deleting file: %s", filename));
             return Either.left(FileService.SERVER_ERROR);
         }
 
+        log.info(String.format("File has been deleted: %s", filename));
+        return Either.right(deleted);
 
     }
 
 
-    public Either<AppError, File> saveFile(String filename, MultipartFile content) {
+    public Either<AppError, File> saveFile(User owner, String filename, MultipartFile content) {
+        return saveFile(owner, filename, content, null);
+    }
+
+    /**
+     * Saves the upload only if it matches the digest the client sent, when there is one. The
+     * checksums are only known once the content is stored, so a mismatch releases it again.
+     */
+    public Either<AppError, File> saveFile(User owner, String filename, MultipartFile content, ContentDigest expected) {
 
         if (Objects.isNull(filename) || filename.trim().isEmpty() || Objects.isNull(content)) {
 
@@ -164,50 +221,140 @@ public class FileService {
             return Either.left(FileService.ERROR_INPUT_DATA);
         }
 
-        try {
+        ContentBlob blob = null;
+        try (InputStream in = content.getInputStream()) {
             long now = LocalDate.now().atTime(LocalTime.now()).atZone(ZoneId.systemDefault())
                     .toInstant().toEpochMilli();
 
+            // The upload is copied into the store chunk by chunk and never materialised as a byte[].
+            blob = contentService.store(in, content.getContentType());
+
+            if (Objects.nonNull(expected) && !expected.matches(blob)) {
+                log.error(String.format("File does not match its digest: %s", filename));
+                release(blob);
+                return Either.left(FileService.ERROR_INPUT_DATA);
+            }
+
             File file = fileRepository.save(
                     new File(
+                            owner,
                             filename,
                             content.getContentType(),
                             now, now,
-                            content.getSize()
+                            content.getSize(),
+                            blob
                     )
             );
-            fileContentRepository.save(new FileContent(file, content.getBytes()));
 
             log.info(String.format("File saved: %s", filename));
             return Either.right(file);
         } catch (Exception e) {
 
             log.error(String.format("File cannot be saved: %s", filename));
+            release(blob);
             return Either.left(FileService.ERROR_INPUT_DATA);
         }
     }
 
-    public Either<AppError, List<File>> getFiles(Integer limit) {
+    public Either<AppError, File> saveFile(User owner, String filename, String contentType, InputStream in) {
+        return saveFile(owner, filename, contentType, in, null);
+    }
 
-        if (Objects.isNull(limit)) {
-            try {
+    /**
+     * Same as {@link #saveFile(User, String, MultipartFile, ContentDigest)} for a body that is
+     * not multipart; the size is that of the stored bytes.
+     */
+    public Either<AppError, File> saveFile(
+            User owner,
+            String filename,
+            String contentType,
+            InputStream in,
+            ContentDigest expected
+    ) {
 
-                log.info(String.format("No limit. All files sent: limit: %d", limit));
-                return Either.right(fileRepository.findAll());
+        if (Objects.isNull(filename) || filename.trim().isEmpty() || Objects.isNull(in)) {
 
-            } catch (Exception e) {
+            log.error(String.format("File has no name: %s", filename));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        ContentBlob blob = null;
+        try {
+            long now = LocalDate.now().atTime(LocalTime.now()).atZone(ZoneId.systemDefault())
+                    .toInstant().toEpochMilli();
+
+            final String type = Objects.isNull(contentType) || contentType.isBlank()
+                    ? MediaType.APPLICATION_OCTET_STREAM_VALUE : contentType;
+            blob = contentService.store(in, type);
 
-                log.error(String.format("Error while retrieving all files: limit: %d", limit));
-                return Either.left(SERVER_ERROR);
+            if (Objects.nonNull(expected) && !expected.matches(blob)) {
+                log.error(String.format("File does not match its digest: %s", filename));
+                release(blob);
+                return Either.left(FileService.ERROR_INPUT_DATA);
             }
+
+            File file = fileRepository.save(
+                    new File(
+                            owner,
+                            filename,
+                            type,
+                            now, now,
+                            blob.getSize(),
+                            blob
+                    )
+            );
+
+            log.info(String.format("File saved: %s", filename));
+            return Either.right(file);
+        } catch (Exception e) {
+
+            log.error(String.format("File cannot be saved: %s", filename));
+            release(blob);
+            return Either.left(FileService.ERROR_INPUT_DATA);
         }
+    }
+
+    /**
+     * One page of the owner's files plus the cursor of the next page, or {@code null} on the
+     * last one. Pages are read with keyset pagination on (sort column, id): the cursor carries
+     * the last row's values, so every page is a range scan of an index no matter how deep it is.
+     */
+    public Either<AppError, Pair<List<FileEntry>, String>> getFiles(
+            User owner, Integer limit, String sort, String order, String cursor
+    ) {
 
+        final Either<AppError, Sort> listSort = listSort(sort, order);
+
+        if (listSort.isLeft() || (Objects.nonNull(limit) && limit < 1)) {
+            log.error(String.format("Invalid file list request: limit: %d, sort: %s, order: %s", limit, sort, order));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        final String property = listSort.get().iterator().next().getProperty();
+        final Sort.Direction direction = listSort.get().iterator().next().getDirection();
+
+        final ScrollPosition position;
         try {
+            position = Objects.isNull(cursor) ? ScrollPosition.keyset() : decodeCursor(cursor, property, direction);
+        } catch (IllegalArgumentException e) {
+            log.error(String.format("Invalid file list cursor: %s", cursor));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        try {
+            Window<FileEntry> window = fileRepository.findByOwner(
+                    owner,
+                    position,
+                    listSort.get(),
+                    Limit.of(Objects.isNull(limit) ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT))
+            );
 
-            PageRequest pageRequest = PageRequest.of(0, limit, Sort.by(Sort.Direction.ASC, "name"));
+            String next = window.hasNext() && !window.isEmpty()
+                    ? encodeCursor(property, direction, window.positionAt(window.size() - 1))
+                    : null;
 
-            log.info(String.format("Page of files sent: limit: %d", limit));
-            return Either.right(fileRepository.findAll(pageRequest).stream().toList());
+            log.info(String.format("Page of files sent: limit: %d, sort: %s %s", limit, property, direction));
+            return Either.right(Pair.with(window.getContent(), next));
 
         } catch (Exception e) {
 
@@ -218,4 +365,85 @@ public class FileService {
 
     }
 
+    /**
+     * Order of a file listing: one of the indexed columns, ties broken by id.
+     */
+    public Either<AppError, Sort> listSort(String sort, String order) {
+
+        final String property = Objects.isNull(sort) ? "name" : sort;
+        final Optional<Sort.Direction> direction = Sort.Direction.fromOptionalString(order);
+
+        if (!SORT_PROPERTIES.contains(property) || (Objects.nonNull(order) && direction.isEmpty())) {
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        return Either.right(Sort.by(direction.orElse(Sort.Direction.ASC), property, "id"));
+    }
+
+    /**
+     * Hands every file of the owner to the sink as it is read. Rows come in keyset windows of
+     * {@link #STREAM_BATCH}, each an index seek from the last one; they are projections, not
+     * managed entities, so memory stays flat however many files there are.
+     */
+    public Either<AppError, Long> streamFiles(User owner, Sort sort, FileSink sink) {
+
+        long count = 0;
+        try {
+            Iterator<FileEntry> files = WindowIterator
+                    .of(position -> fileRepository.findByOwner(owner, position, sort, Limit.of(STREAM_BATCH)))
+                    .startingAt(ScrollPosition.keyset());
+
+            while (files.hasNext()) {
+                sink.accept(files.next());
+                count++;
+            }
+        } catch (Exception e) {
+            log.error(String.format("Error while streaming files: %d sent", count));
+            return Either.left(SERVER_ERROR);
+        }
+
+        log.info(String.format("File stream sent: %d files", count));
+        return Either.right(count);
+    }
+
+    @FunctionalInterface
+    public interface FileSink {
+        void accept(FileEntry file) throws IOException;
+    }
+
+    private static String encodeCursor(String property, Sort.Direction direction, ScrollPosition position) {
+        Map<String, Object> keys = ((KeysetScrollPosition) position).getKeys();
+        String cursor = String.join(":", property, direction.name(), keys.get("id").toString(), keys.get(property).toString());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A cursor is only valid for the sort it was issued for; the value is last because a
+     * name may contain the separator.
+     */
+    private static ScrollPosition decodeCursor(String cursor, String property, Sort.Direction direction) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 4);
+
+        if (parts.length != 4 || !parts[0].equals(property) || !parts[1].equals(direction.name())) {
+            throw new IllegalArgumentException(String.format("Cursor does not match the sort: %s", cursor));
+        }
+
+        Map<String, Object> keys = new LinkedHashMap<>();
+        keys.put(property, property.equals("name") ? parts[3] : Long.valueOf(parts[3]));
+        keys.put("id", Long.valueOf(parts[2]));
+
+        return ScrollPosition.forward(keys);
+    }
+
+    private void release(ContentBlob blob) {
+        if (Objects.isNull(blob)) {
+            return;
+        }
+        try {
+            contentService.release(blob);
+        } catch (Exception e) {
+            log.error(String.format("Content cannot be released: %s", blob));
+        }
+    }
+
 }
@@ -0,0 +1,104 @@
+package edu.diploma.service;
+
+import edu.diploma.repository.ContentBlobRepository;
+import edu.diploma.repository.UploadSessionRepository;
+import edu.diploma.storage.ChunkStore;
+import edu.diploma.storage.ContentStore;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Brings the stores in line with the database once at startup. The schema may just have been
+ * recreated ({@code ddl-auto=create-drop}), or the last run may have stopped between writing
+ * bytes and recording them, so blobs whose key no {@link edu.diploma.model.ContentBlob} holds
+ * are deleted. So are the chunks of sessions that are gone and every staged body.
+ * <p>
+ * It runs while the context starts, before the server takes requests and the scheduled tasks
+ * begin, so no upload can be between writing its bytes and recording them.
+ */
+@Component
+public class StoreReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(StoreReconciler.class);
+
+    private final ContentStore contentStore;
+
+    private final ContentBlobRepository contentBlobRepository;
+
+    private final ChunkStore chunkStore;
+
+    private final UploadSessionRepository uploadSessionRepository;
+
+    public StoreReconciler(
+            ContentStore contentStore,
+            ContentBlobRepository contentBlobRepository,
+            ChunkStore chunkStore,
+            UploadSessionRepository uploadSessionRepository
+    ) {
+        this.contentStore = contentStore;
+        this.contentBlobRepository = contentBlobRepository;
+        this.chunkStore = chunkStore;
+        this.uploadSessionRepository = uploadSessionRepository;
+    }
+
+    @PostConstruct
+    public void reconcile() {
+        reconcileContent();
+        reconcileUploads();
+    }
+
+    private void reconcileContent() {
+        int deleted = 0;
+        try (Stream<String> keys = contentStore.keys()) {
+            for (Iterator<String> it = keys.iterator(); it.hasNext(); ) {
+                String key = it.next();
+                if (contentBlobRepository.existsByStoreKey(key)) {
+                    continue;
+                }
+                try {
+                    contentStore.delete(key);
+                    deleted++;
+                } catch (Exception e) {
+                    log.error(String.format("Unrecorded content cannot be deleted: %s", key));
+                }
+            }
+        } catch (Exception e) {
+            log.error(String.format("Content store cannot be checked: %s", e.getMessage()));
+        }
+        if (deleted > 0) {
+            log.info(String.format("Unrecorded content deleted: %d blobs", deleted));
+        }
+    }
+
+    private void reconcileUploads() {
+        int directories = 0;
+        try {
+            for (String id : chunkStore.idle(Long.MAX_VALUE)) {
+                if (uploadSessionRepository.existsById(id)) {
+                    continue;
+                }
+                try {
+                    chunkStore.delete(id);
+                    directories++;
+                } catch (Exception e) {
+                    log.error(String.format("Chunks cannot be deleted: %s", id));
+                }
+            }
+
+            int staged = chunkStore.discardStaged(Long.MAX_VALUE);
+
+            if (directories > 0 || staged > 0) {
+                log.info(String.format(
+                        "Unrecorded uploads deleted: %d chunk directories, %d staged bodies", directories, staged
+                ));
+            }
+        } catch (Exception e) {
+            log.error(String.format("Upload store cannot be checked: %s", e.getMessage()));
+        }
+    }
+}
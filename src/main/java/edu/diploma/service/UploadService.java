@@ -0,0 +1,278 @@
+package edu.diploma.service;
+
+import edu.diploma.model.AppError;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.model.ContentDigest;
+import edu.diploma.model.File;
+import edu.diploma.model.UploadSession;
+import edu.diploma.model.User;
+import edu.diploma.repository.FileRepository;
+import edu.diploma.repository.UploadSessionRepository;
+import edu.diploma.storage.ChunkStore;
+import edu.diploma.storage.LimitedInputStream;
+import io.vavr.control.Either;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * Resumable uploads: a session is opened, its numbered chunks are sent in any order (and
+ * again if a transfer broke off), and the commit turns them into a regular {@link File}.
+ */
+@Service
+public class UploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadService.class);
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final FileRepository fileRepository;
+    private final ContentService contentService;
+    private final ChunkStore chunkStore;
+    private final int maxChunks;
+    private final long maxFileSize;
+
+    public UploadService(
+            UploadSessionRepository uploadSessionRepository,
+            FileRepository fileRepository,
+            ContentService contentService,
+            ChunkStore chunkStore,
+            @Value("${edu.diploma.upload.max-chunks:10000}") int maxChunks,
+            @Value("${edu.diploma.upload.max-file-size:1073741824}") long maxFileSize
+    ) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.fileRepository = fileRepository;
+        this.contentService = contentService;
+        this.chunkStore = chunkStore;
+        this.maxChunks = maxChunks;
+        this.maxFileSize = maxFileSize;
+    }
+
+
+    public Either<AppError, UploadSession> createUpload(User owner, String filename, String contentType) {
+
+        if (Objects.isNull(filename) || filename.trim().isEmpty()) {
+            log.error(String.format("Upload has no file name: %s", filename));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        try {
+            UploadSession upload = uploadSessionRepository.save(new UploadSession(
+                    owner,
+                    filename,
+                    Objects.isNull(contentType) || contentType.isBlank()
+                            ? MediaType.APPLICATION_OCTET_STREAM_VALUE : contentType,
+                    now()
+            ));
+
+            log.info(String.format("Upload started: %s, %s", upload.getId(), filename));
+            return Either.right(upload);
+        } catch (Exception e) {
+            log.error(String.format("Upload cannot be started: %s", filename));
+            return Either.left(FileService.SERVER_ERROR);
+        }
+    }
+
+
+    public Either<AppError, UploadSession> getUpload(User owner, String id) {
+
+        Optional<UploadSession> upload = find(owner, id);
+
+        if (upload.isEmpty()) {
+            log.error(String.format("No upload found: %s", id));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        try {
+            upload.get().setChunks(chunkStore.chunks(id));
+            return Either.right(upload.get());
+        } catch (Exception e) {
+            log.error(String.format("Upload chunks cannot be listed: %s", id));
+            return Either.left(FileService.SERVER_ERROR);
+        }
+    }
+
+
+    public Either<AppError, Long> putChunk(User owner, String id, Integer index, InputStream content) {
+
+        if (Objects.isNull(index) || index < 0 || index >= maxChunks || Objects.isNull(content)) {
+            log.error(String.format("Invalid chunk: %s, %d", id, index));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        // Touched before the write, so the sweeper does not take a session that is still in use
+        if (uploadSessionRepository.touch(id, owner, now()) == 0) {
+            log.error(String.format("No upload found: %s", id));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        try {
+            // The chunks of a session together may hold no more than one file; a chunk sent
+            // again replaces the one before, so that one does not count
+            long room = maxFileSize - chunkStore.size(id) + chunkStore.size(id, index);
+
+            // Chunks go straight to the staging area; nothing is kept in memory between requests.
+            long size = chunkStore.write(id, index, new LimitedInputStream(content, room));
+
+            log.info(String.format("Chunk received: %s, %d, %d bytes", id, index, size));
+            return Either.right(size);
+        } catch (LimitedInputStream.LimitExceededException e) {
+            log.error(String.format("Upload too large: %s, %d", id, index));
+            return Either.left(FileService.ERROR_TOO_LARGE);
+        } catch (Exception e) {
+            log.error(String.format("Chunk cannot be saved: %s, %d", id, index));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+    }
+
+
+    public Either<AppError, File> commitUpload(User owner, String id, Integer count) {
+        return commitUpload(owner, id, count, null);
+    }
+
+    /**
+     * Turns chunks {@code 0..count-1} into a file. They are read back to back as a single
+     * stream into the content store, so the file is hashed and written exactly once.
+     * <p>
+     * When the client sent the digest of the whole file, it is checked as for a single upload;
+     * on a mismatch the session and its chunks are kept, so a broken chunk can be sent again.
+     */
+    public Either<AppError, File> commitUpload(User owner, String id, Integer count, ContentDigest expected) {
+
+        if (Objects.isNull(count) || count < 1 || count > maxChunks) {
+            log.error(String.format("Invalid chunk count: %s, %d", id, count));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        Optional<UploadSession> upload = find(owner, id);
+
+        // Touched first: the sweeper leaves the chunks of a commit in progress alone, and a
+        // session it has just expired is not committed from chunks it is deleting
+        if (upload.isEmpty() || uploadSessionRepository.touch(id, owner, now()) == 0) {
+            log.error(String.format("No upload found: %s", id));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        // Names are unique per owner: a file saved under the name since the upload began wins
+        if (fileRepository.existsByOwnerAndName(owner, upload.get().getName())) {
+            log.error(String.format("File already exists: %s, %s", id, upload.get().getName()));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        ContentBlob blob = null;
+        try {
+            List<Integer> chunks = chunkStore.chunks(id);
+
+            if (!chunks.equals(IntStream.range(0, count).boxed().toList())) {
+                log.error(String.format("Upload is incomplete: %s, %d of %d chunks", id, chunks.size(), count));
+                return Either.left(FileService.ERROR_INPUT_DATA);
+            }
+
+            // Chunks sent at the same time may each have found room for themselves
+            if (chunkStore.size(id) > maxFileSize) {
+                log.error(String.format("Upload too large: %s", id));
+                return Either.left(FileService.ERROR_TOO_LARGE);
+            }
+
+            try (InputStream in = chunkStore.open(id, count)) {
+                blob = contentService.store(in, upload.get().getContentType());
+            }
+
+            if (Objects.nonNull(expected) && !expected.matches(blob)) {
+                log.error(String.format("Upload does not match its digest: %s", id));
+                release(blob);
+                return Either.left(FileService.ERROR_INPUT_DATA);
+            }
+
+            long now = now();
+            File file = fileRepository.save(new File(
+                    owner,
+                    upload.get().getName(),
+                    upload.get().getContentType(),
+                    now, now,
+                    blob.getSize(),
+                    blob
+            ));
+
+            uploadSessionRepository.delete(upload.get());
+            discard(id);
+
+            log.info(String.format("Upload committed: %s, %s", id, file.getName()));
+            return Either.right(file);
+        } catch (DataIntegrityViolationException e) {
+            // The same name saved by another request after the check above
+            log.error(String.format("File already exists: %s, %s", id, upload.get().getName()));
+            release(blob);
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        } catch (Exception e) {
+            log.error(String.format("Upload cannot be committed: %s", id));
+            release(blob);
+            return Either.left(FileService.SERVER_ERROR);
+        }
+    }
+
+
+    public Either<AppError, UploadSession> deleteUpload(User owner, String id) {
+
+        Optional<UploadSession> upload = find(owner, id);
+
+        if (upload.isEmpty()) {
+            log.error(String.format("No upload found: %s", id));
+            return Either.left(FileService.ERROR_INPUT_DATA);
+        }
+
+        try {
+            uploadSessionRepository.delete(upload.get());
+        } catch (Exception e) {
+            log.error(String.format("Upload cannot be aborted: %s", id));
+            return Either.left(FileService.SERVER_ERROR);
+        }
+
+        discard(id);
+
+        log.info(String.format("Upload aborted: %s", id));
+        return Either.right(upload.get());
+    }
+
+    private Optional<UploadSession> find(User owner, String id) {
+        if (Objects.isNull(id) || id.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        return uploadSessionRepository.findByIdAndOwner(id, owner);
+    }
+
+    private void discard(String id) {
+        try {
+            chunkStore.delete(id);
+        } catch (Exception e) {
+            log.error(String.format("Chunks cannot be deleted: %s", id));
+        }
+    }
+
+    private void release(ContentBlob blob) {
+        if (Objects.isNull(blob)) {
+            return;
+        }
+        try {
+            contentService.release(blob);
+        } catch (Exception e) {
+            log.error(String.format("Content cannot be released: %s", blob));
+        }
+    }
+
+    private static long now() {
+        return LocalDate.now().atTime(LocalTime.now()).atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,93 @@
+package edu.diploma.service;
+
+import edu.diploma.model.UploadSession;
+import edu.diploma.repository.UploadSessionRepository;
+import edu.diploma.storage.ChunkStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Deletes the uploads that have had no chunk and no commit for {@code edu.diploma.upload.max-age},
+ * with their chunks; a long upload that keeps sending is never taken. Chunk directories no
+ * session owns any more and staged request bodies untouched as long are deleted as well.
+ */
+@Component
+public class UploadSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadSweeper.class);
+
+    private static final int PAGE = 500;
+
+    private final UploadSessionRepository uploadSessionRepository;
+
+    private final ChunkStore chunkStore;
+
+    private final long maxAge;
+
+    public UploadSweeper(
+            UploadSessionRepository uploadSessionRepository,
+            ChunkStore chunkStore,
+            @Value("${edu.diploma.upload.max-age:86400000}") long maxAge
+    ) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.chunkStore = chunkStore;
+        this.maxAge = maxAge;
+    }
+
+    @Scheduled(
+            initialDelayString = "${edu.diploma.upload.sweep-interval:3600000}",
+            fixedDelayString = "${edu.diploma.upload.sweep-interval:3600000}"
+    )
+    public void sweep() {
+        final long before = System.currentTimeMillis() - maxAge;
+        int sessions = 0;
+        int directories = 0;
+        try {
+            List<UploadSession> page;
+            do {
+                page = uploadSessionRepository.findByLastChunkAtLessThan(before, Limit.of(PAGE));
+                for (UploadSession upload : page) {
+                    // A chunk or a commit that came in since the select keeps the session and its chunks
+                    if (uploadSessionRepository.deleteIdle(upload.getId(), before) > 0) {
+                        delete(upload.getId());
+                        sessions++;
+                    }
+                }
+            } while (page.size() == PAGE);
+
+            // Left by a session deleted while its chunks could not be
+            for (String id : chunkStore.idle(before)) {
+                if (!uploadSessionRepository.existsById(id) && delete(id)) {
+                    directories++;
+                }
+            }
+
+            int staged = chunkStore.discardStaged(before);
+
+            if (sessions > 0 || directories > 0 || staged > 0) {
+                log.info(String.format(
+                        "Expired uploads deleted: %d sessions, %d chunk directories, %d staged bodies",
+                        sessions, directories, staged
+                ));
+            }
+        } catch (Exception e) {
+            log.error(String.format("Expired uploads cannot be deleted: %s", e.getMessage()));
+        }
+    }
+
+    private boolean delete(String id) {
+        try {
+            chunkStore.delete(id);
+            return true;
+        } catch (Exception e) {
+            log.error(String.format("Chunks cannot be deleted: %s", id));
+            return false;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package edu.diploma.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Stages the chunks of resumable uploads on local disk, one directory per session
+ * ({@code root/<session>/<index>}), until the session is committed or aborted.
+ */
+@Component
+public class ChunkStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkStore.class);
+
+    private static final String STAGED = "staged";
+
+    private final Path root;
+
+    private final int bufferSize;
+
+    public ChunkStore(
+            @Value("${edu.diploma.storage.upload-path:./data/uploads}") Path root,
+            @Value("${edu.diploma.storage.buffer-size:65536}") int bufferSize
+    ) {
+        this.root = root.toAbsolutePath().normalize();
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Writes the chunk under a temporary name and moves it into place once complete, so a
+     * chunk that is cut off or sent again never leaves a partial file behind.
+     */
+    public long write(String session, int index, InputStream in) throws IOException {
+        final Path path = path(session, index);
+        final Path part = path.resolveSibling(String.format("%d.%s.part", index, UUID.randomUUID()));
+
+        Files.createDirectories(path.getParent());
+
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        long size = 0;
+
+        try (FileChannel target = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    size += target.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+
+        Files.move(part, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.debug(String.format("Chunk written: %s, %d", session, index));
+        return size;
+    }
+
+    /**
+     * Indexes of the chunks received so far, in ascending order.
+     */
+    public List<Integer> chunks(String session) throws IOException {
+        final Path dir = directory(session);
+
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.chars().allMatch(Character::isDigit))
+                    .map(Integer::valueOf)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Bytes of all chunks received so far.
+     */
+    public long size(String session) throws IOException {
+        long size = 0;
+        for (int index : chunks(session)) {
+            size += size(session, index);
+        }
+        return size;
+    }
+
+    /**
+     * Bytes of one chunk, 0 when it has not been received.
+     */
+    public long size(String session, int index) throws IOException {
+        final Path path = path(session, index);
+        return Files.isRegularFile(path) ? Files.size(path) : 0;
+    }
+
+    /**
+     * Reads chunks {@code 0..count-1} back to back as one stream. Each chunk file is opened
+     * only when the previous one is exhausted, so nothing is concatenated on disk first.
+     */
+    public InputStream open(String session, int count) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < count;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (next >= count) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return Files.newInputStream(path(session, next++));
+                } catch (IOException e) {
+                    // Surfaces on the next read, so the writer sees an IOException and cleans up
+                    return new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            throw e;
+                        }
+                    };
+                }
+            }
+        });
+    }
+
+    public void delete(String session) throws IOException {
+        final Path dir = directory(session);
+
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(dir);
+
+        log.debug(String.format("Chunks deleted: %s", session));
+    }
+
+    /**
+     * A new empty file for a body that is staged whole rather than in chunks, next to the
+     * session directories. The caller deletes it with {@link #discard(Path)}.
+     */
+    public Path stage() throws IOException {
+        final Path dir = root.resolve(STAGED);
+        Files.createDirectories(dir);
+        return Files.createTempFile(dir, "body-", ".part");
+    }
+
+    public void discard(Path staged) throws IOException {
+        Files.deleteIfExists(staged);
+    }
+
+    /**
+     * Sessions whose directory has not changed since the given time (epoch millis); every chunk
+     * that arrives touches the directory of its session.
+     */
+    public List<String> idle(long before) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> dirs = Files.list(root)) {
+            return dirs.filter(Files::isDirectory)
+                    .filter(dir -> !STAGED.equals(dir.getFileName().toString()))
+                    .filter(dir -> lastModified(dir) < before)
+                    .map(dir -> dir.getFileName().toString())
+                    .toList();
+        }
+    }
+
+    /**
+     * Deletes the staged bodies older than the given time, left by uploads that never finished.
+     */
+    public int discardStaged(long before) throws IOException {
+        final Path dir = root.resolve(STAGED);
+
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+
+        int deleted = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(file -> lastModified(file) < before).toList()) {
+                if (Files.deleteIfExists(file)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    Path path(String session, int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException(String.format("Invalid chunk index: %d", index));
+        }
+        return directory(session).resolve(Integer.toString(index));
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            // Gone already, or not readable: not for the caller to delete
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private Path directory(String session) {
+        if (session == null || session.isEmpty()
+                || !session.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '-')) {
+            throw new IllegalArgumentException(String.format("Invalid upload session: %s", session));
+        }
+        return root.resolve(session);
+    }
+}
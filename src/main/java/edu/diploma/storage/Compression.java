@@ -0,0 +1,98 @@
+package edu.diploma.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+/**
+ * Which uploads are stored deflated. The content type has to be one of the configured ones,
+ * and the first bytes of the upload have to shrink by at least the configured ratio when
+ * deflated, so already compressed data labelled as text is stored as it is.
+ * <p>
+ * The stored form is zlib ("deflate" in HTTP), so it can be sent as it is to clients that
+ * accept that Content-Encoding.
+ */
+@Component
+public class Compression {
+
+    public static final String DEFLATE = "deflate";
+
+    private final List<MediaType> types;
+
+    private final double maxRatio;
+
+    private final int level;
+
+    private final int sampleSize;
+
+    public Compression(
+            @Value("${edu.diploma.storage.compression.types:}") List<MediaType> types,
+            @Value("${edu.diploma.storage.compression.max-ratio:0.9}") double maxRatio,
+            @Value("${edu.diploma.storage.compression.level:6}") int level,
+            @Value("${edu.diploma.storage.compression.sample-size:65536}") int sampleSize
+    ) {
+        this.types = types;
+        this.maxRatio = maxRatio;
+        this.level = level;
+        this.sampleSize = sampleSize;
+    }
+
+    public boolean appliesTo(String contentType) {
+        if (Objects.isNull(contentType) || types.isEmpty()) {
+            return false;
+        }
+        try {
+            MediaType type = MediaType.parseMediaType(contentType);
+            return types.stream().anyMatch(t -> t.includes(type));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deflates the sample and compares the sizes; an empty sample is not worth it.
+     */
+    public boolean isWorthIt(byte[] sample) {
+        if (sample.length == 0) {
+            return false;
+        }
+
+        Deflater deflater = deflater();
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+
+            byte[] out = new byte[sample.length];
+            long limit = (long) (sample.length * maxRatio);
+
+            while (!deflater.finished()) {
+                deflater.deflate(out);
+                if (deflater.getBytesWritten() > limit) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * A new deflater at the configured level; the caller ends it.
+     */
+    public Deflater deflater() {
+        return new Deflater(level);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+}
@@ -0,0 +1,33 @@
+package edu.diploma.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend for file bytes. Metadata stays in {@link edu.diploma.model.File},
+ * which only keeps the key returned by {@link #write(InputStream)}.
+ */
+public interface ContentStore {
+
+    /**
+     * Copies the stream into the store and returns the key of the new blob.
+     * The stream is consumed but not closed.
+     */
+    String write(InputStream in) throws IOException;
+
+    /**
+     * Returns a resource that opens the blob lazily, so nothing is read until the bytes are sent.
+     */
+    Resource read(String key) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    /**
+     * Keys of every blob in the store, so blobs no metadata points to can be found. The caller
+     * closes the stream.
+     */
+    Stream<String> keys() throws IOException;
+}
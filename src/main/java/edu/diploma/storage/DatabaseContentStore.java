@@ -0,0 +1,169 @@
+package edu.diploma.storage;
+
+import edu.diploma.model.FileContent;
+import edu.diploma.repository.FileContentRepository;
+import org.hibernate.engine.jdbc.BlobProxy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Keeps blobs as LOBs in the {@link FileContent} table, next to the metadata.
+ * Enabled with {@code edu.diploma.storage.type=database}.
+ * <p>
+ * A LOB can only be read while its connection is held, but Hibernate hands the connection back
+ * to the pool after every transaction, long before a download or a zip is written. So a blob is
+ * read on a connection of its own, taken when the stream is opened and returned when it is
+ * closed.
+ */
+@Component
+@ConditionalOnProperty(name = "edu.diploma.storage.type", havingValue = "database")
+public class DatabaseContentStore implements ContentStore {
+
+    private static final String SELECT_LENGTH = "select octet_length(content) from file_content where id = ?";
+
+    private static final String SELECT_CONTENT = "select content from file_content where id = ?";
+
+    private final FileContentRepository fileContentRepository;
+    private final DataSource dataSource;
+
+    public DatabaseContentStore(FileContentRepository fileContentRepository, DataSource dataSource) {
+        this.fileContentRepository = fileContentRepository;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public String write(InputStream in) throws IOException {
+        return fileContentRepository.save(new FileContent(BlobProxy.generateProxy(in, -1))).getId().toString();
+    }
+
+    @Override
+    public Resource read(String key) throws IOException {
+        final long id = Long.parseLong(key);
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_LENGTH)) {
+            statement.setLong(1, id);
+            try (ResultSet row = statement.executeQuery()) {
+                if (!row.next()) {
+                    throw new FileNotFoundException(String.format("No blob: %s", key));
+                }
+                return new BlobResource(dataSource, id, row.getLong(1));
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        fileContentRepository.deleteById(Long.valueOf(key));
+    }
+
+    @Override
+    public Stream<String> keys() {
+        return fileContentRepository.findAllIds().stream().map(String::valueOf);
+    }
+
+    private static class BlobResource extends AbstractResource {
+
+        private final DataSource dataSource;
+
+        private final long id;
+
+        private final long length;
+
+        BlobResource(DataSource dataSource, long id, long length) {
+            this.dataSource = dataSource;
+            this.id = id;
+            this.length = length;
+        }
+
+        /**
+         * The connection stays out of the pool, inside a read-only transaction, until the
+         * stream is closed.
+         */
+        @Override
+        public InputStream getInputStream() throws IOException {
+            Connection connection = null;
+            try {
+                connection = dataSource.getConnection();
+                connection.setAutoCommit(false);
+                PreparedStatement statement = connection.prepareStatement(SELECT_CONTENT);
+                statement.setLong(1, id);
+                ResultSet row = statement.executeQuery();
+                if (!row.next()) {
+                    throw new FileNotFoundException(String.format("No blob: %d", id));
+                }
+                return new LobInputStream(row.getBlob(1).getBinaryStream(), connection);
+            } catch (SQLException | IOException e) {
+                close(connection);
+                throw e instanceof IOException io ? io : new IOException(e);
+            }
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("Database blob [%d]", id);
+        }
+    }
+
+    private static class LobInputStream extends FilterInputStream {
+
+        private final Connection connection;
+
+        private boolean closed;
+
+        LobInputStream(InputStream in, Connection connection) {
+            super(in);
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                DatabaseContentStore.close(connection);
+            }
+        }
+    }
+
+    private static void close(Connection connection) {
+        if (Objects.isNull(connection)) {
+            return;
+        }
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            // The connection is closed below in any case
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Nothing left to release
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package edu.diploma.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Keeps every blob in its own file under a two-level directory tree
+ * ({@code root/ab/cd/abcd...}) so that no single directory grows too large.
+ */
+@Component
+@ConditionalOnProperty(name = "edu.diploma.storage.type", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemContentStore implements ContentStore {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSystemContentStore.class);
+
+    private final Path root;
+
+    private final int bufferSize;
+
+    public FileSystemContentStore(
+            @Value("${edu.diploma.storage.path:./data/content}") Path root,
+            @Value("${edu.diploma.storage.buffer-size:65536}") int bufferSize
+    ) {
+        this.root = root.toAbsolutePath().normalize();
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public String write(InputStream in) throws IOException {
+        final String key = UUID.randomUUID().toString().replace("-", "");
+        final Path path = path(key);
+
+        Files.createDirectories(path.getParent());
+
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+
+        try (FileChannel target = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        log.debug(String.format("Blob written: %s", key));
+        return key;
+    }
+
+    @Override
+    public Resource read(String key) throws IOException {
+        final Path path = path(key);
+
+        if (!Files.isRegularFile(path)) {
+            throw new FileNotFoundException(String.format("No blob: %s", key));
+        }
+
+        return new FileSystemResource(path);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(path(key));
+        log.debug(String.format("Blob deleted: %s", key));
+    }
+
+    @Override
+    public Stream<String> keys() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return Stream.empty();
+        }
+        return Files.walk(root, 3)
+                .filter(Files::isRegularFile)
+                .filter(this::isBlob)
+                .map(path -> path.getFileName().toString());
+    }
+
+    Path path(String key) {
+        if (key == null || key.length() < 4 || !key.chars().allMatch(Character::isLetterOrDigit)) {
+            throw new IllegalArgumentException(String.format("Invalid blob key: %s", key));
+        }
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    // Anything else under the root was not written by the store and is left alone
+    private boolean isBlob(Path path) {
+        try {
+            return path.equals(path(path.getFileName().toString()));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package edu.diploma.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Passes on at most {@code limit} bytes. A stream that goes on past them fails with
+ * {@link LimitExceededException} rather than ending there, so a body that is too large is
+ * never taken for a shorter one.
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private final long limit;
+
+    public LimitedInputStream(InputStream in, long limit) {
+        super(in);
+        this.remaining = Math.max(limit, 0);
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0 && remaining-- <= 0) {
+            throw new LimitExceededException(limit);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining <= 0) {
+            // One byte more than allowed is enough to tell: this is either the end or a failure
+            return read();
+        }
+        int read = super.read(b, off, (int) Math.min(len, remaining));
+        if (read > 0) {
+            remaining -= read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public static class LimitExceededException extends IOException {
+
+        public LimitExceededException(long limit) {
+            super(String.format("More than %d bytes", limit));
+        }
+    }
+}
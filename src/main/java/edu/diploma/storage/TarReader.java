@@ -0,0 +1,201 @@
+package edu.diploma.storage;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Reads the regular files of a tar stream one after the other, without buffering them: each
+ * entry's content is a view of the stream that ends with the entry. Understands ustar, the pax
+ * {@code path} record and GNU long names; directories, links and other entries are skipped.
+ */
+public class TarReader {
+
+    private static final int BLOCK = 512;
+
+    private final InputStream in;
+
+    private final byte[] header = new byte[BLOCK];
+
+    private Content current;
+
+    public TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    public record Entry(String name, long size, InputStream content) {
+    }
+
+    /**
+     * The next regular file, or {@code null} at the end of the archive. Whatever was left of the
+     * previous entry's content is skipped.
+     */
+    public Entry next() throws IOException {
+
+        String longName = null;
+
+        while (true) {
+            skipRest();
+
+            if (!readBlock()) {
+                return null;
+            }
+
+            final long size = size();
+            final byte type = header[156];
+
+            if (type == 'x' || type == 'L') {
+                String value = new String(readAll(size), StandardCharsets.UTF_8);
+                longName = type == 'L' ? trimNul(value) : paxPath(value, longName);
+                continue;
+            }
+
+            if (type != '0' && type != 0) {
+                // A long name belongs to the entry right after it, even one that is skipped
+                longName = null;
+                current = new Content(in, size);
+                continue;
+            }
+
+            current = new Content(in, size);
+            return new Entry(Objects.requireNonNullElseGet(longName, this::name), size, current);
+        }
+    }
+
+    private boolean readBlock() throws IOException {
+        if (in.readNBytes(header, 0, BLOCK) < BLOCK) {
+            throw new EOFException("Truncated tar header");
+        }
+        for (byte b : header) {
+            if (b != 0) {
+                return true;
+            }
+        }
+        // A zero block marks the end of the archive
+        return false;
+    }
+
+    private void skipRest() throws IOException {
+        if (Objects.nonNull(current)) {
+            current.skipToEnd();
+            current = null;
+        }
+    }
+
+    private byte[] readAll(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - BLOCK) {
+            throw new IOException(String.format("Tar extension header too large: %d", size));
+        }
+        current = new Content(in, size);
+        return current.readAllBytes();
+    }
+
+    private String name() {
+        String name = field(0, 100);
+        if (new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar")) {
+            String prefix = field(345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private long size() throws IOException {
+        String octal = field(124, 12).trim();
+        try {
+            return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Invalid tar entry size: %s", octal));
+        }
+    }
+
+    private String field(int offset, int length) {
+        return trimNul(new String(header, offset, length, StandardCharsets.UTF_8));
+    }
+
+    private static String trimNul(String value) {
+        int end = value.indexOf(0);
+        return end < 0 ? value : value.substring(0, end);
+    }
+
+    /**
+     * Pax records are {@code "<length> <key>=<value>\n"}; only the path is of interest.
+     */
+    private static String paxPath(String records, String previous) {
+        String path = previous;
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                path = record.substring(space + 1 + "path=".length());
+            }
+        }
+        return path;
+    }
+
+    /**
+     * The content of one entry; closing it does not close the archive.
+     */
+    private static class Content extends FilterInputStream {
+
+        private long remaining;
+
+        private final long padding;
+
+        Content(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+            this.padding = (BLOCK - size % BLOCK) % BLOCK;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(Math.max(n, 0), remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        void skipToEnd() throws IOException {
+            in.skipNBytes(remaining + padding);
+            remaining = 0;
+        }
+    }
+}
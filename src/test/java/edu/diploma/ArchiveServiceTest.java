@@ -0,0 +1,127 @@
+package edu.diploma;
+
+import edu.diploma.model.AppError;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.model.File;
+import edu.diploma.model.User;
+import edu.diploma.repository.FileRepository;
+import edu.diploma.service.ArchiveService;
+import edu.diploma.service.ContentService;
+import edu.diploma.storage.Compression;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+public class ArchiveServiceTest {
+
+    private final User owner = new User(1L, "test", "test");
+
+    private final byte[] text = "Lorem ipsum dolor sit amet. ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+    private final ContentBlob textBlob = new ContentBlob("text", "text0key", text.length);
+
+    private final ContentBlob imageBlob = new ContentBlob("image", "image0key", text.length);
+
+    private final File textFile = new File(owner, "notes.txt", "text/plain", 1, 1, text.length, textBlob);
+
+    private final File imageFile = new File(owner, "photo.jpg", "image/jpeg", 1, 1, text.length, imageBlob);
+
+    private FileRepository fileRepository;
+    private ContentService contentService;
+
+    private ArchiveService archiveService;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        fileRepository = mock(FileRepository.class);
+        contentService = mock(ContentService.class);
+        when(contentService.open(textBlob)).thenReturn(new ByteArrayResource(text));
+        when(contentService.open(imageBlob)).thenReturn(new ByteArrayResource(text));
+
+        archiveService = new ArchiveService(
+                fileRepository, contentService, new Compression(List.of(MediaType.parseMediaType("text/*")), 0.9, 6, 4096), 2
+        );
+    }
+
+    @Test
+    public void testFindFilesKeepsTheRequestedOrder() {
+
+        when(fileRepository.findByOwnerAndNameIn(owner, List.of("photo.jpg", "notes.txt")))
+                .thenReturn(List.of(textFile, imageFile));
+
+        Either<AppError, List<File>> files = archiveService.findFiles(owner, List.of("photo.jpg", "notes.txt", "photo.jpg"), null);
+
+        assertThat(files.get(), is(List.of(imageFile, textFile)));
+    }
+
+    @Test
+    public void testFindFiles400WhenAFileIsMissingOrNothingIsAsked() {
+
+        when(fileRepository.findByOwnerAndNameIn(owner, List.of("notes.txt", "gone.txt"))).thenReturn(List.of(textFile));
+
+        assertThat(archiveService.findFiles(owner, List.of("notes.txt", "gone.txt"), null).getLeft().getCode(), is(400));
+        assertThat(archiveService.findFiles(owner, null, null).getLeft().getCode(), is(400));
+    }
+
+    @Test
+    public void testWriteDeflatesOnlyCompressibleTypes() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archiveService.write(List.of(textFile, imageFile), out);
+
+        Path zip = Files.write(Files.createTempFile("archive", ".zip"), out.toByteArray());
+        try {
+            try (ZipFile archive = new ZipFile(zip.toFile())) {
+                ZipEntry notes = archive.getEntry("notes.txt");
+                ZipEntry photo = archive.getEntry("photo.jpg");
+
+                assertThat(notes.getCompressedSize(), lessThan((long) text.length / 10));
+                assertThat(photo.getCompressedSize(), greaterThan((long) text.length));
+                try (InputStream in = archive.getInputStream(photo)) {
+                    assertThat(in.readAllBytes(), is(text));
+                }
+            }
+        } finally {
+            Files.delete(zip);
+        }
+    }
+
+    @Test
+    public void testWriteLeavesNoCentralDirectoryWhenContentFails() throws Exception {
+
+        Resource broken = mock(Resource.class);
+        when(broken.getInputStream()).thenThrow(new IOException("Blob is gone"));
+        when(contentService.open(imageBlob)).thenReturn(broken);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> archiveService.write(List.of(textFile, imageFile), out));
+
+        // The first entry is there, but not the end of central directory record
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertThat(zip.getNextEntry().getName(), is("notes.txt"));
+        }
+        assertThat(out.toString(StandardCharsets.ISO_8859_1).contains("PK\u0005\u0006"), is(false));
+    }
+}
@@ -11,12 +11,15 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import org.springframework.data.domain.*;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.MatcherAssert.*;
@@ -43,11 +46,11 @@ public class AuthControllerTest {
         LoginErrors errors = new LoginErrors().addEmailMsg(msg);
 
         authService = mock(AuthService.class);
-        when(authService.login(creds)).thenReturn(Either.left(errors));
+        when(authService.login(creds)).thenReturn(CompletableFuture.completedFuture(Either.left(errors)));
 
         authController = new AuthController(authService);
 
-        ResponseEntity<?> response = authController.postLogin(creds);
+        ResponseEntity<?> response = authController.postLogin(creds).join();
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
         assertThat(((LoginErrors) response.getBody() ).getEmail().size(), is(1) );
@@ -68,11 +71,11 @@ public class AuthControllerTest {
         LoginErrors errors = new LoginErrors().addEmailMsg(msg);
 
         authService = mock(AuthService.class);
-        when(authService.login(creds)).thenReturn(Either.left(errors));
+        when(authService.login(creds)).thenReturn(CompletableFuture.completedFuture(Either.left(errors)));
 
         authController = new AuthController(authService);
 
-        ResponseEntity<?> response = authController.postLogin(creds);
+        ResponseEntity<?> response = authController.postLogin(creds).join();
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
         assertThat(((LoginErrors) response.getBody() ).getEmail().size(), is(1) );
@@ -92,11 +95,11 @@ public class AuthControllerTest {
         LoginErrors errors = new LoginErrors().addEmailMsg(msg);
 
         authService = mock(AuthService.class);
-        when(authService.login(creds)).thenReturn(Either.left(errors));
+        when(authService.login(creds)).thenReturn(CompletableFuture.completedFuture(Either.left(errors)));
 
         authController = new AuthController(authService);
 
-        ResponseEntity<?> response = authController.postLogin(creds);
+        ResponseEntity<?> response = authController.postLogin(creds).join();
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
         assertThat(((LoginErrors) response.getBody() ).getEmail().size(), is(1) );
@@ -116,11 +119,11 @@ public class AuthControllerTest {
         LoginErrors errors = new LoginErrors().addPasswordMsg(msg);
 
         authService = mock(AuthService.class);
-        when(authService.login(creds)).thenReturn(Either.left(errors));
+        when(authService.login(creds)).thenReturn(CompletableFuture.completedFuture(Either.left(errors)));
 
         authController = new AuthController(authService);
 
-        ResponseEntity<?> response = authController.postLogin(creds);
+        ResponseEntity<?> response = authController.postLogin(creds).join();
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
         assertThat(((LoginErrors) response.getBody() ).getPassword().size(), is(1) );
@@ -140,11 +143,11 @@ public class AuthControllerTest {
         LoginErrors errors = new LoginErrors().addEmailMsg(msg);
 
         authService = mock(AuthService.class);
-        when(authService.login(creds)).thenReturn(Either.left(errors));
+        when(authService.login(creds)).thenReturn(CompletableFuture.completedFuture(Either.left(errors)));
 
         authController = new AuthController(authService);
 
-        ResponseEntity<?> response = authController.postLogin(creds);
+        ResponseEntity<?> response = authController.postLogin(creds).join();
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
         assertThat(((LoginErrors) response.getBody() ).getEmail().size(), is(1) );
@@ -164,11 +167,11 @@ public class AuthControllerTest {
         LoginErrors errors = new LoginErrors().addPasswordMsg(msg);
 
         authService = mock(AuthService.class);
-        when(authService.login(creds)).thenReturn(Either.left(errors));
+        when(authService.login(creds)).thenReturn(CompletableFuture.completedFuture(Either.left(errors)));
 
         authController = new AuthController(authService);
 
-        ResponseEntity<?> response = authController.postLogin(creds);
+        ResponseEntity<?> response = authController.postLogin(creds).join();
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
         assertThat(((LoginErrors) response.getBody() ).getPassword().size(), is(1) );
@@ -190,13 +193,29 @@ public class AuthControllerTest {
 
         Login login = new Login(token);
         authService = mock(AuthService.class);
-        when(authService.login(creds)).thenReturn(Either.right(login));
+        when(authService.login(creds)).thenReturn(CompletableFuture.completedFuture(Either.right(login)));
 
         authController = new AuthController(authService);
 
-        ResponseEntity<?> response = authController.postLogin(creds);
+        ResponseEntity<?> response = authController.postLogin(creds).join();
 
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
         assertThat(((Login) response.getBody() ).getToken(), is(token) );
     }
+
+    @Test
+    public void testPostLogin503WhenHashingPoolIsFull() {
+        UserCreds creds = new UserCreds("user1","123pwd");
+
+        authService = mock(AuthService.class);
+        when(authService.login(creds)).thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("full")));
+
+        authController = new AuthController(authService);
+
+        ResponseEntity<?> response = authController.postLogin(creds).join();
+
+        assertThat(response.getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER), is("1"));
+        assertThat(((AppError) response.getBody()).getCode(), is(503));
+    }
 }
@@ -1,25 +1,42 @@
 package edu.diploma;
 
+import edu.diploma.auth.AuthUserDetailsService;
 import edu.diploma.auth.JwtHelper;
+import edu.diploma.auth.PasswordHasher;
+import edu.diploma.auth.StatelessTokens;
+import edu.diploma.auth.TokenDenylist;
+import edu.diploma.auth.TokenRegistry;
 import edu.diploma.auth.UserCreds;
+import edu.diploma.auth.UserDetailsCache;
+import edu.diploma.model.AppError;
+import edu.diploma.model.AuthSession;
 import edu.diploma.model.Login;
 import edu.diploma.model.LoginErrors;
 import edu.diploma.model.User;
+import edu.diploma.repository.AuthSessionRepository;
 import edu.diploma.repository.UserRepository;
 import edu.diploma.service.AuthService;
+import io.jsonwebtoken.Claims;
 import io.vavr.control.Either;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.springframework.data.domain.Example;
+import org.mockito.ArgumentCaptor;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
+import java.time.Clock;
+import java.util.Date;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class AuthServiceTest {
@@ -27,12 +44,17 @@ public class AuthServiceTest {
     private JwtHelper jwtHelper;
     private UserRepository userRepository;
     private BCryptPasswordEncoder passwordEncoder;
+    private TokenRegistry tokenRegistry;
+    private AuthSessionRepository authSessionRepository;
+    private StatelessTokens statelessTokens;
+    private UserDetailsCache userDetailsCache;
 
     private AuthService authService;
 
     @BeforeEach
     public void setUp() {
-
+        statelessTokens = mock(StatelessTokens.class);
+        userDetailsCache = new UserDetailsCache(60_000, 100, Clock.systemUTC());
     }
 
     @Test
@@ -40,9 +62,9 @@ public class AuthServiceTest {
 
         UserCreds creds = null;
 
-        authService = new AuthService(jwtHelper,userRepository,passwordEncoder);
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
 
-        Either<LoginErrors,Login> result = authService.login(creds);
+        Either<LoginErrors,Login> result = authService.login(creds).join();
 
         assertThat(result.isLeft(), is(true));
         assertThat(result.getLeft().getEmail().size(), is(1) );
@@ -59,9 +81,9 @@ public class AuthServiceTest {
 
         UserCreds creds = new UserCreds(username,password);
 
-        authService = new AuthService(jwtHelper,userRepository,passwordEncoder);
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
 
-        Either<LoginErrors,Login> result = authService.login(creds);
+        Either<LoginErrors,Login> result = authService.login(creds).join();
 
         assertThat(result.isLeft(), is(true));
         assertThat(result.getLeft().getEmail().size(), is(1) );
@@ -77,9 +99,9 @@ public class AuthServiceTest {
         final String password = "123pwd";
         UserCreds creds = new UserCreds(username,password);
 
-        authService = new AuthService(jwtHelper,userRepository,passwordEncoder);
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
 
-        Either<LoginErrors,Login> result = authService.login(creds);
+        Either<LoginErrors,Login> result = authService.login(creds).join();
 
         assertThat(result.isLeft(), is(true));
         assertThat(result.getLeft().getEmail().size(), is(1) );
@@ -95,9 +117,9 @@ public class AuthServiceTest {
         final String password = " \t \n ";
         UserCreds creds = new UserCreds(username,password);
 
-        authService = new AuthService(jwtHelper,userRepository,passwordEncoder);
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
 
-        Either<LoginErrors,Login> response = authService.login(creds);
+        Either<LoginErrors,Login> response = authService.login(creds).join();
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getPassword().size(), is(1) );
@@ -113,9 +135,9 @@ public class AuthServiceTest {
         final String password = null;
         UserCreds creds = new UserCreds(username,password);
 
-        authService = new AuthService(jwtHelper,userRepository,passwordEncoder);
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
 
-        Either<LoginErrors,Login> result = authService.login(creds);
+        Either<LoginErrors,Login> result = authService.login(creds).join();
 
         assertThat(result.isLeft(), is(true));
         assertThat(result.getLeft().getPassword().size(), is(1) );
@@ -132,11 +154,11 @@ public class AuthServiceTest {
         UserCreds creds = new UserCreds(username,password);
 
         userRepository = mock(UserRepository.class);
-        when(userRepository.findOne(any(Example.class))).thenReturn(Optional.empty());
+        when(userRepository.findByUsername(username)).thenReturn(Optional.empty());
 
-        authService = new AuthService(jwtHelper,userRepository,passwordEncoder);
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
 
-        Either<LoginErrors,Login> result = authService.login(creds);
+        Either<LoginErrors,Login> result = authService.login(creds).join();
 
         assertThat(result.isLeft(), is(true));
         assertThat(result.getLeft().getEmail().size(), is(1) );
@@ -160,11 +182,11 @@ public class AuthServiceTest {
         when(passwordEncoder.matches(password, user.getPassword())).thenReturn(false);
 
         userRepository = mock(UserRepository.class);
-        when(userRepository.findOne(any(Example.class))).thenReturn(Optional.of(user));
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
 
-        authService = new AuthService(jwtHelper,userRepository,passwordEncoder);
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
 
-        Either<LoginErrors,Login> result = authService.login(creds);
+        Either<LoginErrors,Login> result = authService.login(creds).join();
 
         assertThat(result.isLeft(), is(true));
         assertThat(result.getLeft().getPassword().size(), is(1) );
@@ -184,21 +206,274 @@ public class AuthServiceTest {
 
         final User user = new User(1L,username, password);
 
+        final Claims claims = mock(Claims.class);
+        when(claims.getExpiration()).thenReturn(new Date());
+
         jwtHelper = mock(JwtHelper.class);
         when(jwtHelper.createToken(Map.ofEntries(),username)).thenReturn(token);
+        when(jwtHelper.verify(token)).thenReturn(Optional.of(claims));
 
         passwordEncoder = mock(BCryptPasswordEncoder.class);
         when(passwordEncoder.matches(password, user.getPassword())).thenReturn(true);
 
         userRepository = mock(UserRepository.class);
-        when(userRepository.findOne(any(Example.class))).thenReturn(Optional.of(user));
-        when(userRepository.save(user)).thenReturn(new User(username,password,token));
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+
+        authSessionRepository = mock(AuthSessionRepository.class);
+        tokenRegistry = mock(TokenRegistry.class);
 
-        authService = new AuthService(jwtHelper,userRepository,passwordEncoder);
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
 
-        Either<LoginErrors,Login> result = authService.login(creds);
+        Either<LoginErrors,Login> result = authService.login(creds).join();
 
         assertThat(result.isRight(), is(true));
         assertThat(result.get().getToken(), is(token) );
+        verify(authSessionRepository).save(any(AuthSession.class));
+        verify(userRepository, never()).save(any());
+    }
+
+    @Test
+    public void testUserIsLoadedOnceForTwoLogins() {
+        final String username = "user1";
+        final String password = "123pwd";
+        UserCreds creds = new UserCreds(username,password);
+
+        final String token = "abcd1212x.zLKL.t789Bgre";
+
+        final User user = new User(1L,username, password);
+
+        final Claims claims = mock(Claims.class);
+        when(claims.getExpiration()).thenReturn(new Date());
+
+        jwtHelper = mock(JwtHelper.class);
+        when(jwtHelper.createToken(Map.ofEntries(),username)).thenReturn(token);
+        when(jwtHelper.verify(token)).thenReturn(Optional.of(claims));
+
+        passwordEncoder = mock(BCryptPasswordEncoder.class);
+        when(passwordEncoder.matches(password, user.getPassword())).thenReturn(true);
+
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+
+        authSessionRepository = mock(AuthSessionRepository.class);
+        tokenRegistry = mock(TokenRegistry.class);
+
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
+
+        assertThat(authService.login(creds).join().isRight(), is(true));
+        assertThat(authService.login(creds).join().isRight(), is(true));
+
+        verify(userRepository, times(1)).findByUsername(username);
+    }
+
+    @Test
+    public void testLoginStoresOnlyTokenHash() {
+        final String username = "user1";
+        final String password = "123pwd";
+        UserCreds creds = new UserCreds(username,password);
+
+        final String token = "abcd1212x.zLKL.t789Bgre";
+        final Claims claims = mock(Claims.class);
+        when(claims.getExpiration()).thenReturn(new Date(1234L));
+
+        final User user = new User(1L,username, password);
+
+        jwtHelper = mock(JwtHelper.class);
+        when(jwtHelper.createToken(Map.ofEntries(),username)).thenReturn(token);
+        when(jwtHelper.verify(token)).thenReturn(Optional.of(claims));
+
+        passwordEncoder = mock(BCryptPasswordEncoder.class);
+        when(passwordEncoder.matches(password, user.getPassword())).thenReturn(true);
+
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+
+        authSessionRepository = mock(AuthSessionRepository.class);
+        tokenRegistry = mock(TokenRegistry.class);
+
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
+        authService.login(creds).join();
+
+        ArgumentCaptor<AuthSession> session = ArgumentCaptor.forClass(AuthSession.class);
+        verify(authSessionRepository).save(session.capture());
+
+        assertThat(session.getValue().getUser(), is(user));
+        assertThat(session.getValue().getTokenHash(), is(AuthSession.hash(token)));
+        assertThat(session.getValue().getTokenHash().equals(token), is(false));
+        assertThat(session.getValue().getExpiresAt(), is(1234L));
+    }
+
+    @Test
+    public void testLoginRegistersToken() {
+        final String username = "user1";
+        final String password = "123pwd";
+        UserCreds creds = new UserCreds(username,password);
+
+        final String token = "abcd1212x.zLKL.t789Bgre";
+        final Claims claims = mock(Claims.class);
+
+        final User user = new User(1L,username, password);
+
+        jwtHelper = mock(JwtHelper.class);
+        when(jwtHelper.createToken(Map.ofEntries(),username)).thenReturn(token);
+        when(jwtHelper.verify(token)).thenReturn(Optional.of(claims));
+        when(claims.getExpiration()).thenReturn(new Date());
+
+        passwordEncoder = mock(BCryptPasswordEncoder.class);
+        when(passwordEncoder.matches(password, user.getPassword())).thenReturn(true);
+
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+
+        authSessionRepository = mock(AuthSessionRepository.class);
+        tokenRegistry = mock(TokenRegistry.class);
+
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
+
+        Either<LoginErrors,Login> result = authService.login(creds).join();
+
+        assertThat(result.isRight(), is(true));
+        verify(tokenRegistry).register(claims, user);
+    }
+
+    @Test
+    public void testLoginRehashesOlderCost() {
+        final String username = "user1";
+        final String password = "123pwd";
+        UserCreds creds = new UserCreds(username,password);
+
+        final String token = "abcd1212x.zLKL.t789Bgre";
+        final Claims claims = mock(Claims.class);
+        when(claims.getExpiration()).thenReturn(new Date());
+
+        final User user = new User(1L,username, "$2a$04$abcdefghijklmnopqrstuuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ01");
+
+        jwtHelper = mock(JwtHelper.class);
+        when(jwtHelper.createToken(Map.ofEntries(),username)).thenReturn(token);
+        when(jwtHelper.verify(token)).thenReturn(Optional.of(claims));
+
+        passwordEncoder = mock(BCryptPasswordEncoder.class);
+        when(passwordEncoder.matches(password, user.getPassword())).thenReturn(true);
+        when(passwordEncoder.encode(password)).thenReturn("$2a$10$rehashed");
+
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+
+        authSessionRepository = mock(AuthSessionRepository.class);
+        tokenRegistry = mock(TokenRegistry.class);
+
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
+
+        when(userRepository.save(any(User.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Either<LoginErrors,Login> result = authService.login(creds).join();
+
+        assertThat(result.isRight(), is(true));
+        ArgumentCaptor<User> saved = ArgumentCaptor.forClass(User.class);
+        verify(userRepository).save(saved.capture());
+        assertThat(saved.getValue().getPassword(), is("$2a$10$rehashed"));
+        // The user other requests share is left alone; the cache now holds the saved copy
+        assertThat(user.getPassword(), is("$2a$04$abcdefghijklmnopqrstuuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ01"));
+        assertThat(userDetailsCache.get(username).get().getPassword(), is("$2a$10$rehashed"));
+    }
+
+    @Test
+    public void testLoginKeepsCachedUserWhenRehashNotSaved() {
+        final String username = "user1";
+        final String password = "123pwd";
+        UserCreds creds = new UserCreds(username,password);
+
+        final String token = "abcd1212x.zLKL.t789Bgre";
+        final Claims claims = mock(Claims.class);
+        when(claims.getExpiration()).thenReturn(new Date());
+
+        final String hash = "$2a$04$abcdefghijklmnopqrstuuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ01";
+        final User user = new User(1L,username, hash);
+
+        jwtHelper = mock(JwtHelper.class);
+        when(jwtHelper.createToken(Map.ofEntries(),username)).thenReturn(token);
+        when(jwtHelper.verify(token)).thenReturn(Optional.of(claims));
+
+        passwordEncoder = mock(BCryptPasswordEncoder.class);
+        when(passwordEncoder.matches(password, hash)).thenReturn(true);
+        when(passwordEncoder.encode(password)).thenReturn("$2a$10$rehashed");
+
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+        when(userRepository.save(any(User.class))).thenThrow(new RuntimeException("Database is gone"));
+
+        authSessionRepository = mock(AuthSessionRepository.class);
+        tokenRegistry = mock(TokenRegistry.class);
+
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
+
+        Either<LoginErrors,Login> result = authService.login(creds).join();
+
+        // The login still goes through with the old hash, which is what the database has
+        assertThat(result.isRight(), is(true));
+        assertThat(userDetailsCache.get(username).get().getPassword(), is(hash));
+    }
+
+    @Test
+    public void testLoginRejectedWhenPoolIsFull() {
+        final String username = "user1";
+        final String password = "123pwd";
+        UserCreds creds = new UserCreds(username,password);
+
+        final User user = new User(1L,username, password);
+
+        passwordEncoder = mock(BCryptPasswordEncoder.class);
+
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+
+        authSessionRepository = mock(AuthSessionRepository.class);
+        tokenRegistry = mock(TokenRegistry.class);
+
+        PasswordHasher full = new PasswordHasher(passwordEncoder, 10, task -> {
+            throw new RejectedExecutionException("full");
+        });
+        authService = new AuthService(jwtHelper,userRepository,full,tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
+
+        CompletableFuture<Either<LoginErrors,Login>> result = authService.login(creds);
+
+        assertThat(result.isCompletedExceptionally(), is(true));
+        verify(passwordEncoder, never()).matches(any(), any());
+        verify(authSessionRepository, never()).save(any());
+    }
+
+    @Test
+    public void testStatelessLoginStoresNothingAndRefreshIsSingleUse() {
+        final String username = "user1";
+        final String password = "123pwd";
+        UserCreds creds = new UserCreds(username,password);
+
+        final User user = new User(1L,username, password);
+
+        jwtHelper = new JwtHelper(JwtHelperTest.SECRET, 60_000, 100, Clock.systemUTC());
+        statelessTokens = new StatelessTokens(jwtHelper, new TokenDenylist(), true, 60_000, 600_000);
+
+        passwordEncoder = mock(BCryptPasswordEncoder.class);
+        when(passwordEncoder.matches(password, user.getPassword())).thenReturn(true);
+
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(user));
+
+        authSessionRepository = mock(AuthSessionRepository.class);
+        tokenRegistry = mock(TokenRegistry.class);
+
+        authService = new AuthService(jwtHelper,userRepository,new PasswordHasher(passwordEncoder, 10, Runnable::run),tokenRegistry,authSessionRepository,statelessTokens,new AuthUserDetailsService(userRepository,userDetailsCache));
+
+        Login login = authService.login(creds).join().get();
+
+        verify(authSessionRepository, never()).save(any());
+        verify(tokenRegistry, never()).register(any(), any());
+
+        Either<AppError,Login> refreshed = authService.refresh(login.getRefreshToken());
+        assertThat(refreshed.isRight(), is(true));
+
+        Either<AppError,Login> reused = authService.refresh(login.getRefreshToken());
+        assertThat(reused.isLeft(), is(true));
+        assertThat(reused.getLeft().getCode(), is(401));
     }
 }
@@ -0,0 +1,174 @@
+package edu.diploma;
+
+import edu.diploma.model.AppError;
+import edu.diploma.model.BatchResult;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.model.File;
+import edu.diploma.model.User;
+import edu.diploma.repository.FileRepository;
+import edu.diploma.service.BatchService;
+import edu.diploma.service.ContentService;
+import edu.diploma.service.FileService;
+import io.vavr.control.Either;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class BatchServiceTest {
+
+    private final User owner = new User(1L, "test", "test");
+
+    private final ContentBlob blob = new ContentBlob(
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", "abcd1234", 17
+    );
+
+    private FileRepository fileRepository;
+    private ContentService contentService;
+    private PlatformTransactionManager transactionManager;
+
+    private BatchService batchService;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        fileRepository = mock(FileRepository.class);
+        contentService = mock(ContentService.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(contentService.store(any(InputStream.class), any())).thenReturn(blob);
+
+        batchService = new BatchService(
+                fileRepository, contentService, new TransactionTemplate(transactionManager), mock(EntityManager.class), 2, 1024
+        );
+    }
+
+    @Test
+    public void testArchiveIsSavedInChunks() throws Exception {
+
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        for (String name : List.of("a.txt", "b.txt", "c.json", "a.txt", "taken.txt")) {
+            TarReaderTest.entry(tar, name, '0', new byte[17]);
+        }
+        tar.write(new byte[1024]);
+
+        when(fileRepository.findNamesByOwnerAndNameIn(eq(owner), anyCollection())).thenReturn(List.of());
+        when(fileRepository.findNamesByOwnerAndNameIn(owner, List.of("c.json", "taken.txt"))).thenReturn(List.of("taken.txt"));
+
+        Either<AppError, BatchResult> response = batchService.saveArchive(owner, new ByteArrayInputStream(tar.toByteArray()));
+
+        assertThat(response.get().done(), is(3));
+        assertThat(response.get().errors().stream().map(BatchResult.Failure::filename).toList(), is(List.of("a.txt", "taken.txt")));
+
+        // Two chunks of two files, one transaction each
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<File>> saved = ArgumentCaptor.forClass(List.class);
+        verify(fileRepository, times(2)).saveAll(saved.capture());
+        assertThat(saved.getAllValues().get(0).stream().map(File::getName).toList(), is(List.of("a.txt", "b.txt")));
+        assertThat(saved.getAllValues().get(1).stream().map(File::getName).toList(), is(List.of("c.json")));
+        assertThat(saved.getAllValues().get(1).get(0).getContentType(), is("application/json"));
+        verify(transactionManager, times(2)).commit(any());
+
+        // The repeated name is refused before its content is stored, the taken one after
+        verify(contentService, times(4)).store(any(InputStream.class), any());
+        verify(contentService, times(1)).release(blob);
+    }
+
+    @Test
+    public void testFailedChunkIsReportedAndReleased() throws Exception {
+
+        when(fileRepository.saveAll(any())).thenThrow(new RuntimeException("Duplicate key"));
+
+        Either<AppError, BatchResult> response = batchService.saveFiles(owner, List.of(
+                part("a.txt"),
+                part("b.txt")
+        ));
+
+        assertThat(response.get().done(), is(0));
+        assertThat(response.get().errors().get(0).code(), is(FileService.SERVER_ERROR.getCode()));
+        verify(contentService, times(2)).release(blob);
+    }
+
+    @Test
+    public void testDeleteReportsMissingNames() {
+
+        when(fileRepository.findNamesByOwnerAndNameIn(owner, List.of("a.txt", "b.txt"))).thenReturn(List.of("a.txt"));
+        when(fileRepository.findNamesByOwnerAndNameIn(owner, List.of("c.txt"))).thenReturn(List.of());
+
+        Either<AppError, BatchResult> response = batchService.deleteFiles(owner, List.of("a.txt", "b.txt", "c.txt", "a.txt"));
+
+        assertThat(response.get().done(), is(1));
+        assertThat(response.get().errors().stream().map(BatchResult.Failure::filename).toList(), is(List.of("b.txt", "c.txt")));
+        verify(fileRepository).deleteByOwnerAndNameIn(owner, List.of("a.txt"));
+        verify(contentService, never()).release(any());
+    }
+
+    @Test
+    public void testDelete400WhenNoNames() {
+
+        assertThat(batchService.deleteFiles(owner, List.of()).getLeft().getCode(), is(400));
+    }
+
+    @Test
+    public void testArchiveEntryTooLargeIsSkipped() throws Exception {
+
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        TarReaderTest.entry(tar, "large.bin", '0', new byte[2048]);
+        TarReaderTest.entry(tar, "a.txt", '0', new byte[17]);
+        tar.write(new byte[1024]);
+
+        when(fileRepository.findNamesByOwnerAndNameIn(eq(owner), anyCollection())).thenReturn(List.of());
+
+        Either<AppError, BatchResult> response = batchService.saveArchive(owner, new ByteArrayInputStream(tar.toByteArray()));
+
+        assertThat(response.get().done(), is(1));
+        assertThat(response.get().errors().get(0).filename(), is("large.bin"));
+        assertThat(response.get().errors().get(0).code(), is(413));
+        verify(contentService, times(1)).store(any(InputStream.class), any());
+    }
+
+    @Test
+    public void testFilesNotMatchingTheirDigestAreReported() throws Exception {
+
+        when(fileRepository.findNamesByOwnerAndNameIn(eq(owner), anyCollection())).thenReturn(List.of());
+
+        Either<AppError, BatchResult> response = batchService.saveFiles(
+                owner,
+                List.of(part("a.txt"), part("b.txt"), part("c.txt"), part("d.txt")),
+                Arrays.asList(
+                        "sha-256=:47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=:",
+                        "sha-256=:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=:",
+                        "sha-256=:broken",
+                        null
+                )
+        );
+
+        assertThat(response.get().done(), is(2));
+        assertThat(response.get().errors().stream().map(BatchResult.Failure::filename).toList(), is(List.of("b.txt", "c.txt")));
+        // The malformed digest is refused before the content is stored, the wrong one after
+        verify(contentService, times(3)).store(any(InputStream.class), any());
+        verify(contentService, times(1)).release(blob);
+    }
+
+    private static MultipartFile part(String filename) throws Exception {
+        MultipartFile part = mock(MultipartFile.class);
+        when(part.getOriginalFilename()).thenReturn(filename);
+        when(part.getContentType()).thenReturn("text/plain");
+        when(part.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[17]));
+        return part;
+    }
+}
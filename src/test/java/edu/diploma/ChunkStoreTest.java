@@ -0,0 +1,102 @@
+package edu.diploma;
+
+import edu.diploma.storage.ChunkStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ChunkStoreTest {
+
+    private static final String SESSION = "0f8e2b4c-5d6a-4e1f-9b3c-7a2d1e0f4b5c";
+
+    @TempDir
+    private Path root;
+
+    private ChunkStore chunkStore;
+
+    @BeforeEach
+    public void setUp() {
+        chunkStore = new ChunkStore(root, 1024);
+    }
+
+    @Test
+    public void testChunksOutOfOrderReadBackInOrder() throws Exception {
+
+        chunkStore.write(SESSION, 2, stream("dolor"));
+        chunkStore.write(SESSION, 0, stream("Lorem "));
+        chunkStore.write(SESSION, 1, stream("ipsum "));
+
+        assertThat(chunkStore.chunks(SESSION), is(List.of(0, 1, 2)));
+        try (InputStream in = chunkStore.open(SESSION, 3)) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), is("Lorem ipsum dolor"));
+        }
+    }
+
+    @Test
+    public void testChunkSentAgainIsReplaced() throws Exception {
+
+        chunkStore.write(SESSION, 0, stream("Lorem"));
+        long size = chunkStore.write(SESSION, 0, stream("Ipsum!"));
+
+        assertThat(size, is(6L));
+        assertThat(chunkStore.chunks(SESSION), is(List.of(0)));
+        try (InputStream in = chunkStore.open(SESSION, 1)) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), is("Ipsum!"));
+        }
+    }
+
+    @Test
+    public void testDeleteRemovesSession() throws Exception {
+
+        chunkStore.write(SESSION, 0, stream("Lorem"));
+
+        chunkStore.delete(SESSION);
+
+        assertThat(chunkStore.chunks(SESSION), is(List.of()));
+        assertThat(Files.exists(root.resolve(SESSION)), is(false));
+    }
+
+    @Test
+    public void testWriteRejectsSessionOutsideStore() {
+
+        assertThrows(IllegalArgumentException.class, () -> chunkStore.write("../content", 0, stream("x")));
+    }
+
+    @Test
+    public void testIdleAndStagedGoByLastChange() throws Exception {
+
+        final String fresh = "7c1d9e2a-3b4f-4a5c-8d6e-0f1a2b3c4d5e";
+        final FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 7200000);
+        final long before = System.currentTimeMillis() - 3600000;
+
+        chunkStore.write(SESSION, 0, stream("Lorem"));
+        chunkStore.write(fresh, 0, stream("ipsum"));
+        Path stale = chunkStore.stage();
+        Path current = chunkStore.stage();
+        Files.setLastModifiedTime(root.resolve(SESSION), old);
+        Files.setLastModifiedTime(stale, old);
+        Files.setLastModifiedTime(stale.getParent(), old);
+
+        // The staging directory itself is never taken for a session
+        assertThat(chunkStore.idle(before), is(List.of(SESSION)));
+        assertThat(chunkStore.discardStaged(before), is(1));
+        assertThat(Files.exists(stale), is(false));
+        assertThat(Files.exists(current), is(true));
+    }
+
+    private static InputStream stream(String contents) {
+        return new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,53 @@
+package edu.diploma;
+
+import edu.diploma.model.ContentBlob;
+import edu.diploma.repository.ContentBlobRepository;
+import edu.diploma.service.ContentScrubber;
+import edu.diploma.service.ContentService;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ContentScrubberTest {
+
+    @Test
+    public void testStartReturnsWhileThePassRuns() throws Exception {
+
+        ContentBlob blob = new ContentBlob("a1", "key", 17);
+        ContentBlobRepository contentBlobRepository = mock(ContentBlobRepository.class);
+        when(contentBlobRepository.findByHashGreaterThanOrderByHash(anyString(), any())).thenReturn(List.of(blob));
+
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ContentService contentService = mock(ContentService.class);
+        when(contentService.verify(any(), any())).thenAnswer(invocation -> {
+            reading.countDown();
+            release.await();
+            return true;
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ContentScrubber scrubber = new ContentScrubber(contentBlobRepository, contentService, 0, executor);
+
+        // The scheduler thread comes back while the pass is stuck reading, so the other
+        // scheduled tasks keep running; a second trigger does not start another pass
+        scrubber.start();
+        assertThat(reading.await(5, TimeUnit.SECONDS), is(true));
+        scrubber.start();
+
+        release.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        verify(contentService, times(1)).verify(any(), any());
+    }
+}
@@ -0,0 +1,222 @@
+package edu.diploma;
+
+import edu.diploma.model.ContentBlob;
+import edu.diploma.repository.ContentBlobRepository;
+import edu.diploma.service.ContentService;
+import edu.diploma.storage.Compression;
+import edu.diploma.storage.ContentStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ContentServiceTest {
+
+    private static final byte[] CONTENTS = "Lorem ipsum".getBytes(StandardCharsets.UTF_8);
+    private static final String HASH = "a9a66978f378456c818fb8a3e7c6ad3d2c83e62724ccbdea7b36253fb8df5edd";
+
+    private ContentStore contentStore;
+    private ContentBlobRepository contentBlobRepository;
+
+    private ContentService contentService;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        contentStore = mock(ContentStore.class);
+        when(contentStore.write(any(InputStream.class))).thenAnswer(x -> {
+            x.getArgument(0, InputStream.class).readAllBytes();
+            return "new0key";
+        });
+
+        contentBlobRepository = mock(ContentBlobRepository.class);
+
+        contentService = new ContentService(contentStore, contentBlobRepository);
+    }
+
+    @Test
+    public void testStoreNewContent() throws Exception {
+
+        when(contentBlobRepository.retain(any())).thenReturn(0);
+        when(contentBlobRepository.saveAndFlush(any(ContentBlob.class))).thenAnswer(x -> x.getArgument(0));
+
+        ContentBlob blob = contentService.store(new ByteArrayInputStream(CONTENTS));
+
+        assertThat(blob.getHash(), is(HASH));
+        assertThat(blob.getStoreKey(), is("new0key"));
+        assertThat(blob.getSize(), is((long) CONTENTS.length));
+        assertThat(blob.getCrc32c(), is(crc32c(CONTENTS)));
+        assertThat(blob.getRefCount(), is(1L));
+        verify(contentStore, never()).delete(any());
+    }
+
+    @Test
+    public void testStoreKnownContentDropsCopy() throws Exception {
+
+        ContentBlob existing = new ContentBlob(HASH, "old0key", CONTENTS.length);
+
+        when(contentBlobRepository.retain(HASH)).thenReturn(1);
+        when(contentBlobRepository.findById(HASH)).thenReturn(Optional.of(existing));
+
+        ContentBlob blob = contentService.store(new ByteArrayInputStream(CONTENTS));
+
+        assertThat(blob.getStoreKey(), is("old0key"));
+        verify(contentStore).delete("new0key");
+        verify(contentBlobRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    public void testStoreConcurrentlyStoredContent() throws Exception {
+
+        ContentBlob existing = new ContentBlob(HASH, "old0key", CONTENTS.length);
+
+        when(contentBlobRepository.retain(HASH)).thenReturn(0, 1);
+        when(contentBlobRepository.saveAndFlush(any(ContentBlob.class)))
+                .thenThrow(new DataIntegrityViolationException("Duplicate key"));
+        when(contentBlobRepository.findById(HASH)).thenReturn(Optional.of(existing));
+
+        ContentBlob blob = contentService.store(new ByteArrayInputStream(CONTENTS));
+
+        assertThat(blob.getStoreKey(), is("old0key"));
+        verify(contentBlobRepository, times(2)).retain(HASH);
+        verify(contentStore).delete("new0key");
+    }
+
+    @Test
+    public void testVerifyDetectsChangedBytes() throws Exception {
+
+        ContentBlob blob = new ContentBlob(HASH, "old0key", CONTENTS.length, null, CONTENTS.length, crc32c(CONTENTS));
+        byte[] rotten = CONTENTS.clone();
+        rotten[0] ^= 1;
+
+        when(contentStore.read("old0key")).thenReturn(new ByteArrayResource(CONTENTS), new ByteArrayResource(rotten));
+
+        assertThat(contentService.verify(blob, read -> { }), is(true));
+        assertThat(contentService.verify(blob, read -> { }), is(false));
+    }
+
+    @Test
+    public void testReleaseLeavesTheBytes() throws Exception {
+
+        ContentBlob blob = new ContentBlob(HASH, "old0key", CONTENTS.length);
+
+        contentService.release(blob);
+
+        verify(contentBlobRepository).release(HASH);
+        verify(contentBlobRepository, never()).deleteUnreferenced(any(), any());
+        verify(contentStore, never()).delete(any());
+    }
+
+    @Test
+    public void testCollectDeletesOnlyBlobsStillUnreferenced() throws Exception {
+
+        ContentBlob gone = new ContentBlob(HASH, "old0key", CONTENTS.length);
+        ContentBlob retained = new ContentBlob("other", "other0key", CONTENTS.length);
+
+        when(contentBlobRepository.findByRefCountLessThanEqualAndHashGreaterThanOrderByHash(eq(0L), eq(""), any())).thenReturn(List.of(gone, retained));
+        when(contentBlobRepository.deleteUnreferenced(HASH, "old0key")).thenReturn(1);
+        // An upload of the same bytes took a reference before the row was deleted
+        when(contentBlobRepository.deleteUnreferenced("other", "other0key")).thenReturn(0);
+
+        contentService.collect();
+
+        verify(contentStore).delete("old0key");
+        verify(contentStore, never()).delete("other0key");
+    }
+
+    @Test
+    public void testCollectGoesOnAfterAFailingBlob() throws Exception {
+
+        ContentBlob stuck = new ContentBlob("a1", "stuck0key", CONTENTS.length);
+        ContentBlob gone = new ContentBlob(HASH, "old0key", CONTENTS.length);
+
+        when(contentBlobRepository.findByRefCountLessThanEqualAndHashGreaterThanOrderByHash(eq(0L), eq(""), any())).thenReturn(List.of(stuck, gone));
+        when(contentBlobRepository.deleteUnreferenced("a1", "stuck0key")).thenThrow(new IllegalStateException("Row locked"));
+        when(contentBlobRepository.deleteUnreferenced(HASH, "old0key")).thenReturn(1);
+
+        contentService.collect();
+
+        verify(contentStore).delete("old0key");
+        verify(contentStore, never()).delete("stuck0key");
+    }
+
+    @Test
+    public void testStoreCompressibleContentDeflated() throws Exception {
+
+        final byte[] text = "Lorem ipsum dolor sit amet. ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+
+        when(contentStore.write(any(InputStream.class))).thenAnswer(x -> {
+            x.getArgument(0, InputStream.class).transferTo(stored);
+            return "new0key";
+        });
+        when(contentBlobRepository.saveAndFlush(any(ContentBlob.class))).thenAnswer(x -> x.getArgument(0));
+        when(contentStore.read("new0key")).thenAnswer(x -> new ByteArrayResource(stored.toByteArray()));
+
+        contentService = new ContentService(
+                contentStore, contentBlobRepository, new Compression(List.of(MediaType.parseMediaType("text/*")), 0.9, 6, 1024)
+        );
+
+        ContentBlob blob = contentService.store(new ByteArrayInputStream(text), "text/plain; charset=UTF-8");
+
+        assertThat(blob.getEncoding(), is(Compression.DEFLATE));
+        assertThat(blob.getSize(), is((long) text.length));
+        assertThat(blob.getStoredSize(), is((long) stored.size()));
+        assertThat(stored.size() < text.length / 10, is(true));
+        // The hash is of the original bytes
+        assertThat(blob.getHash(), is(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(text))));
+
+        Resource content = contentService.open(blob);
+        assertThat(content.contentLength(), is((long) text.length));
+        assertThat(content.getInputStream().readAllBytes(), is(text));
+        assertThat(contentService.openStored(blob).getInputStream().readAllBytes(), is(stored.toByteArray()));
+    }
+
+    @Test
+    public void testStoreIncompressibleContentAsItIs() throws Exception {
+
+        final byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+
+        when(contentStore.write(any(InputStream.class))).thenAnswer(x -> {
+            x.getArgument(0, InputStream.class).transferTo(stored);
+            return "new0key";
+        });
+        when(contentBlobRepository.saveAndFlush(any(ContentBlob.class))).thenAnswer(x -> x.getArgument(0));
+
+        contentService = new ContentService(
+                contentStore, contentBlobRepository, new Compression(List.of(MediaType.parseMediaType("text/*")), 0.9, 6, 1024)
+        );
+
+        ContentBlob blob = contentService.store(new ByteArrayInputStream(random), "text/plain");
+
+        assertThat(blob.getEncoding(), is(nullValue()));
+        assertThat(stored.toByteArray(), is(random));
+        assertThat(blob.getStoredSize(), is((long) random.length));
+    }
+
+    private static String crc32c(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return String.format("%08x", crc.getValue());
+    }
+}
@@ -0,0 +1,140 @@
+package edu.diploma;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.ZipInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Runs the application on the database store, with connections going back to the pool after
+ * every transaction, and downloads a file larger than H2 keeps inline in the row.
+ */
+public class DatabaseContentStoreTest {
+
+    private static final byte[] CONTENT = new byte[8 * 1024 * 1024];
+
+    private static ConfigurableApplicationContext context;
+    private static Path uploads;
+    private static String base;
+    private static String token;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    public static void start() throws Exception {
+        new Random(42).nextBytes(CONTENT);
+        uploads = Files.createTempDirectory("uploads");
+
+        context = SpringApplication.run(
+                FileApplication.class,
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:database-store",
+                "--edu.diploma.storage.type=database",
+                "--edu.diploma.storage.upload-path=" + uploads,
+                "--edu.diploma.security.bcrypt.strength=4",
+                // Two connections: a download that kept its connection would starve the next ones
+                "--spring.datasource.hikari.maximum-pool-size=2",
+                "--spring.datasource.hikari.connection-timeout=2000",
+                "--edu.diploma.ratelimit.ip.rate=0",
+                "--edu.diploma.ratelimit.endpoint.rate=0",
+                "--edu.diploma.ratelimit.user.rate=0",
+                "--edu.diploma.ratelimit.upload.bytes-per-second=0",
+                "--edu.diploma.ratelimit.download.bytes-per-second=0",
+                "--logging.level.root=WARN",
+                "--logging.level.org.springframework.web=WARN",
+                "--logging.level.org.hibernate=WARN",
+                "--logging.level.org.hibernate.SQL=WARN",
+                "--logging.level.org.hibernate.orm.jdbc.bind=WARN",
+                "--logging.level.org.hibernate.type.descriptor.sql.BasicBinder=WARN",
+                "--spring.jpa.show-sql=false"
+        );
+        base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+
+        HttpResponse<String> login = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create(base + "/login"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"test\",\"password\":\"test\"}"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        token = login.body().replaceAll(".*\"auth-token\":\"([^\"]*)\".*", "$1");
+
+        HttpResponse<String> upload = HttpClient.newHttpClient().send(
+                request("/file?filename=large.bin&stream=true")
+                        .header("Content-Type", "application/octet-stream")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(CONTENT))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        assertThat(upload.statusCode(), is(200));
+    }
+
+    @AfterAll
+    public static void stop() throws IOException {
+        if (context != null) {
+            context.close();
+        }
+        try (var paths = Files.walk(uploads)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testGetFileReadsTheWholeLob() throws Exception {
+
+        for (int i = 0; i < 3; i++) {
+            HttpResponse<byte[]> response = client.send(
+                    request("/file?filename=large.bin").GET().build(), HttpResponse.BodyHandlers.ofByteArray()
+            );
+
+            assertThat(response.statusCode(), is(200));
+            assertThat(response.body(), is(CONTENT));
+        }
+    }
+
+    @Test
+    public void testStreamedGetFileReadsTheWholeLob() throws Exception {
+
+        for (int i = 0; i < 3; i++) {
+            HttpResponse<byte[]> response = client.send(
+                    request("/file?filename=large.bin&stream=true").GET().build(), HttpResponse.BodyHandlers.ofByteArray()
+            );
+
+            assertThat(response.statusCode(), is(200));
+            assertThat(response.body(), is(CONTENT));
+        }
+    }
+
+    @Test
+    public void testArchiveReadsTheWholeLob() throws Exception {
+
+        HttpResponse<InputStream> response = client.send(
+                request("/files?filename=large.bin").GET().build(), HttpResponse.BodyHandlers.ofInputStream()
+        );
+
+        assertThat(response.statusCode(), is(200));
+        try (ZipInputStream zip = new ZipInputStream(response.body())) {
+            assertThat(zip.getNextEntry().getName(), is("large.bin"));
+            assertThat(zip.readAllBytes(), is(CONTENT));
+        }
+    }
+
+    private static HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(base + path)).header("auth-token", "Bearer " + token);
+    }
+}
@@ -0,0 +1,68 @@
+package edu.diploma;
+
+import edu.diploma.auth.ExpiringCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ExpiringCacheTest {
+
+    private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+
+    private final ExpiringCache<String, Integer> cache = new ExpiringCache<>(10, Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    public void testExpiredEntryIsNotReturned() {
+
+        cache.put("live", 1, NOW.plusSeconds(1));
+        cache.put("gone", 2, NOW.minusSeconds(1));
+
+        assertThat(cache.get("live"), is(Optional.of(1)));
+        assertThat(cache.get("gone"), is(Optional.empty()));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void testFullCacheIsTrimmedExpiredFirst() {
+
+        cache.put("gone", 0, NOW.minusSeconds(1));
+        for (int i = 1; i < 10; i++) {
+            cache.put("live" + i, i, NOW.plusSeconds(60));
+        }
+
+        cache.put("new", 10, NOW.plusSeconds(60));
+
+        assertThat(cache.size(), is(10));
+        assertThat(cache.get("gone"), is(Optional.empty()));
+        assertThat(cache.get("live1"), is(Optional.of(1)));
+        assertThat(cache.get("new"), is(Optional.of(10)));
+    }
+
+    @Test
+    public void testFullCacheMakesRoomForATenthAtOnce() {
+
+        ExpiringCache<Integer, Integer> large = new ExpiringCache<>(100, Clock.fixed(NOW, ZoneOffset.UTC));
+        for (int i = 0; i < 101; i++) {
+            large.put(i, i, NOW.plusSeconds(60));
+        }
+
+        // Trimmed to 90 for the 101st, so the next nine go in without another scan
+        assertThat(large.size(), is(91));
+        assertThat(large.get(100), is(Optional.of(100)));
+    }
+
+    @Test
+    public void testNothingIsKeptAtSizeZero() {
+
+        ExpiringCache<String, Integer> none = new ExpiringCache<>(0, Clock.fixed(NOW, ZoneOffset.UTC));
+        none.put("a", 1, NOW.plusSeconds(60));
+
+        assertThat(none.get("a"), is(Optional.empty()));
+    }
+}
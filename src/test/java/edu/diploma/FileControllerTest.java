@@ -1,11 +1,14 @@
 package edu.diploma;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.diploma.auth.JwtHelper;
 import edu.diploma.controller.FileController;
 import edu.diploma.model.AppError;
+import edu.diploma.model.ContentBlob;
 import edu.diploma.model.File;
-import edu.diploma.model.FileContent;
+import edu.diploma.model.FileEntry;
 import edu.diploma.model.NewFilename;
+import edu.diploma.model.User;
 import edu.diploma.repository.FileContentRepository;
 import edu.diploma.repository.FileRepository;
 import edu.diploma.service.FileService;
@@ -14,21 +17,35 @@ import org.javatuples.Pair;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.MatcherAssert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class FileControllerTest {
 
+    private static final String LIST_TAG = "W/\"4-4-237\"";
+
     private final List<File> files = List.of(
             new File("File One", "text/plain", 123,124,123),
             new File("File Two", "text/html", 234,245,234),
@@ -36,12 +53,23 @@ public class FileControllerTest {
             new File("File Four", "audio/mpeg", 456,567,345)
     );
 
+    private final List<FileEntry> entries = files.stream()
+            .map(f -> new FileEntry(null, f.getName(), f.getContentType(), f.getCreatedAt(), f.getEditedAt(), f.getSize(), null, null))
+            .toList();
+
+    private final User owner = new User(1L, "test", "test");
+
+    private final ContentBlob blob = new ContentBlob(
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", "abcd1234", 0
+    );
+
     private AuthenticationManager authManager;
     private JwtHelper jwtHelper;
     private FileRepository fileRepository;
     private FileContentRepository fileContentRepository;
     private FileController fileController;
     private FileService fileService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @BeforeEach
     public void setUp() {
@@ -55,13 +83,13 @@ public class FileControllerTest {
         final NewFilename newFilename = null;
 
         fileService = mock(FileService.class);
-        when(fileService.renameFile(filename, newFilename)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.renameFile(owner, filename, newFilename)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.putFile(filename, newFilename);
+        ResponseEntity<?> response = fileController.putFile(owner, filename, newFilename);
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
@@ -73,13 +101,13 @@ public class FileControllerTest {
         final NewFilename newFilename = new NewFilename("A New File.txt");
 
         fileService = mock(FileService.class);
-        when(fileService.renameFile(filename, newFilename)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.renameFile(owner, filename, newFilename)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.putFile(filename, newFilename);
+        ResponseEntity<?> response = fileController.putFile(owner, filename, newFilename);
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
@@ -91,13 +119,13 @@ public class FileControllerTest {
         final NewFilename newFilename = new NewFilename("A New File.txt");
 
         fileService = mock(FileService.class);
-        when(fileService.renameFile(filename, newFilename)).thenReturn(Either.left(FileService.SERVER_ERROR));
+        when(fileService.renameFile(owner, filename, newFilename)).thenReturn(Either.left(FileService.SERVER_ERROR));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.putFile(filename, newFilename);
+        ResponseEntity<?> response = fileController.putFile(owner, filename, newFilename);
 
         assertThat(response.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
     }
@@ -109,13 +137,13 @@ public class FileControllerTest {
         final NewFilename newFilename = new NewFilename("A New File.txt");
 
         fileService = mock(FileService.class);
-        when(fileService.renameFile(filename, newFilename)).thenReturn(Either.right(new File(newFilename.getFilename())));
+        when(fileService.renameFile(owner, filename, newFilename)).thenReturn(Either.right(new File(newFilename.getFilename())));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.putFile(filename, newFilename);
+        ResponseEntity<?> response = fileController.putFile(owner, filename, newFilename);
 
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
     }
@@ -126,13 +154,13 @@ public class FileControllerTest {
         final String filename = null;
 
         fileService = mock(FileService.class);
-        when(fileService.getFile(filename)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.findFile(owner, filename)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFile(filename);
+        ResponseEntity<?> response = fileController.getFile(owner, filename, new HttpHeaders());
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
@@ -141,19 +169,20 @@ public class FileControllerTest {
     public void testGetFile500WhenStreamingContentErrors() throws Exception {
 
         final String filename = "A File.txt";
-        final File file = new File(filename);
+        final File file = new File(filename, "text/plain", 123, 124, 56, blob);
 
-        FileContent fileContent = mock(FileContent.class);
-        when(fileContent.getContent()).thenThrow(new RuntimeException());
+        Resource fileContent = mock(Resource.class);
+        when(fileContent.contentLength()).thenThrow(new IOException());
 
         fileService = mock(FileService.class);
-        when(fileService.getFile(filename)).thenReturn(Either.right(Pair.with(file,fileContent)));
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openFile(file)).thenReturn(Either.right(fileContent));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFile(filename);
+        ResponseEntity<?> response = fileController.getFile(owner, filename, new HttpHeaders());
 
         assertThat(response.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
     }
@@ -162,15 +191,17 @@ public class FileControllerTest {
     public void testGetFile500WhenReadingContentErrors() throws Exception {
 
         final String filename = "A File.txt";
+        final File file = new File(filename, "text/plain", 123, 124, 56, blob);
 
         fileService = mock(FileService.class);
-        when(fileService.getFile(filename)).thenReturn(Either.left(FileService.SERVER_ERROR));
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openFile(file)).thenReturn(Either.left(FileService.SERVER_ERROR));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFile(filename);
+        ResponseEntity<?> response = fileController.getFile(owner, filename, new HttpHeaders());
 
         assertThat(response.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
     }
@@ -180,24 +211,226 @@ public class FileControllerTest {
 
         final String filename = "A File.txt";
         final String contents = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
-        final File file = new File(filename);
+        final File file = new File(filename, "text/plain", 123, 124, 56, blob);
 
-        FileContent fileContent = new FileContent(file, contents.getBytes(StandardCharsets.UTF_8));
+        Resource fileContent = new ByteArrayResource(contents.getBytes(StandardCharsets.UTF_8));
 
         fileService = mock(FileService.class);
-        when(fileService.getFile(filename)).thenReturn(Either.right(Pair.with(file,fileContent)));
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openFile(file)).thenReturn(Either.right(fileContent));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFile(filename);
+        ResponseEntity<?> response = fileController.getFile(owner, filename, new HttpHeaders());
 
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
         assertThat(
-                ((InputStreamResource) response.getBody()).getInputStream().readAllBytes(),
-                is(fileContent.getContent())
+                response.getHeaders().getContentLength(),
+                is((long) contents.getBytes(StandardCharsets.UTF_8).length)
+        );
+        assertThat(
+                ((Resource) response.getBody()).getInputStream().readAllBytes(),
+                is(contents.getBytes(StandardCharsets.UTF_8))
+        );
+    }
+
+    @Test
+    public void testGetFileRangeLeftToResourceConverter() throws Exception {
+
+        final String filename = "A File.txt";
+        final String contents = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
+        final File file = new File(filename, "text/plain", 123, 124, 56, blob);
+
+        Resource fileContent = new ByteArrayResource(contents.getBytes(StandardCharsets.UTF_8));
+
+        fileService = mock(FileService.class);
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openFile(file)).thenReturn(Either.right(fileContent));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=6-10");
+
+        ResponseEntity<?> response = fileController.getFile(owner, filename, headers);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(response.getBody(), is(sameInstance(fileContent)));
+        assertThat(response.getHeaders().getETag(), is("\"" + blob.getHash() + "\""));
+        assertThat(response.getHeaders().containsKey(HttpHeaders.CONTENT_LENGTH), is(false));
+    }
+
+    @Test
+    public void testGetFile304WithoutOpeningContent() throws Exception {
+
+        final String filename = "A File.txt";
+        final File file = new File(filename, "text/plain", 123, 124_000, 56, blob);
+
+        fileService = mock(FileService.class);
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        HttpHeaders matching = new HttpHeaders();
+        matching.setIfNoneMatch(List.of("\"other\"", "W/\"" + blob.getHash() + "\""));
+        ResponseEntity<?> response = fileController.getFile(owner, filename, matching);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(response.getHeaders().getETag(), is("\"" + blob.getHash() + "\""));
+        assertThat(response.getHeaders().getCacheControl(), is("no-cache, private"));
+
+        HttpHeaders unmodified = new HttpHeaders();
+        unmodified.setIfModifiedSince(124_999);
+        response = fileController.getFile(owner, filename, unmodified);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        verify(fileService, never()).openFile(any());
+    }
+
+    @Test
+    public void testGetFile200WhenIfNoneMatchDiffers() throws Exception {
+
+        final String filename = "A File.txt";
+        final File file = new File(filename, "text/plain", 123, 124_000, 56, blob);
+
+        fileService = mock(FileService.class);
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openFile(file)).thenReturn(Either.right(new ByteArrayResource(new byte[56])));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        // If-None-Match wins over a matching If-Modified-Since
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch("\"other\"");
+        headers.setIfModifiedSince(200_000);
+        ResponseEntity<?> response = fileController.getFile(owner, filename, headers);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(response.getHeaders().getETag(), is("\"" + blob.getHash() + "\""));
+    }
+
+    @Test
+    public void testGetFileSendsStoredDeflateWhenAccepted() throws Exception {
+
+        final String filename = "A File.txt";
+        final ContentBlob deflated = new ContentBlob(blob.getHash(), "abcd1234", 56, "deflate", 20, null);
+        final File file = new File(filename, "text/plain", 123, 124, 56, deflated);
+
+        fileService = mock(FileService.class);
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openStored(file)).thenReturn(Either.right(new ByteArrayResource(new byte[20])));
+        when(fileService.openFile(file)).thenReturn(Either.right(new ByteArrayResource(new byte[56])));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate;q=0.5, br");
+        ResponseEntity<?> response = fileController.getFile(owner, filename, headers);
+
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is("deflate"));
+        assertThat(response.getHeaders().getContentLength(), is(20L));
+        assertThat(response.getHeaders().getETag(), is("\"" + blob.getHash() + "-deflate\""));
+        assertThat(response.getHeaders().getVary(), is(List.of(HttpHeaders.ACCEPT_ENCODING)));
+
+        headers.set(HttpHeaders.ACCEPT_ENCODING, "deflate;q=0, *");
+        response = fileController.getFile(owner, filename, headers);
+
+        assertThat(response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING), is(false));
+        assertThat(response.getHeaders().getContentLength(), is(56L));
+        assertThat(response.getHeaders().getETag(), is("\"" + blob.getHash() + "\""));
+    }
+
+    @Test
+    public void testGetFileRangesMatchingIfRange() throws Exception {
+
+        final String filename = "A File.txt";
+        final String contents = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
+        final File file = new File(filename, "text/plain", 123, 124, 56, blob);
+
+        Resource fileContent = new ByteArrayResource(contents.getBytes(StandardCharsets.UTF_8));
+
+        fileService = mock(FileService.class);
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openFile(file)).thenReturn(Either.right(fileContent));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=0-4,-6");
+        headers.set(HttpHeaders.IF_RANGE, "\"" + blob.getHash() + "\"");
+
+        ResponseEntity<?> response = fileController.getFile(owner, filename, headers);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(response.getBody(), is(sameInstance(fileContent)));
+    }
+
+    @Test
+    public void testGetFile200WhenIfRangeOutdated() throws Exception {
+
+        final String filename = "A File.txt";
+        final String contents = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
+        final File file = new File(filename, "text/plain", 123, 124, 56, blob);
+
+        Resource fileContent = new ByteArrayResource(contents.getBytes(StandardCharsets.UTF_8));
+
+        fileService = mock(FileService.class);
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openFile(file)).thenReturn(Either.right(fileContent));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=6-10");
+        headers.set(HttpHeaders.IF_RANGE, "\"0000\"");
+
+        ResponseEntity<?> response = fileController.getFile(owner, filename, headers);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(
+                ((Resource) response.getBody()).getInputStream().readAllBytes(),
+                is(contents.getBytes(StandardCharsets.UTF_8))
+        );
+    }
+
+    @Test
+    public void testGetFile416WhenRangeUnsatisfiable() throws Exception {
+
+        final String filename = "A File.txt";
+        final String contents = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
+        final File file = new File(filename, "text/plain", 123, 124, 56, blob);
+
+        Resource fileContent = new ByteArrayResource(contents.getBytes(StandardCharsets.UTF_8));
+
+        fileService = mock(FileService.class);
+        when(fileService.findFile(owner, filename)).thenReturn(Either.right(file));
+        when(fileService.openFile(file)).thenReturn(Either.right(fileContent));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RANGE, "bytes=100-200");
+
+        ResponseEntity<?> response = fileController.getFile(owner, filename, headers);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE));
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE), is("bytes */56"));
     }
 
     @Test
@@ -206,13 +439,13 @@ public class FileControllerTest {
         final String filename = null;
 
         fileService = mock(FileService.class);
-        when(fileService.deleteFile(filename)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.deleteFile(owner, filename)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.deleteFile(filename);
+        ResponseEntity<?> response = fileController.deleteFile(owner, filename);
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
@@ -221,13 +454,13 @@ public class FileControllerTest {
     public void testDeleteFile500WhenDbErrors() {
 
         fileService = mock(FileService.class);
-        when(fileService.deleteFile(files.get(0).getName())).thenReturn(Either.left(FileService.SERVER_ERROR));
+        when(fileService.deleteFile(owner, files.get(0).getName())).thenReturn(Either.left(FileService.SERVER_ERROR));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.deleteFile(files.get(0).getName());
+        ResponseEntity<?> response = fileController.deleteFile(owner, files.get(0).getName());
 
         assertThat(response.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
     }
@@ -236,13 +469,13 @@ public class FileControllerTest {
     public void testDeleteFileOk() {
 
         fileService = mock(FileService.class);
-        when(fileService.deleteFile(files.get(0).getName())).thenReturn(Either.right(List.of(files.get(0))));
+        when(fileService.deleteFile(owner, files.get(0).getName())).thenReturn(Either.right(1));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.deleteFile(files.get(0).getName());
+        ResponseEntity<?> response = fileController.deleteFile(owner, files.get(0).getName());
 
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
     }
@@ -254,13 +487,13 @@ public class FileControllerTest {
         final MultipartFile content = null;
 
         fileService = mock(FileService.class);
-        when(fileService.saveFile(filename, content)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.saveFile(owner, filename, content, null)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.postFile(filename, content);
+        ResponseEntity<?> response = fileController.postFile(owner, filename, content, null);
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
@@ -273,13 +506,13 @@ public class FileControllerTest {
         final String filename = "   \t\n     ";
 
         fileService = mock(FileService.class);
-        when(fileService.saveFile(filename, content)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.saveFile(owner, filename, content, null)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.postFile(filename, content);
+        ResponseEntity<?> response = fileController.postFile(owner, filename, content, null);
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
@@ -292,13 +525,13 @@ public class FileControllerTest {
         final String filename = "";
 
         fileService = mock(FileService.class);
-        when(fileService.saveFile(filename, content)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.saveFile(owner, filename, content, null)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.postFile(filename, content);
+        ResponseEntity<?> response = fileController.postFile(owner, filename, content, null);
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
@@ -311,15 +544,32 @@ public class FileControllerTest {
         final String filename = null;
 
         fileService = mock(FileService.class);
-        when(fileService.saveFile(filename, content)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.saveFile(owner, filename, content, null)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        ResponseEntity<?> response = fileController.postFile(owner, filename, content, null);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void testPostFile400WhenDigestMalformed() throws Exception {
+
+        MultipartFile content = mock(MultipartFile.class);
+
+        fileService = mock(FileService.class);
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.postFile(filename, content);
+        ResponseEntity<?> response = fileController.postFile(owner, files.get(0).getName(), content, "sha-256=:AAAA:");
 
         assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        verifyNoInteractions(fileService);
     }
 
     @Test
@@ -328,18 +578,18 @@ public class FileControllerTest {
         MultipartFile content = mock(MultipartFile.class);
         when(content.getContentType()).thenReturn(files.get(0).getContentType());
         when(content.getSize()).thenReturn(files.get(0).getSize());
-        when(content.getBytes()).thenReturn(new byte[0]);
+        when(content.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
 
         fileService = mock(FileService.class);
-        when(fileService.saveFile(files.get(0).getName(),content)).thenReturn(
+        when(fileService.saveFile(owner, files.get(0).getName(), content, null)).thenReturn(
                 Either.right(files.get(0))
         );
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.postFile(files.get(0).getName(), content);
+        ResponseEntity<?> response = fileController.postFile(owner, files.get(0).getName(), content, null);
 
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
     }
@@ -352,13 +602,14 @@ public class FileControllerTest {
         final AppError error = new AppError(500, "Server Error");
 
         fileService = mock(FileService.class);
-        when(fileService.getFiles(limit)).thenReturn(Either.left(error));
+        when(fileService.getFiles(owner, limit, null, null, null)).thenReturn(Either.left(error));
+        when(fileService.listTag(owner)).thenReturn(Either.right(LIST_TAG));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFiles(limit);
+        ResponseEntity<?> response = fileController.getFiles(owner, limit, null, null, null, new HttpHeaders());
 
         assertThat(response.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
         assertThat(((AppError) response.getBody()).getCode(), is(error.getCode()));
@@ -373,13 +624,14 @@ public class FileControllerTest {
         final AppError error = new AppError(500, "Server Error");
 
         fileService = mock(FileService.class);
-        when(fileService.getFiles(limit)).thenReturn(Either.left(error));
+        when(fileService.getFiles(owner, limit, null, null, null)).thenReturn(Either.left(error));
+        when(fileService.listTag(owner)).thenReturn(Either.right(LIST_TAG));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFiles(limit);
+        ResponseEntity<?> response = fileController.getFiles(owner, limit, null, null, null, new HttpHeaders());
 
         assertThat(response.getStatusCode(), is(HttpStatus.INTERNAL_SERVER_ERROR));
         assertThat(((AppError) response.getBody()).getCode(), is(error.getCode()));
@@ -392,16 +644,46 @@ public class FileControllerTest {
         Integer limit = null;
 
         fileService = mock(FileService.class);
-        when(fileService.getFiles(limit)).thenReturn(Either.right(files));
+        when(fileService.getFiles(owner, limit, null, null, null)).thenReturn(Either.right(Pair.with(entries, (String) null)));
+        when(fileService.listTag(owner)).thenReturn(Either.right(LIST_TAG));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFiles(limit);
+        ResponseEntity<?> response = fileController.getFiles(owner, limit, null, null, null, new HttpHeaders());
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(((List<FileEntry>) response.getBody()).size(), is(entries.size()));
+        assertThat(response.getHeaders().containsKey(FileController.NEXT_CURSOR_HEADER), is(false));
+    }
+
+    @Test
+    public void testGetFiles304WhenListTagMatches() {
+
+        fileService = mock(FileService.class);
+        when(fileService.listTag(owner)).thenReturn(Either.right(LIST_TAG));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(LIST_TAG);
+        ResponseEntity<?> response = fileController.getFiles(owner, null, null, null, null, headers);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(response.getHeaders().getETag(), is(LIST_TAG));
+        verify(fileService, never()).getFiles(any(), any(), any(), any(), any());
+
+        // The list has no Last-Modified, so If-Modified-Since alone never matches
+        when(fileService.getFiles(owner, null, null, null, null)).thenReturn(Either.right(Pair.with(entries, (String) null)));
+        headers = new HttpHeaders();
+        headers.setIfModifiedSince(System.currentTimeMillis());
+        response = fileController.getFiles(owner, null, null, null, null, headers);
 
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
-        assertThat(((List<File>) response.getBody()).size(), is(files.size()));
+        assertThat(response.getHeaders().getETag(), is(LIST_TAG));
     }
 
     @Test
@@ -410,16 +692,17 @@ public class FileControllerTest {
         Integer limit = 3 + 100;
 
         fileService = mock(FileService.class);
-        when(fileService.getFiles(limit)).thenReturn(Either.right(files));
+        when(fileService.getFiles(owner, limit, null, null, null)).thenReturn(Either.right(Pair.with(entries, (String) null)));
+        when(fileService.listTag(owner)).thenReturn(Either.right(LIST_TAG));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFiles(limit);
+        ResponseEntity<?> response = fileController.getFiles(owner, limit, null, null, null, new HttpHeaders());
 
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
-        assertThat(((List<File>) response.getBody()).size(), is(files.size()));
+        assertThat(((List<FileEntry>) response.getBody()).size(), is(entries.size()));
     }
 
     @Test
@@ -428,15 +711,105 @@ public class FileControllerTest {
         Integer limit = 3;
 
         fileService = mock(FileService.class);
-        when(fileService.getFiles(limit)).thenReturn(Either.right(files.subList(0,limit)));
+        when(fileService.getFiles(owner, limit, null, null, null)).thenReturn(Either.right(Pair.with(entries.subList(0,limit), "bmFtZQ")));
+        when(fileService.listTag(owner)).thenReturn(Either.right(LIST_TAG));
 
         fileController = new FileController(
-                authManager, jwtHelper, fileRepository, fileContentRepository, fileService
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
         );
 
-        ResponseEntity<?> response = fileController.getFiles(limit);
+        ResponseEntity<?> response = fileController.getFiles(owner, limit, null, null, null, new HttpHeaders());
 
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
-        assertThat(((List<File>) response.getBody()).size(), is(limit));
+        assertThat(((List<FileEntry>) response.getBody()).size(), is(limit));
+        assertThat(response.getHeaders().getFirst(FileController.NEXT_CURSOR_HEADER), is("bmFtZQ"));
+    }
+
+    @Test
+    public void testGetFiles400WhenCursorInvalid() {
+
+        fileService = mock(FileService.class);
+        when(fileService.getFiles(owner, 3, "size", null, "bmFtZQ")).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+        when(fileService.listTag(owner)).thenReturn(Either.right(LIST_TAG));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        ResponseEntity<?> response = fileController.getFiles(owner, 3, "size", null, "bmFtZQ", new HttpHeaders());
+
+        assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((AppError) response.getBody()).getCode(), is(400));
+    }
+
+    @Test
+    public void testStreamFilesWritesJsonArray() throws Exception {
+
+        final Sort sort = Sort.by(Sort.Direction.ASC, "name", "id");
+
+        fileService = mock(FileService.class);
+        when(fileService.listSort(null, null)).thenReturn(Either.right(sort));
+        when(fileService.streamFiles(eq(owner), eq(sort), any())).thenAnswer(x -> {
+            for (FileEntry entry : entries) {
+                x.getArgument(2, FileService.FileSink.class).accept(entry);
+            }
+            return Either.right((long) entries.size());
+        });
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        ResponseEntity<StreamingResponseBody> response = fileController.streamFiles(owner, null, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        List<?> written = objectMapper.readValue(out.toByteArray(), List.class);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(written.size(), is(entries.size()));
+        assertThat(((Map<?, ?>) written.get(0)).get("filename"), is(entries.get(0).name()));
+    }
+
+    @Test
+    public void testStreamFilesLeavesArrayOpenOnError() throws Exception {
+
+        final Sort sort = Sort.by(Sort.Direction.ASC, "name", "id");
+
+        fileService = mock(FileService.class);
+        when(fileService.listSort(null, null)).thenReturn(Either.right(sort));
+        when(fileService.streamFiles(eq(owner), eq(sort), any())).thenAnswer(x -> {
+            x.getArgument(2, FileService.FileSink.class).accept(entries.get(0));
+            return Either.left(FileService.SERVER_ERROR);
+        });
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        ResponseEntity<StreamingResponseBody> response = fileController.streamFiles(owner, null, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThrows(IOException.class, () -> response.getBody().writeTo(out));
+        assertThat(out.toString(StandardCharsets.UTF_8).endsWith("]"), is(false));
+    }
+
+    @Test
+    public void testStreamFiles400WhenSortInvalid() throws Exception {
+
+        fileService = mock(FileService.class);
+        when(fileService.listSort("contentType", null)).thenReturn(Either.left(FileService.ERROR_INPUT_DATA));
+
+        fileController = new FileController(
+                authManager, jwtHelper, fileRepository, fileContentRepository, fileService, objectMapper
+        );
+
+        ResponseEntity<StreamingResponseBody> response = fileController.streamFiles(owner, "contentType", null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(objectMapper.readValue(out.toByteArray(), Map.class).get("code"), is(400));
+        verify(fileService, never()).streamFiles(any(), any(), any());
     }
 }
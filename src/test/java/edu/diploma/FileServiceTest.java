@@ -1,32 +1,46 @@
 package edu.diploma;
 
 import edu.diploma.auth.JwtHelper;
+import edu.diploma.service.ContentService;
 import edu.diploma.service.FileService;
 import edu.diploma.model.AppError;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.model.ContentDigest;
 import edu.diploma.model.File;
-import edu.diploma.model.FileContent;
+import edu.diploma.model.FileEntry;
 import edu.diploma.model.NewFilename;
-import edu.diploma.repository.FileContentRepository;
+import edu.diploma.model.User;
 import edu.diploma.repository.FileRepository;
 import io.vavr.control.Either;
 import org.javatuples.Pair;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentMatchers;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class FileServiceTest {
@@ -38,10 +52,20 @@ public class FileServiceTest {
             new File("File Four", "audio/mpeg", 456,567,345)
     );
 
+    private final List<FileEntry> entries = files.stream()
+            .map(f -> new FileEntry(null, f.getName(), f.getContentType(), f.getCreatedAt(), f.getEditedAt(), f.getSize(), null, null))
+            .toList();
+
+    private final User owner = new User(1L, "test", "test");
+
+    private final ContentBlob blob = new ContentBlob(
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", "abcd1234", 0
+    );
+
     private AuthenticationManager authManager;
     private JwtHelper jwtHelper;
     private FileRepository fileRepository;
-    private FileContentRepository fileContentRepository;
+    private ContentService contentService;
 
     private FileService fileService;
 
@@ -57,10 +81,10 @@ public class FileServiceTest {
         final NewFilename newFilename = null;
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.renameFile(filename, newFilename);
+        Either<AppError,File> response = fileService.renameFile(owner, filename, newFilename);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
@@ -73,16 +97,38 @@ public class FileServiceTest {
         final NewFilename newFilename = new NewFilename("A New File.txt");
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findOne(any(Example.class))).thenReturn(Optional.empty());
+        when(fileRepository.findByOwnerAndName(owner, filename)).thenReturn(Optional.empty());
+
+        fileService = new FileService(
+                authManager, jwtHelper, fileRepository, contentService
+        );
+
+        Either<AppError,File> response = fileService.renameFile(owner, filename, newFilename);
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+    }
+
+    @Test
+    public void testRenameFile400WhenNewFilenameTaken() {
+
+        final String filename = "A File.txt";
+        final NewFilename newFilename = new NewFilename("A New File.txt");
+        final File file = new File(filename);
+
+        fileRepository = mock(FileRepository.class);
+        when(fileRepository.findByOwnerAndName(owner, filename)).thenReturn(Optional.of(file));
+        when(fileRepository.existsByOwnerAndName(owner, newFilename.getFilename())).thenReturn(true);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.renameFile(filename, newFilename);
+        Either<AppError,File> response = fileService.renameFile(owner, filename, newFilename);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
+        verify(fileRepository, never()).save(any());
     }
 
     @Test
@@ -92,10 +138,10 @@ public class FileServiceTest {
         final NewFilename newFilename = new NewFilename("A New File.txt");
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.renameFile(filename, newFilename);
+        Either<AppError,File> response = fileService.renameFile(owner, filename, newFilename);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
@@ -109,14 +155,14 @@ public class FileServiceTest {
         final File file = new File(filename);
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findOne(any(Example.class))).thenReturn(Optional.of(file));
+        when(fileRepository.findByOwnerAndName(owner, filename)).thenReturn(Optional.of(file));
         when(fileRepository.save(any(File.class))).thenThrow(new RuntimeException("DB Error"));
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.renameFile(filename, newFilename);
+        Either<AppError,File> response = fileService.renameFile(owner, filename, newFilename);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(500));
@@ -130,14 +176,14 @@ public class FileServiceTest {
         final File file = new File(filename);
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findOne(any(Example.class))).thenReturn(Optional.of(file));
+        when(fileRepository.findByOwnerAndName(owner, filename)).thenReturn(Optional.of(file));
         when(fileRepository.save(file)).thenReturn(file);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.renameFile(filename, newFilename);
+        Either<AppError,File> response = fileService.renameFile(owner, filename, newFilename);
 
         assertThat(response.isRight(), is(true));
         assertThat(response.get().getName(), is(newFilename.getFilename()));
@@ -149,10 +195,10 @@ public class FileServiceTest {
         final String filename = null;
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,Pair<File,FileContent>> response = fileService.getFile(filename);
+        Either<AppError,Pair<File,Resource>> response = fileService.getFile(owner, filename);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
@@ -162,19 +208,19 @@ public class FileServiceTest {
     public void testGetFile500WhenNoFileCotent() throws Exception {
 
         final String filename = "A File.txt";
-        final File file = new File(filename);
+        final File file = new File(filename, "text/plain", 123, 124, 123, blob);
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findOne(any(Example.class))).thenReturn(Optional.of(file));
+        when(fileRepository.findWithContentByOwnerAndName(owner, filename)).thenReturn(Optional.of(file));
 
-        fileContentRepository = mock(FileContentRepository.class);
-        when(fileContentRepository.findOne(any(Example.class))).thenReturn(Optional.empty());
+        contentService = mock(ContentService.class);
+        when(contentService.open(file.getContent())).thenThrow(new FileNotFoundException());
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,Pair<File,FileContent>> response = fileService.getFile(filename);
+        Either<AppError,Pair<File,Resource>> response = fileService.getFile(owner, filename);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(500));
@@ -184,25 +230,21 @@ public class FileServiceTest {
     public void testGetFile500WhenNoFile() throws Exception {
 
         final String filename = "A File.txt";
-        final String contents = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
-        final File file = new File(filename);
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findOne(any(Example.class))).thenReturn(Optional.empty());
+        when(fileRepository.findWithContentByOwnerAndName(owner, filename)).thenReturn(Optional.empty());
 
-        FileContent fileContent = new FileContent(file, contents.getBytes(StandardCharsets.UTF_8));
-
-        fileContentRepository = mock(FileContentRepository.class);
-        when(fileContentRepository.findOne(any(Example.class))).thenReturn(Optional.of(fileContent));
+        contentService = mock(ContentService.class);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,Pair<File,FileContent>> response = fileService.getFile(filename);
+        Either<AppError,Pair<File,Resource>> response = fileService.getFile(owner, filename);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(500));
+        verify(contentService, never()).open(any());
     }
 
     @Test
@@ -210,26 +252,26 @@ public class FileServiceTest {
 
         final String filename = "A File.txt";
         final String contents = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
-        final File file = new File(filename);
+        final File file = new File(filename, "text/plain", 123, 124, 123, blob);
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findOne(any(Example.class))).thenReturn(Optional.of(file));
+        when(fileRepository.findWithContentByOwnerAndName(owner, filename)).thenReturn(Optional.of(file));
 
-        FileContent fileContent = new FileContent(file, contents.getBytes(StandardCharsets.UTF_8));
+        Resource fileContent = new ByteArrayResource(contents.getBytes(StandardCharsets.UTF_8));
 
-        fileContentRepository = mock(FileContentRepository.class);
-        when(fileContentRepository.findOne(any(Example.class))).thenReturn(Optional.of(fileContent));
+        contentService = mock(ContentService.class);
+        when(contentService.open(file.getContent())).thenReturn(fileContent);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError, Pair<File,FileContent>> response = fileService.getFile(filename);
+        Either<AppError, Pair<File,Resource>> response = fileService.getFile(owner, filename);
 
         assertThat(response.isRight(), is(true));
         assertThat(
-                response.get().getValue1().getContent(),
-                is(fileContent.getContent())
+                response.get().getValue1().getContentAsByteArray(),
+                is(contents.getBytes(StandardCharsets.UTF_8))
         );
     }
 
@@ -237,48 +279,56 @@ public class FileServiceTest {
     public void testDeleteFile400WhenFilenameNull() {
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
         final String filename = null;
 
-        Either<AppError,List<File>> response = fileService.deleteFile(filename);
+        Either<AppError, Integer> response = fileService.deleteFile(owner, filename);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
     }
 
     @Test
-    public void testDeleteFile500WhenDbErrors() {
+    public void testDeleteFile500WhenDbErrors() throws Exception {
         fileRepository = mock(FileRepository.class);
 
-        when(fileRepository.findAll(any(Example.class))).thenReturn(List.of(files.get(0)));
-        doThrow(new RuntimeException("DB Error")).when(fileRepository).deleteAll(any(List.class));
+        when(fileRepository.deleteByOwnerAndNameIn(owner, List.of(files.get(0).getName())))
+                .thenThrow(new RuntimeException("DB Error"));
+
+        contentService = mock(ContentService.class);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError, List<File>> response = fileService.deleteFile(files.get(0).getName());
+        Either<AppError, Integer> response = fileService.deleteFile(owner, files.get(0).getName());
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(500));
+        verify(contentService, never()).release(any());
     }
 
     @Test
-    public void testDeleteFileOk() {
+    public void testDeleteFileOk() throws Exception {
         fileRepository = mock(FileRepository.class);
 
-        when(fileRepository.findAll(any(Example.class))).thenReturn(List.of(files.get(0)));
-        doNothing().when(fileRepository).deleteAll(List.of(files.get(0)));
+        final File file = new File("File One", "text/plain", 123, 124, 123, blob);
+
+        when(fileRepository.deleteByOwnerAndNameIn(owner, List.of(file.getName()))).thenReturn(1);
+
+        contentService = mock(ContentService.class);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError, List<File>> response = fileService.deleteFile(files.get(0).getName());
+        Either<AppError, Integer> response = fileService.deleteFile(owner, file.getName());
 
-        assertThat(response.isRight(), is(true));
+        assertThat(response.get(), is(1));
+        // The bytes are left to the collector
+        verify(contentService, never()).release(any());
     }
 
     @Test
@@ -287,25 +337,23 @@ public class FileServiceTest {
         MultipartFile content = mock(MultipartFile.class);
         when(content.getContentType()).thenReturn(files.get(0).getContentType());
         when(content.getSize()).thenReturn(files.get(0).getSize());
-        when(content.getBytes()).thenReturn(new byte[0]);
+        when(content.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
 
         fileRepository = mock(FileRepository.class);
         when(fileRepository.save(ArgumentMatchers.any(File.class))).thenReturn(files.get(0));
 
-        FileContent fileContent = new FileContent(files.get(0), content.getBytes());
-
-        fileContentRepository = mock(FileContentRepository.class);
-        when(fileContentRepository.save(fileContent))
-                .thenThrow(new RuntimeException("DB Error"));
+        contentService = mock(ContentService.class);
+        when(contentService.store(any(InputStream.class), any())).thenThrow(new IOException("Disk Error"));
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.saveFile(files.get(0).getName(), content);
+        Either<AppError,File> response = fileService.saveFile(owner, files.get(0).getName(), content);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
+        verify(fileRepository, never()).save(any(File.class));
     }
 
     @Test
@@ -314,25 +362,53 @@ public class FileServiceTest {
         MultipartFile content = mock(MultipartFile.class);
         when(content.getContentType()).thenReturn(files.get(0).getContentType());
         when(content.getSize()).thenReturn(files.get(0).getSize());
-        when(content.getBytes()).thenReturn(new byte[0]);
+        when(content.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
 
         fileRepository = mock(FileRepository.class);
         when(fileRepository.save(ArgumentMatchers.any(File.class)))
                 .thenThrow(new RuntimeException("DB Error"));
 
-        FileContent fileContent = new FileContent(files.get(0), content.getBytes());
-
-        fileContentRepository = mock(FileContentRepository.class);
-        when(fileContentRepository.save(fileContent)).thenReturn(fileContent);
+        contentService = mock(ContentService.class);
+        when(contentService.store(any(InputStream.class), any())).thenReturn(blob);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.saveFile(files.get(0).getName(), content);
+        Either<AppError,File> response = fileService.saveFile(owner, files.get(0).getName(), content);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
+        verify(contentService).release(blob);
+    }
+
+    @Test
+    public void testPostFileChecksContentDigest() throws Exception {
+
+        MultipartFile content = mock(MultipartFile.class);
+        when(content.getContentType()).thenReturn(files.get(0).getContentType());
+        when(content.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        fileRepository = mock(FileRepository.class);
+        when(fileRepository.save(ArgumentMatchers.any(File.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        contentService = mock(ContentService.class);
+        when(contentService.store(any(InputStream.class), any())).thenReturn(blob);
+
+        fileService = new FileService(
+                authManager, jwtHelper, fileRepository, contentService
+        );
+
+        // SHA-256 of no bytes, as the blob; then 32 zero bytes
+        Either<AppError, File> matching = fileService.saveFile(owner, "File One", content,
+                ContentDigest.parse("sha-256=:47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=:, md5=:1B2M2Y8AsgTpgAmY7PhCfg==:"));
+        Either<AppError, File> other = fileService.saveFile(owner, "File Two", content,
+                ContentDigest.parse("sha-256=:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=:"));
+
+        assertThat(matching.isRight(), is(true));
+        assertThat(other.getLeft().getCode(), is(400));
+        verify(fileRepository, times(1)).save(any(File.class));
+        verify(contentService, times(1)).release(blob);
     }
 
     @Test
@@ -342,10 +418,10 @@ public class FileServiceTest {
         final MultipartFile content = null;
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.saveFile(filename, content);
+        Either<AppError,File> response = fileService.saveFile(owner, filename, content);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
@@ -359,10 +435,10 @@ public class FileServiceTest {
         final String filename = "   \t\n     ";
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.saveFile(filename, content);
+        Either<AppError,File> response = fileService.saveFile(owner, filename, content);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
@@ -376,10 +452,10 @@ public class FileServiceTest {
         final String filename = "";
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.saveFile(filename, content);
+        Either<AppError,File> response = fileService.saveFile(owner, filename, content);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
@@ -393,10 +469,10 @@ public class FileServiceTest {
         final String filename = null;
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.saveFile(filename, content);
+        Either<AppError,File> response = fileService.saveFile(owner, filename, content);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(400));
@@ -408,23 +484,23 @@ public class FileServiceTest {
         MultipartFile content = mock(MultipartFile.class);
         when(content.getContentType()).thenReturn(files.get(0).getContentType());
         when(content.getSize()).thenReturn(files.get(0).getSize());
-        when(content.getBytes()).thenReturn(new byte[0]);
+        when(content.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.save(ArgumentMatchers.any(File.class))).thenReturn(files.get(0));
+        when(fileRepository.save(ArgumentMatchers.any(File.class))).thenAnswer(x -> x.getArgument(0));
 
-        FileContent fileContent = new FileContent(files.get(0), content.getBytes());
-
-        fileContentRepository = mock(FileContentRepository.class);
-        when(fileContentRepository.save(fileContent)).thenReturn(fileContent);
+        contentService = mock(ContentService.class);
+        when(contentService.store(any(InputStream.class), any())).thenReturn(blob);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError,File> response = fileService.saveFile(files.get(0).getName(), content);
+        Either<AppError,File> response = fileService.saveFile(owner, files.get(0).getName(), content);
 
         assertThat(response.isRight(), is(true));
+        assertThat(response.get().getContent(), is(blob));
+        assertThat(response.get().getOwner(), is(owner));
     }
 
     @Test
@@ -433,13 +509,13 @@ public class FileServiceTest {
         final Integer limit = null;
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findAll()).thenThrow(new RuntimeException("Some DB Error"));
+        when(fileRepository.findByOwner(eq(owner), any(), any(), any())).thenThrow(new RuntimeException("Some DB Error"));
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError, List<File>> response = fileService.getFiles(limit);
+        Either<AppError, Pair<List<FileEntry>, String>> response = fileService.getFiles(owner, limit, null, null, null);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(500));
@@ -450,16 +526,16 @@ public class FileServiceTest {
     public void testGetFiles500WithLimitOnRepositoryException() {
 
         Integer limit = 3;
-        PageRequest pageRequest = PageRequest.of(0, limit, Sort.by(Sort.Direction.ASC, "name"));
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findAll(pageRequest)).thenThrow(new RuntimeException("Some DB Error"));
+        when(fileRepository.findByOwner(eq(owner), any(), any(), eq(Limit.of(limit))))
+                .thenThrow(new RuntimeException("Some DB Error"));
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError, List<File>> response = fileService.getFiles(limit);
+        Either<AppError, Pair<List<FileEntry>, String>> response = fileService.getFiles(owner, limit, null, null, null);
 
         assertThat(response.isLeft(), is(true));
         assertThat(response.getLeft().getCode(), is(500));
@@ -471,63 +547,172 @@ public class FileServiceTest {
 
         Integer limit = null;
 
-
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findAll()).thenReturn(files);
+        when(fileRepository.findByOwner(
+                owner,
+                ScrollPosition.keyset(),
+                Sort.by(Sort.Direction.ASC, "name").and(Sort.by(Sort.Direction.ASC, "id")),
+                Limit.of(FileService.DEFAULT_LIMIT)
+        )).thenReturn(window(entries, false));
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError, List<File>> response = fileService.getFiles(limit);
+        Either<AppError, Pair<List<FileEntry>, String>> response = fileService.getFiles(owner, limit, null, null, null);
 
         assertThat(response.isRight(), is(true));
-        assertThat(response.get().size(), is(files.size()));
+        assertThat(response.get().getValue0().size(), is(entries.size()));
+        assertThat(response.get().getValue1(), is(nullValue()));
     }
 
     @Test
     public void testGetFilesOkWithGreaterLimit() {
 
-        Integer limit = 3 + 100;
-        PageRequest pageRequest = PageRequest.of(0, limit, Sort.by(Sort.Direction.ASC, "name"));
-
-        Page<File> page = mock(Page.class);
-        when(page.stream()).thenReturn(files.stream());
-
+        Integer limit = FileService.MAX_LIMIT + 100;
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findAll(pageRequest)).thenReturn(page);
+        when(fileRepository.findByOwner(eq(owner), any(), any(), eq(Limit.of(FileService.MAX_LIMIT))))
+                .thenReturn(window(entries, false));
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError, List<File>> response = fileService.getFiles(limit);
+        Either<AppError, Pair<List<FileEntry>, String>> response = fileService.getFiles(owner, limit, null, null, null);
 
         assertThat(response.isRight(), is(true));
-        assertThat(response.get().size(), is(files.size()));
+        assertThat(response.get().getValue0().size(), is(entries.size()));
     }
 
     @Test
-    public void testGetFilesOkWithDefaultLimit() {
+    public void testGetFilesCursorContinuesAfterLastRow() {
 
         Integer limit = 3;
-        PageRequest pageRequest = PageRequest.of(0, limit, Sort.by(Sort.Direction.ASC, "name"));
+        Sort sort = Sort.by(Sort.Direction.DESC, "size").and(Sort.by(Sort.Direction.DESC, "id"));
+
+        fileRepository = mock(FileRepository.class);
+        when(fileRepository.findByOwner(owner, ScrollPosition.keyset(), sort, Limit.of(limit)))
+                .thenReturn(window(entries.subList(0, limit), true));
+        when(fileRepository.findByOwner(
+                owner,
+                ScrollPosition.forward(Map.of("size", entries.get(2).size(), "id", 3L)),
+                sort,
+                Limit.of(limit)
+        )).thenReturn(window(entries.subList(limit, entries.size()), false));
+
+        fileService = new FileService(
+                authManager, jwtHelper, fileRepository, contentService
+        );
+
+        Either<AppError, Pair<List<FileEntry>, String>> first = fileService.getFiles(owner, limit, "size", "desc", null);
+
+        assertThat(first.isRight(), is(true));
+        assertThat(first.get().getValue0().size(), is(limit));
+        assertThat(first.get().getValue1(), is(notNullValue()));
+
+        Either<AppError, Pair<List<FileEntry>, String>> second = fileService.getFiles(
+                owner, limit, "size", "desc", first.get().getValue1()
+        );
+
+        assertThat(second.isRight(), is(true));
+        assertThat(second.get().getValue0(), is(entries.subList(limit, entries.size())));
+        assertThat(second.get().getValue1(), is(nullValue()));
+    }
+
+    @Test
+    public void testGetFiles400WhenCursorIssuedForOtherSort() {
 
-        Page<File> page = mock(Page.class);
-        when(page.stream()).thenReturn(files.subList(0,limit).stream());
+        fileRepository = mock(FileRepository.class);
+        when(fileRepository.findByOwner(eq(owner), any(), any(), any())).thenReturn(window(entries.subList(0, 1), true));
 
+        fileService = new FileService(
+                authManager, jwtHelper, fileRepository, contentService
+        );
+
+        String cursor = fileService.getFiles(owner, 1, "name", null, null).get().getValue1();
+
+        Either<AppError, Pair<List<FileEntry>, String>> response = fileService.getFiles(owner, 1, "size", null, cursor);
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+    }
+
+    @Test
+    public void testGetFiles400WhenRequestInvalid() {
 
         fileRepository = mock(FileRepository.class);
-        when(fileRepository.findAll(pageRequest)).thenReturn(page);
 
         fileService = new FileService(
-                authManager, jwtHelper, fileRepository, fileContentRepository
+                authManager, jwtHelper, fileRepository, contentService
         );
 
-        Either<AppError, List<File>> response = fileService.getFiles(limit);
+        assertThat(fileService.getFiles(owner, 3, "contentType", null, null).getLeft().getCode(), is(400));
+        assertThat(fileService.getFiles(owner, 3, "name", "sideways", null).getLeft().getCode(), is(400));
+        assertThat(fileService.getFiles(owner, 0, "name", null, null).getLeft().getCode(), is(400));
+        assertThat(fileService.getFiles(owner, 3, "name", null, "%%%").getLeft().getCode(), is(400));
+        verify(fileRepository, never()).findByOwner(any(), any(), any(), any());
+    }
+
+    @Test
+    public void testStreamFilesReadsWindowAfterWindow() throws Exception {
+
+        final Sort sort = Sort.by(Sort.Direction.ASC, "name", "id");
+        final List<FileEntry> sent = new ArrayList<>();
+
+        fileRepository = mock(FileRepository.class);
+        when(fileRepository.findByOwner(owner, ScrollPosition.keyset(), sort, Limit.of(FileService.STREAM_BATCH)))
+                .thenReturn(window(entries.subList(0, 2), true));
+        when(fileRepository.findByOwner(
+                owner,
+                ScrollPosition.forward(Map.of("name", entries.get(1).name(), "size", entries.get(1).size(), "id", 2L)),
+                sort,
+                Limit.of(FileService.STREAM_BATCH)
+        )).thenReturn(window(entries.subList(2, entries.size()), false));
+
+        fileService = new FileService(
+                authManager, jwtHelper, fileRepository, contentService
+        );
+
+        Either<AppError, Long> response = fileService.streamFiles(owner, sort, sent::add);
 
         assertThat(response.isRight(), is(true));
-        assertThat(response.get().size(), is(limit));
+        assertThat(response.get(), is((long) entries.size()));
+        assertThat(sent, is(entries));
+    }
+
+    @Test
+    public void testStreamFiles500WhenSinkFails() throws Exception {
+
+        final Sort sort = Sort.by(Sort.Direction.ASC, "name", "id");
+
+        fileRepository = mock(FileRepository.class);
+        when(fileRepository.findByOwner(eq(owner), any(), any(), any())).thenReturn(window(entries, false));
+
+        fileService = new FileService(
+                authManager, jwtHelper, fileRepository, contentService
+        );
+
+        Either<AppError, Long> response = fileService.streamFiles(owner, sort, file -> {
+            throw new IOException("Broken pipe");
+        });
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(500));
+    }
+
+    /**
+     * A window whose rows have the ids 1, 2, ... in list order.
+     */
+    private static Window<FileEntry> window(List<FileEntry> content, boolean hasNext) {
+        return Window.from(
+                content,
+                i -> ScrollPosition.forward(Map.of(
+                        "name", content.get(i).name(),
+                        "size", content.get(i).size(),
+                        "id", (long) i + 1
+                )),
+                hasNext
+        );
     }
 }
@@ -0,0 +1,114 @@
+package edu.diploma;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.diploma.controller.FileStreamController;
+import edu.diploma.model.File;
+import edu.diploma.model.User;
+import edu.diploma.service.FileService;
+import edu.diploma.storage.ChunkStore;
+import io.vavr.control.Either;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class FileStreamControllerTest {
+
+    @TempDir
+    private Path root;
+
+    private final User owner = new User(1L, "test", "test");
+
+    @Test
+    public void testStreamedUploadIsStoredOffTheContainerThread() throws Exception {
+
+        ServletInputStream in = mock(ServletInputStream.class);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        AsyncContext context = mock(AsyncContext.class);
+        when(request.startAsync(request, response)).thenReturn(context);
+        when(request.getContentType()).thenReturn("text/plain");
+        when(request.getInputStream()).thenReturn(in);
+        when(context.getRequest()).thenReturn(request);
+
+        AtomicReference<byte[]> stored = new AtomicReference<>();
+        FileService fileService = mock(FileService.class);
+        when(fileService.saveFile(eq(owner), eq("notes.txt"), eq("text/plain"), any(InputStream.class), any()))
+                .thenAnswer(invocation -> {
+                    stored.set(invocation.<InputStream>getArgument(3).readAllBytes());
+                    return Either.right(mock(File.class));
+                });
+
+        List<Runnable> tasks = new ArrayList<>();
+        FileStreamController controller = new FileStreamController(
+                fileService, new ChunkStore(root, 1024), new ObjectMapper(), 4, Duration.ofMinutes(1), 1024, tasks::add
+        );
+
+        controller.postFile(owner, "notes.txt", request, response);
+
+        ArgumentCaptor<ReadListener> listener = ArgumentCaptor.forClass(ReadListener.class);
+        verify(in).setReadListener(listener.capture());
+
+        when(in.isReady()).thenReturn(true, false);
+        when(in.read(any(byte[].class))).thenAnswer(invocation -> {
+            byte[] buffer = invocation.getArgument(0);
+            buffer[0] = 'a';
+            buffer[1] = 'b';
+            return 2;
+        });
+        listener.getValue().onDataAvailable();
+        listener.getValue().onAllDataRead();
+
+        // The end of the body only hands the save over
+        verify(fileService, never()).saveFile(any(), any(), any(), any(InputStream.class), any());
+        verify(context, never()).complete();
+        assertThat(tasks.size(), is(1));
+
+        tasks.getFirst().run();
+
+        assertThat(stored.get(), is("ab".getBytes()));
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(context).complete();
+        try (var staged = Files.list(root.resolve("staged"))) {
+            assertThat(staged.count(), is(0L));
+        }
+    }
+
+    @Test
+    public void testStreamedUpload413WhenDeclaredTooLarge() throws Exception {
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getContentLengthLong()).thenReturn(1025L);
+        when(response.getOutputStream()).thenReturn(mock(ServletOutputStream.class));
+
+        FileStreamController controller = new FileStreamController(
+                mock(FileService.class), new ChunkStore(root, 1024), new ObjectMapper(), 4, Duration.ofMinutes(1), 1024, Runnable::run
+        );
+
+        controller.postFile(owner, "notes.txt", request, response);
+
+        verify(response).setStatus(413);
+        verify(request, never()).startAsync(any(), any());
+        assertThat(Files.exists(root.resolve("staged")), is(false));
+    }
+}
@@ -0,0 +1,89 @@
+package edu.diploma;
+
+import edu.diploma.storage.FileSystemContentStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FileSystemContentStoreTest {
+
+    @TempDir
+    private Path root;
+
+    private FileSystemContentStore contentStore;
+
+    @BeforeEach
+    public void setUp() {
+        contentStore = new FileSystemContentStore(root, 1024);
+    }
+
+    @Test
+    public void testWriteThenReadOk() throws Exception {
+
+        final byte[] contents = new byte[10 * 1024 + 17];
+        new Random(42).nextBytes(contents);
+
+        String key = contentStore.write(new ByteArrayInputStream(contents));
+        Resource resource = contentStore.read(key);
+
+        assertThat(resource.contentLength(), is((long) contents.length));
+        assertThat(resource.getContentAsByteArray(), is(contents));
+    }
+
+    @Test
+    public void testWriteShardsBlobs() throws Exception {
+
+        final byte[] contents = "Lorem ipsum".getBytes(StandardCharsets.UTF_8);
+
+        String key = contentStore.write(new ByteArrayInputStream(contents));
+        String other = contentStore.write(new ByteArrayInputStream(contents));
+
+        assertThat(key, is(not(other)));
+        assertThat(
+                Files.isRegularFile(root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key)),
+                is(true)
+        );
+    }
+
+    @Test
+    public void testDeleteOk() throws Exception {
+
+        String key = contentStore.write(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+
+        contentStore.delete(key);
+
+        assertThrows(FileNotFoundException.class, () -> contentStore.read(key));
+    }
+
+    @Test
+    public void testReadRejectsKeyOutsideStore() {
+
+        assertThrows(IllegalArgumentException.class, () -> contentStore.read("../../etc/passwd"));
+    }
+
+    @Test
+    public void testKeysListOnlyBlobs() throws Exception {
+
+        String key = contentStore.write(new ByteArrayInputStream("Lorem ipsum".getBytes(StandardCharsets.UTF_8)));
+        Files.writeString(root.resolve("README"), "Not a blob");
+
+        try (Stream<String> keys = contentStore.keys()) {
+            assertThat(keys.toList(), is(List.of(key)));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package edu.diploma;
+
+import edu.diploma.auth.JwtHelper;
+import edu.diploma.model.User;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class JwtHelperTest {
+
+    static final String SECRET = "asdaak1s3l5da6zxkcxcnxkjxkn9nxkvxvnxclkjfldkdjvvjhjhgvjhcjDJGDJHGJ78HHGJSJ65SJDBC9H1CBSJ";
+
+    private static final long VALIDITY = 60_000;
+
+    private MutableClock clock;
+
+    private JwtHelper jwtHelper;
+
+    @BeforeEach
+    public void setUp() {
+        clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+        jwtHelper = new JwtHelper(SECRET, VALIDITY, 2, clock);
+    }
+
+    @Test
+    public void testVerifyReturnsClaimsOfValidToken() {
+
+        String token = jwtHelper.createToken(Map.of(), "test");
+
+        Optional<Claims> claims = jwtHelper.verify(token);
+
+        assertThat(claims.isPresent(), is(true));
+        assertThat(claims.get().getSubject(), is("test"));
+        assertThat(jwtHelper.validateToken(token, new User("test")), is(true));
+        assertThat(jwtHelper.validateToken(token, new User("other")), is(false));
+    }
+
+    @Test
+    public void testVerifyRejectsTamperedToken() {
+
+        String token = jwtHelper.createToken(Map.of(), "test");
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+
+        assertThat(jwtHelper.verify(tampered).isPresent(), is(false));
+        assertThat(jwtHelper.verify("not a token").isPresent(), is(false));
+    }
+
+    @Test
+    public void testVerifyRejectsCachedTokenOnceExpired() {
+
+        String token = jwtHelper.createToken(Map.of(), "test");
+        assertThat(jwtHelper.verify(token).isPresent(), is(true));
+
+        clock.advance(Duration.ofMillis(VALIDITY).plusSeconds(1));
+
+        assertThat(jwtHelper.verify(token).isPresent(), is(false));
+    }
+
+    @Test
+    public void testVerifyKeepsWorkingBeyondCacheSize() {
+
+        String first = jwtHelper.createToken(Map.of(), "first");
+        String second = jwtHelper.createToken(Map.of(), "second");
+        String third = jwtHelper.createToken(Map.of(), "third");
+
+        assertThat(jwtHelper.verify(first).get().getSubject(), is("first"));
+        assertThat(jwtHelper.verify(second).get().getSubject(), is("second"));
+        assertThat(jwtHelper.verify(third).get().getSubject(), is("third"));
+        assertThat(jwtHelper.verify(first).get().getSubject(), is("first"));
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package edu.diploma;
+
+import edu.diploma.storage.LimitedInputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LimitedInputStreamTest {
+
+    @Test
+    public void testStreamUpToTheLimitIsReadWhole() throws Exception {
+
+        LimitedInputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[16]), 16);
+
+        assertThat(in.readAllBytes().length, is(16));
+    }
+
+    @Test
+    public void testStreamPastTheLimitFails() {
+
+        LimitedInputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[17]), 16);
+
+        assertThrows(LimitedInputStream.LimitExceededException.class, in::readAllBytes);
+    }
+}
@@ -0,0 +1,132 @@
+package edu.diploma;
+
+import edu.diploma.controller.NonBlockingTransfer;
+import edu.diploma.storage.LimitedInputStream;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NonBlockingTransferTest {
+
+    @Test
+    public void testDownloadWritesOnlyWhileTheClientIsReady() throws Exception {
+
+        ServletOutputStream out = mock(ServletOutputStream.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(out);
+        AsyncContext context = mock(AsyncContext.class);
+        when(context.getResponse()).thenReturn(response);
+
+        Queue<Runnable> reads = new ArrayDeque<>();
+        NonBlockingTransfer.download(context, Channels.newChannel(new ByteArrayInputStream(new byte[10])), 4, reads::add);
+
+        ArgumentCaptor<WriteListener> listener = ArgumentCaptor.forClass(WriteListener.class);
+        verify(out).setWriteListener(listener.capture());
+
+        // The container thread only hands the read over
+        when(out.isReady()).thenReturn(true);
+        listener.getValue().onWritePossible();
+        verify(out, never()).write(any(byte[].class), anyInt(), anyInt());
+        assertThat(reads.size(), is(1));
+
+        // The client takes one buffer, then blocks with the next one read
+        when(out.isReady()).thenReturn(true, false);
+        reads.remove().run();
+        verify(out, times(1)).write(any(byte[].class), eq(0), eq(4));
+        verify(context, never()).complete();
+
+        // The container writes that one when the client is ready again
+        when(out.isReady()).thenReturn(true);
+        listener.getValue().onWritePossible();
+        verify(out, times(2)).write(any(byte[].class), eq(0), eq(4));
+
+        reads.remove().run();
+        verify(out).write(any(byte[].class), eq(0), eq(2));
+        verify(context).complete();
+        assertThat(reads.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testUploadCopiesTheBodyAndReportsTheEnd() throws Exception {
+
+        ServletInputStream in = mock(ServletInputStream.class);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getInputStream()).thenReturn(in);
+        AsyncContext context = mock(AsyncContext.class);
+        when(context.getRequest()).thenReturn(request);
+
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        AtomicReference<Throwable> done = new AtomicReference<>(new IllegalStateException());
+        NonBlockingTransfer.upload(context, Channels.newChannel(stored), 4, 1024, done::set);
+
+        ArgumentCaptor<ReadListener> listener = ArgumentCaptor.forClass(ReadListener.class);
+        verify(in).setReadListener(listener.capture());
+
+        when(in.isReady()).thenReturn(true, true, false);
+        when(in.read(any(byte[].class))).thenAnswer(invocation -> {
+            byte[] buffer = invocation.getArgument(0);
+            buffer[0] = 'a';
+            buffer[1] = 'b';
+            return 2;
+        });
+        listener.getValue().onDataAvailable();
+        listener.getValue().onAllDataRead();
+
+        assertThat(stored.toString(), is("abab"));
+        assertThat(done.get(), is(nullValue()));
+
+        // A late error after the end is not reported again
+        listener.getValue().onError(new IllegalStateException());
+        assertThat(done.get(), is(nullValue()));
+        verify(in, never()).read(any(byte[].class), anyInt(), anyInt());
+    }
+
+    @Test
+    public void testUploadPastTheLimitFails() throws Exception {
+
+        ServletInputStream in = mock(ServletInputStream.class);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getInputStream()).thenReturn(in);
+        AsyncContext context = mock(AsyncContext.class);
+        when(context.getRequest()).thenReturn(request);
+
+        AtomicReference<Throwable> done = new AtomicReference<>();
+        NonBlockingTransfer.upload(context, Channels.newChannel(new ByteArrayOutputStream()), 4, 6, done::set);
+
+        ArgumentCaptor<ReadListener> listener = ArgumentCaptor.forClass(ReadListener.class);
+        verify(in).setReadListener(listener.capture());
+
+        when(in.isReady()).thenReturn(true);
+        when(in.read(any(byte[].class))).thenReturn(4);
+        listener.getValue().onDataAvailable();
+
+        // Cut off at the second buffer, not read to the end
+        verify(in, times(2)).read(any(byte[].class));
+        assertThat(done.get() instanceof LimitedInputStream.LimitExceededException, is(true));
+    }
+}
@@ -0,0 +1,247 @@
+package edu.diploma;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.diploma.auth.RateLimitFilter;
+import edu.diploma.auth.TokenBucket;
+import edu.diploma.auth.TokenBuckets;
+import edu.diploma.model.User;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RateLimitFilterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AtomicLong now = new AtomicLong(SECOND);
+
+    private RateLimitFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        filter = new RateLimitFilter(
+                new ObjectMapper(),
+                new TokenBuckets(10, 2),
+                new TokenBuckets(0, 0),
+                new TokenBuckets(1, 1),
+                new TokenBuckets(100, 100),
+                new TokenBuckets(100, 100),
+                now::get
+        );
+    }
+
+    @AfterEach
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testAddressOverBurstGets429() throws Exception {
+
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(request("GET", "/list", "10.0.0.1", -1), mock(HttpServletResponse.class), chain);
+        filter.doFilter(request("GET", "/list", "10.0.0.1", -1), mock(HttpServletResponse.class), chain);
+
+        HttpServletResponse rejected = response();
+        filter.doFilter(request("GET", "/list", "10.0.0.1", -1), rejected, chain);
+
+        verify(chain, times(2)).doFilter(any(), any());
+        verify(rejected).setStatus(429);
+        verify(rejected).setHeader(HttpHeaders.RETRY_AFTER, "1");
+
+        // Another address has its own bucket
+        filter.doFilter(request("GET", "/list", "10.0.0.2", -1), mock(HttpServletResponse.class), chain);
+        verify(chain, times(3)).doFilter(any(), any());
+        assertThat(filter.getRejected(), is(1L));
+    }
+
+    @Test
+    public void testUserIsLimitedUntilBucketRefills() throws Exception {
+
+        login("test");
+        FilterChain chain = mock(FilterChain.class);
+
+        filter.doFilter(request("GET", "/list", "10.0.0.1", -1), mock(HttpServletResponse.class), chain);
+        filter.doFilter(request("GET", "/list", "10.0.0.2", -1), response(), chain);
+        verify(chain, times(1)).doFilter(any(), any());
+
+        now.addAndGet(SECOND);
+        filter.doFilter(request("GET", "/list", "10.0.0.3", -1), mock(HttpServletResponse.class), chain);
+        verify(chain, times(2)).doFilter(any(), any());
+    }
+
+    @Test
+    public void testDownloadIsChargedAfterTheResponse() throws Exception {
+
+        login("test");
+        FilterChain chain = mock(FilterChain.class);
+
+        HttpServletResponse big = mock(HttpServletResponse.class);
+        when(big.getOutputStream()).thenReturn(sink());
+        filter.doFilter(request("GET", "/file", "10.0.0.1", -1), big, (req, res) -> res.getOutputStream().write(new byte[1000]));
+
+        now.addAndGet(SECOND);
+        HttpServletResponse rejected = response();
+        filter.doFilter(request("GET", "/file", "10.0.0.1", -1), rejected, chain);
+
+        verify(chain, never()).doFilter(any(), any());
+        // 1000 bytes at 100 per second, one second has passed and a full burst is allowed
+        verify(rejected).setHeader(HttpHeaders.RETRY_AFTER, "8");
+    }
+
+    @Test
+    public void testArchiveIsChargedWhenTheAsyncResponseCompletes() throws Exception {
+
+        login("test");
+
+        // The zip has no Content-Length and is written after the handler returned
+        HttpServletRequest archive = request("GET", "/files", "10.0.0.1", -1);
+        AsyncContext context = mock(AsyncContext.class);
+        when(archive.isAsyncStarted()).thenReturn(true);
+        when(archive.getAsyncContext()).thenReturn(context);
+        HttpServletResponse zip = mock(HttpServletResponse.class);
+        when(zip.getOutputStream()).thenReturn(sink());
+
+        AtomicReference<ServletResponse> written = new AtomicReference<>();
+        filter.doFilter(archive, zip, (req, res) -> written.set(res));
+
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(context).addListener(listener.capture());
+        written.get().getOutputStream().write(new byte[1000]);
+        listener.getValue().onComplete(mock(AsyncEvent.class));
+
+        now.addAndGet(SECOND);
+        HttpServletResponse rejected = response();
+        filter.doFilter(request("GET", "/files", "10.0.0.1", -1), rejected, mock(FilterChain.class));
+
+        verify(rejected).setHeader(HttpHeaders.RETRY_AFTER, "8");
+    }
+
+    @Test
+    public void testChunkedUploadIsChargedWhatWasRead() throws Exception {
+
+        login("test");
+
+        // No Content-Length: nothing is known up front, the 500 bytes read are charged after
+        HttpServletRequest chunked = request("PUT", "/upload/abc/0", "10.0.0.1", -1);
+        when(chunked.getInputStream()).thenReturn(body(new byte[500]));
+        filter.doFilter(chunked, mock(HttpServletResponse.class), (req, res) -> {
+            assertThat(((HttpServletRequest) req).getInputStream().readAllBytes().length, is(500));
+        });
+
+        now.addAndGet(SECOND);
+        HttpServletResponse rejected = response();
+        filter.doFilter(request("PUT", "/upload/abc/1", "10.0.0.1", -1), rejected, mock(FilterChain.class));
+
+        // 500 bytes at 100 per second from a full burst of 100, one second has passed
+        verify(rejected).setHeader(HttpHeaders.RETRY_AFTER, "3");
+    }
+
+    @Test
+    public void testUploadLargerThanBurstPassesOnlyWithFullBucket() {
+
+        TokenBucket bucket = new TokenBucket(100, 100);
+
+        assertThat(bucket.tryTake(500, 0), is(0L));
+        assertThat(bucket.tryTake(1, 0) > 0, is(true));
+        assertThat(bucket.isFull(5 * SECOND), is(true));
+        assertThat(bucket.tryTake(500, 5 * SECOND), is(0L));
+    }
+
+    private void login(String username) {
+        User user = new User(1L, username, null);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, List.of())
+        );
+    }
+
+    private static HttpServletRequest request(String method, String uri, String address, long length) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn(method);
+        when(request.getRequestURI()).thenReturn(uri);
+        when(request.getRemoteAddr()).thenReturn(address);
+        when(request.getContentLengthLong()).thenReturn(length);
+        when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+        return request;
+    }
+
+    private static HttpServletResponse response() throws Exception {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+        return response;
+    }
+
+    private static ServletInputStream body(byte[] bytes) {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+            }
+        };
+    }
+
+    private static ServletOutputStream sink() {
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package edu.diploma;
+
+import edu.diploma.auth.JwtHelper;
+import edu.diploma.auth.StatelessTokens;
+import edu.diploma.auth.TokenDenylist;
+import edu.diploma.model.Login;
+import edu.diploma.model.User;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class StatelessTokensTest {
+
+    private final User user = new User(7L, "test", "test");
+
+    private JwtHelper jwtHelper;
+
+    private TokenDenylist tokenDenylist;
+
+    private StatelessTokens statelessTokens;
+
+    @BeforeEach
+    public void setUp() {
+        jwtHelper = new JwtHelper(JwtHelperTest.SECRET, 60_000, 100, Clock.systemUTC());
+        tokenDenylist = new TokenDenylist();
+        statelessTokens = new StatelessTokens(jwtHelper, tokenDenylist, true, 60_000, 600_000);
+    }
+
+    @Test
+    public void testAccessTokenAuthenticatesFromClaims() {
+
+        Login login = statelessTokens.issue(user);
+
+        User principal = statelessTokens.authenticate(jwtHelper.verify(login.getToken()).get()).get();
+
+        assertThat(principal.getId(), is(7L));
+        assertThat(principal.getUsername(), is("test"));
+    }
+
+    @Test
+    public void testTokensAreNotInterchangeable() {
+
+        Login login = statelessTokens.issue(user);
+
+        Claims refresh = jwtHelper.verify(login.getRefreshToken()).get();
+
+        assertThat(statelessTokens.authenticate(refresh).isPresent(), is(false));
+        assertThat(statelessTokens.verifyRefresh(login.getToken()).isPresent(), is(false));
+        assertThat(statelessTokens.verifyRefresh(login.getRefreshToken()).isPresent(), is(true));
+    }
+
+    @Test
+    public void testRevokeDeniesAccessAndRefreshToken() {
+
+        Login login = statelessTokens.issue(user);
+        Claims access = jwtHelper.verify(login.getToken()).get();
+
+        statelessTokens.revoke(access);
+
+        assertThat(statelessTokens.authenticate(access).isPresent(), is(false));
+        assertThat(statelessTokens.verifyRefresh(login.getRefreshToken()).isPresent(), is(false));
+    }
+
+    @Test
+    public void testDenylistForgetsExpiredIds() {
+
+        Instant now = Instant.parse("2025-01-01T00:00:00Z");
+        TokenDenylist denylist = new TokenDenylist(Clock.fixed(now, ZoneOffset.UTC));
+
+        assertThat(denylist.deny("a", now.minusSeconds(1)), is(true));
+        assertThat(denylist.deny("b", now.plusSeconds(60)), is(true));
+        assertThat(denylist.deny("b", now.plusSeconds(60)), is(false));
+
+        denylist.purge();
+
+        assertThat(denylist.size(), is(1));
+        assertThat(denylist.isDenied("a"), is(false));
+        assertThat(denylist.isDenied("b"), is(true));
+    }
+}
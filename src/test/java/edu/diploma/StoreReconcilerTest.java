@@ -0,0 +1,62 @@
+package edu.diploma;
+
+import edu.diploma.repository.ContentBlobRepository;
+import edu.diploma.repository.UploadSessionRepository;
+import edu.diploma.service.StoreReconciler;
+import edu.diploma.storage.ChunkStore;
+import edu.diploma.storage.ContentStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.mockito.Mockito.*;
+
+public class StoreReconcilerTest {
+
+    private ContentStore contentStore;
+    private ContentBlobRepository contentBlobRepository;
+    private ChunkStore chunkStore;
+    private UploadSessionRepository uploadSessionRepository;
+
+    private StoreReconciler storeReconciler;
+
+    @BeforeEach
+    public void setUp() {
+        contentStore = mock(ContentStore.class);
+        contentBlobRepository = mock(ContentBlobRepository.class);
+        chunkStore = mock(ChunkStore.class);
+        uploadSessionRepository = mock(UploadSessionRepository.class);
+
+        storeReconciler = new StoreReconciler(contentStore, contentBlobRepository, chunkStore, uploadSessionRepository);
+    }
+
+    @Test
+    public void testReconcileDeletesOnlyUnrecordedContent() throws Exception {
+
+        when(contentStore.keys()).thenReturn(Stream.of("kept", "broken", "orphan"));
+        when(contentBlobRepository.existsByStoreKey("kept")).thenReturn(true);
+        doThrow(new IOException("Busy")).when(contentStore).delete("broken");
+
+        storeReconciler.reconcile();
+
+        verify(contentStore, never()).delete("kept");
+        verify(contentStore).delete("orphan");
+    }
+
+    @Test
+    public void testReconcileDeletesChunksOfSessionsThatAreGone() throws Exception {
+
+        when(contentStore.keys()).thenReturn(Stream.empty());
+        when(chunkStore.idle(Long.MAX_VALUE)).thenReturn(List.of("gone", "open"));
+        when(uploadSessionRepository.existsById("open")).thenReturn(true);
+
+        storeReconciler.reconcile();
+
+        verify(chunkStore).delete("gone");
+        verify(chunkStore, never()).delete("open");
+        verify(chunkStore).discardStaged(Long.MAX_VALUE);
+    }
+}
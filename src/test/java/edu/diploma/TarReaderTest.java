@@ -0,0 +1,92 @@
+package edu.diploma;
+
+import edu.diploma.storage.TarReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TarReaderTest {
+
+    @Test
+    public void testReadsRegularFilesAndSkipsTheRest() throws Exception {
+
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "docs/", '5', new byte[0]);
+        entry(tar, "docs/a.txt", '0', "Lorem ipsum".getBytes(StandardCharsets.UTF_8));
+        entry(tar, "././@PaxHeader", 'x', "36 path=docs/a rather long name.txt\n".getBytes(StandardCharsets.UTF_8));
+        entry(tar, "docs/a rather lo", '0', new byte[1000]);
+        entry(tar, "b.bin", '0', new byte[512]);
+        tar.write(new byte[1024]);
+
+        TarReader reader = new TarReader(new ByteArrayInputStream(tar.toByteArray()));
+
+        TarReader.Entry first = reader.next();
+        assertThat(first.name(), is("docs/a.txt"));
+        assertThat(new String(first.content().readAllBytes(), StandardCharsets.UTF_8), is("Lorem ipsum"));
+
+        // Left unread, the content is skipped by the next call
+        TarReader.Entry second = reader.next();
+        assertThat(second.name(), is("docs/a rather long name.txt"));
+        assertThat(second.size(), is(1000L));
+
+        TarReader.Entry third = reader.next();
+        assertThat(third.name(), is("b.bin"));
+        assertThat(third.content().readAllBytes().length, is(512));
+
+        assertThat(reader.next(), is(nullValue()));
+    }
+
+    @Test
+    public void testLongNameOfASkippedEntryIsNotCarriedOver() throws Exception {
+
+        String directory = "docs/" + "a very long directory name ".repeat(5) + "/";
+        byte[] longName = (directory + "\0").getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "././@LongLink", 'L', longName);
+        entry(tar, directory.substring(0, 100), '5', new byte[0]);
+        entry(tar, "short.txt", '0', "Lorem ipsum".getBytes(StandardCharsets.UTF_8));
+        tar.write(new byte[1024]);
+
+        TarReader reader = new TarReader(new ByteArrayInputStream(tar.toByteArray()));
+
+        assertThat(reader.next().name(), is("short.txt"));
+        assertThat(reader.next(), is(nullValue()));
+    }
+
+    @Test
+    public void testTruncatedArchiveFails() throws Exception {
+
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "a.txt", '0', new byte[100]);
+
+        byte[] truncated = Arrays.copyOf(tar.toByteArray(), 512 + 50);
+        TarReader reader = new TarReader(new ByteArrayInputStream(truncated));
+
+        TarReader.Entry entry = reader.next();
+        assertThrows(EOFException.class, () -> entry.content().readAllBytes());
+    }
+
+    static void entry(ByteArrayOutputStream tar, String name, char type, byte[] content) {
+        byte[] header = new byte[512];
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, 0, Math.min(bytes.length, 100));
+        byte[] size = String.format("%011o", content.length).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(size, 0, header, 124, size.length);
+        header[156] = (byte) type;
+        System.arraycopy("ustar".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 5);
+
+        tar.writeBytes(header);
+        tar.writeBytes(content);
+        tar.writeBytes(new byte[(512 - content.length % 512) % 512]);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.diploma;
+
+import edu.diploma.auth.TokenRegistry;
+import edu.diploma.model.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class TokenRegistryTest {
+
+    private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+
+    private final User owner = new User(1L, "test", "test");
+
+    private TokenRegistry tokenRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        tokenRegistry = new TokenRegistry(2, Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void testRegisteredTokenIsFoundUntilRevoked() {
+
+        Claims claims = claims("a", NOW.plusSeconds(60));
+
+        tokenRegistry.register(claims, owner);
+        assertThat(tokenRegistry.lookup(claims), is(Optional.of(owner)));
+
+        tokenRegistry.revoke(claims);
+        assertThat(tokenRegistry.lookup(claims), is(Optional.empty()));
+    }
+
+    @Test
+    public void testExpiredTokenIsNotFound() {
+
+        Claims claims = claims("a", NOW.minusSeconds(1));
+
+        tokenRegistry.register(claims, owner);
+
+        assertThat(tokenRegistry.lookup(claims), is(Optional.empty()));
+    }
+
+    @Test
+    public void testTokenWithoutIdIsNeverRegistered() {
+
+        Claims claims = claims(null, NOW.plusSeconds(60));
+
+        tokenRegistry.register(claims, owner);
+
+        assertThat(tokenRegistry.lookup(claims), is(Optional.empty()));
+    }
+
+    @Test
+    public void testRegistryStaysWithinItsSize() {
+
+        Claims first = claims("a", NOW.plusSeconds(60));
+        Claims second = claims("b", NOW.plusSeconds(60));
+        Claims third = claims("c", NOW.plusSeconds(60));
+
+        tokenRegistry.register(first, owner);
+        tokenRegistry.register(second, owner);
+        tokenRegistry.register(third, owner);
+
+        int found = (tokenRegistry.lookup(first).isPresent() ? 1 : 0)
+                + (tokenRegistry.lookup(second).isPresent() ? 1 : 0)
+                + (tokenRegistry.lookup(third).isPresent() ? 1 : 0);
+
+        assertThat(found, is(2));
+        assertThat(tokenRegistry.lookup(third), is(Optional.of(owner)));
+    }
+
+    @Test
+    public void testRevokedTokenIsNotRegisteredAgain() {
+
+        Claims claims = claims("a", NOW.plusSeconds(60));
+
+        // A request read the session row just before logout deleted it, and registers late
+        tokenRegistry.revoke(claims);
+        tokenRegistry.register(claims, owner);
+
+        assertThat(tokenRegistry.lookup(claims), is(Optional.empty()));
+    }
+
+    private static Claims claims(String id, Instant expiry) {
+        return Jwts.claims().setId(id).setSubject("test").setExpiration(Date.from(expiry));
+    }
+}
@@ -0,0 +1,232 @@
+package edu.diploma;
+
+import edu.diploma.model.AppError;
+import edu.diploma.model.ContentBlob;
+import edu.diploma.model.ContentDigest;
+import edu.diploma.model.File;
+import edu.diploma.model.UploadSession;
+import edu.diploma.model.User;
+import edu.diploma.repository.FileRepository;
+import edu.diploma.repository.UploadSessionRepository;
+import edu.diploma.service.ContentService;
+import edu.diploma.service.UploadService;
+import edu.diploma.storage.ChunkStore;
+import io.vavr.control.Either;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class UploadServiceTest {
+
+    private static final String ID = "0f8e2b4c-5d6a-4e1f-9b3c-7a2d1e0f4b5c";
+
+    private final User owner = new User(1L, "test", "test");
+
+    private final ContentBlob blob = new ContentBlob(
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", "abcd1234", 17
+    );
+
+    private UploadSessionRepository uploadSessionRepository;
+    private FileRepository fileRepository;
+    private ContentService contentService;
+    private ChunkStore chunkStore;
+
+    private UploadService uploadService;
+
+    @BeforeEach
+    public void setUp() {
+        uploadSessionRepository = mock(UploadSessionRepository.class);
+        fileRepository = mock(FileRepository.class);
+        contentService = mock(ContentService.class);
+        chunkStore = mock(ChunkStore.class);
+        // Sessions found by a test are still there to be touched
+        when(uploadSessionRepository.touch(eq(ID), eq(owner), anyLong())).thenReturn(1);
+
+        uploadService = new UploadService(
+                uploadSessionRepository, fileRepository, contentService, chunkStore, 100, 1024
+        );
+    }
+
+    @Test
+    public void testCreateUpload400WhenFilenameEmpty() {
+
+        Either<AppError, UploadSession> response = uploadService.createUpload(owner, " ", null);
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+    }
+
+    @Test
+    public void testCreateUploadDefaultsContentType() {
+
+        when(uploadSessionRepository.save(any(UploadSession.class))).thenAnswer(x -> x.getArgument(0));
+
+        Either<AppError, UploadSession> response = uploadService.createUpload(owner, "A File.bin", null);
+
+        assertThat(response.isRight(), is(true));
+        assertThat(response.get().getContentType(), is("application/octet-stream"));
+    }
+
+    @Test
+    public void testPutChunk400WhenIndexOutOfRange() throws Exception {
+
+        when(uploadSessionRepository.findByIdAndOwner(ID, owner)).thenReturn(Optional.of(new UploadSession()));
+
+        Either<AppError, Long> response = uploadService.putChunk(owner, ID, 100, new ByteArrayInputStream(new byte[1]));
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+        verify(chunkStore, never()).write(any(), anyInt(), any());
+    }
+
+    @Test
+    public void testPutChunk400WhenNoUpload() throws Exception {
+
+        when(uploadSessionRepository.touch(eq(ID), eq(owner), anyLong())).thenReturn(0);
+
+        Either<AppError, Long> response = uploadService.putChunk(owner, ID, 0, new ByteArrayInputStream(new byte[1]));
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+    }
+
+    @Test
+    public void testPutChunk413WhenChunksGoPastMaxFileSize() throws Exception {
+
+        when(chunkStore.size(ID)).thenReturn(1000L);
+        when(chunkStore.write(eq(ID), eq(3), any())).thenAnswer(invocation -> (long) invocation.<InputStream>getArgument(2).readAllBytes().length);
+
+        Either<AppError, Long> response = uploadService.putChunk(owner, ID, 3, new ByteArrayInputStream(new byte[25]));
+
+        // 1000 of 1024 bytes are taken by the other chunks
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(413));
+    }
+
+    @Test
+    public void testCommitUpload400WhenChunkMissing() throws Exception {
+
+        when(uploadSessionRepository.findByIdAndOwner(ID, owner)).thenReturn(Optional.of(new UploadSession()));
+        when(chunkStore.chunks(ID)).thenReturn(List.of(0, 2));
+
+        Either<AppError, File> response = uploadService.commitUpload(owner, ID, 3);
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+        verify(contentService, never()).store(any());
+    }
+
+    @Test
+    public void testCommitUploadOk() throws Exception {
+
+        final UploadSession upload = new UploadSession("A File.bin", "application/octet-stream", 123);
+
+        when(uploadSessionRepository.findByIdAndOwner(ID, owner)).thenReturn(Optional.of(upload));
+        when(chunkStore.chunks(ID)).thenReturn(List.of(0, 1));
+        when(chunkStore.open(ID, 2)).thenReturn(new ByteArrayInputStream(new byte[17]));
+        when(contentService.store(any(InputStream.class), any())).thenReturn(blob);
+        when(fileRepository.save(any(File.class))).thenAnswer(x -> x.getArgument(0));
+
+        Either<AppError, File> response = uploadService.commitUpload(owner, ID, 2);
+
+        assertThat(response.isRight(), is(true));
+        assertThat(response.get().getName(), is("A File.bin"));
+        assertThat(response.get().getSize(), is(17L));
+        assertThat(response.get().getContent(), is(blob));
+        assertThat(response.get().getOwner(), is(owner));
+        verify(uploadSessionRepository).delete(upload);
+        verify(chunkStore).delete(ID);
+    }
+
+    @Test
+    public void testCommitUploadReleasesContentWhenFileNotSaved() throws Exception {
+
+        when(uploadSessionRepository.findByIdAndOwner(ID, owner)).thenReturn(Optional.of(new UploadSession("A File.bin", "text/plain", 123)));
+        when(chunkStore.chunks(ID)).thenReturn(List.of(0));
+        when(chunkStore.open(ID, 1)).thenReturn(new ByteArrayInputStream(new byte[17]));
+        when(contentService.store(any(InputStream.class), any())).thenReturn(blob);
+        when(fileRepository.save(any(File.class))).thenThrow(new RuntimeException());
+
+        Either<AppError, File> response = uploadService.commitUpload(owner, ID, 1);
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(500));
+        verify(contentService).release(blob);
+        verify(chunkStore, never()).delete(ID);
+    }
+
+    @Test
+    public void testCommitUpload400WhenNameTaken() throws Exception {
+
+        when(uploadSessionRepository.findByIdAndOwner(ID, owner)).thenReturn(Optional.of(new UploadSession("A File.bin", "text/plain", 123)));
+        when(fileRepository.existsByOwnerAndName(owner, "A File.bin")).thenReturn(true);
+
+        Either<AppError, File> response = uploadService.commitUpload(owner, ID, 1);
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+        verify(contentService, never()).store(any(InputStream.class), any());
+    }
+
+    @Test
+    public void testCommitUpload400WhenNameTakenMeanwhile() throws Exception {
+
+        when(uploadSessionRepository.findByIdAndOwner(ID, owner)).thenReturn(Optional.of(new UploadSession("A File.bin", "text/plain", 123)));
+        when(chunkStore.chunks(ID)).thenReturn(List.of(0));
+        when(chunkStore.open(ID, 1)).thenReturn(new ByteArrayInputStream(new byte[17]));
+        when(contentService.store(any(InputStream.class), any())).thenReturn(blob);
+        when(fileRepository.save(any(File.class))).thenThrow(new DataIntegrityViolationException("Unique index"));
+
+        Either<AppError, File> response = uploadService.commitUpload(owner, ID, 1);
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+        verify(contentService).release(blob);
+    }
+
+    @Test
+    public void testCommitUpload400WhenSessionExpiredMeanwhile() throws Exception {
+
+        when(uploadSessionRepository.findByIdAndOwner(ID, owner)).thenReturn(Optional.of(new UploadSession("A File.bin", "text/plain", 123)));
+        when(uploadSessionRepository.touch(eq(ID), eq(owner), anyLong())).thenReturn(0);
+
+        Either<AppError, File> response = uploadService.commitUpload(owner, ID, 1);
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+        verify(chunkStore, never()).open(any(), anyInt());
+    }
+
+    @Test
+    public void testCommitUpload400WhenDigestDoesNotMatch() throws Exception {
+
+        when(uploadSessionRepository.findByIdAndOwner(ID, owner)).thenReturn(Optional.of(new UploadSession("A File.bin", "text/plain", 123)));
+        when(chunkStore.chunks(ID)).thenReturn(List.of(0));
+        when(chunkStore.open(ID, 1)).thenReturn(new ByteArrayInputStream(new byte[17]));
+        when(contentService.store(any(InputStream.class), any())).thenReturn(blob);
+
+        Either<AppError, File> response = uploadService.commitUpload(
+                owner, ID, 1, ContentDigest.parse("sha-256=:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=:")
+        );
+
+        assertThat(response.isLeft(), is(true));
+        assertThat(response.getLeft().getCode(), is(400));
+        verify(contentService).release(blob);
+        verify(fileRepository, never()).save(any(File.class));
+        // The chunks stay for the client to fix and commit again
+        verify(uploadSessionRepository, never()).delete(any(UploadSession.class));
+        verify(chunkStore, never()).delete(ID);
+    }
+}
@@ -0,0 +1,72 @@
+package edu.diploma;
+
+import edu.diploma.model.UploadSession;
+import edu.diploma.repository.UploadSessionRepository;
+import edu.diploma.service.UploadSweeper;
+import edu.diploma.storage.ChunkStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class UploadSweeperTest {
+
+    private UploadSessionRepository uploadSessionRepository;
+    private ChunkStore chunkStore;
+
+    private UploadSweeper uploadSweeper;
+
+    @BeforeEach
+    public void setUp() {
+        uploadSessionRepository = mock(UploadSessionRepository.class);
+        chunkStore = mock(ChunkStore.class);
+
+        uploadSweeper = new UploadSweeper(uploadSessionRepository, chunkStore, 86400000);
+    }
+
+    @Test
+    public void testSweepDeletesIdleSessionsWithTheirChunks() throws Exception {
+
+        UploadSession first = session("first");
+        UploadSession second = session("second");
+        UploadSession busy = session("busy");
+        when(uploadSessionRepository.findByLastChunkAtLessThan(anyLong(), any())).thenReturn(List.of(first, second, busy));
+        when(uploadSessionRepository.deleteIdle(eq("first"), anyLong())).thenReturn(1);
+        when(uploadSessionRepository.deleteIdle(eq("second"), anyLong())).thenReturn(1);
+        doThrow(new IOException("Busy")).when(chunkStore).delete("first");
+
+        uploadSweeper.sweep();
+
+        // A directory that cannot be deleted does not keep the others
+        verify(chunkStore).delete("first");
+        verify(chunkStore).delete("second");
+        // Got a chunk or a commit after it was selected: its chunks stay
+        verify(chunkStore, never()).delete("busy");
+        verify(chunkStore).discardStaged(anyLong());
+    }
+
+    @Test
+    public void testSweepDeletesOnlyChunksNoSessionOwns() throws Exception {
+
+        when(uploadSessionRepository.findByLastChunkAtLessThan(anyLong(), any())).thenReturn(List.of());
+        when(chunkStore.idle(anyLong())).thenReturn(List.of("orphan", "slow"));
+        when(uploadSessionRepository.existsById("slow")).thenReturn(true);
+
+        uploadSweeper.sweep();
+
+        verify(chunkStore).delete("orphan");
+        verify(chunkStore, never()).delete("slow");
+    }
+
+    private static UploadSession session(String id) {
+        UploadSession upload = new UploadSession("A File.bin", "text/plain", 123);
+        upload.setId(id);
+        return upload;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.diploma;
+
+import edu.diploma.auth.AuthUserDetailsService;
+import edu.diploma.auth.TokenRegistry;
+import edu.diploma.auth.UserCacheListener;
+import edu.diploma.auth.UserDetailsCache;
+import edu.diploma.model.User;
+import edu.diploma.repository.UserRepository;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserDetailsCacheTest {
+
+    private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+
+    private static final long TTL = 60000;
+
+    private final User user = new User(1L, "test", "test");
+
+    private MutableClock clock;
+
+    private UserDetailsCache userDetailsCache;
+
+    private UserRepository userRepository;
+
+    private AuthUserDetailsService userDetailsService;
+
+    @BeforeEach
+    public void setUp() {
+        clock = new MutableClock(NOW);
+        userDetailsCache = new UserDetailsCache(TTL, 2, clock);
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findByUsername("test")).thenReturn(Optional.of(user));
+        userDetailsService = new AuthUserDetailsService(userRepository, userDetailsCache);
+    }
+
+    @Test
+    public void testUserIsLoadedOnce() {
+
+        assertThat(userDetailsService.loadUserByUsername("test"), is(user));
+        assertThat(userDetailsService.loadUserByUsername("test"), is(user));
+
+        verify(userRepository, times(1)).findByUsername("test");
+        assertThat(userDetailsCache.getMisses(), is(1L));
+        assertThat(userDetailsCache.getHits(), is(1L));
+    }
+
+    @Test
+    public void testUserIsLoadedAgainAfterTtl() {
+
+        userDetailsService.loadUserByUsername("test");
+        clock.instant = NOW.plusMillis(TTL + 1);
+        userDetailsService.loadUserByUsername("test");
+
+        verify(userRepository, times(2)).findByUsername("test");
+    }
+
+    @Test
+    public void testChangedUserIsEvicted() {
+
+        userDetailsService.loadUserByUsername("test");
+
+        // Renamed: the entry under the old name goes too
+        new UserCacheListener(userDetailsCache, new TokenRegistry(10)).evict(new User(1L, "renamed", "test"));
+
+        assertThat(userDetailsCache.size(), is(0));
+        userDetailsService.loadUserByUsername("test");
+        verify(userRepository, times(2)).findByUsername("test");
+    }
+
+    @Test
+    public void testChangedUserLosesRegisteredTokens() {
+
+        TokenRegistry tokenRegistry = new TokenRegistry(10);
+        Claims claims = mock(Claims.class);
+        when(claims.getId()).thenReturn("a");
+        when(claims.getExpiration()).thenReturn(Date.from(Instant.now().plusSeconds(60)));
+        tokenRegistry.register(claims, user);
+
+        new UserCacheListener(userDetailsCache, tokenRegistry).evict(new User(1L, "test", "changed"));
+
+        assertThat(tokenRegistry.lookup(claims), is(Optional.empty()));
+    }
+
+    @Test
+    public void testUnknownUserIsNotCached() {
+
+        when(userRepository.findByUsername("nobody")).thenReturn(Optional.empty());
+
+        assertThrows(UsernameNotFoundException.class, () -> userDetailsService.loadUserByUsername("nobody"));
+        assertThat(userDetailsCache.size(), is(0));
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+
+        userDetailsCache.put(new User(1L, "a", "a"));
+        userDetailsCache.put(new User(2L, "b", "b"));
+        userDetailsCache.put(new User(3L, "c", "c"));
+
+        assertThat(userDetailsCache.size(), is(2));
+        assertThat(userDetailsCache.get("c").isPresent(), is(true));
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}